@@ -0,0 +1,74 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.GamesList;
+import com.illcode.meterman.Meterman;
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.impl.WorldBuilder;
+import com.illcode.meterman.ui.headless.HeadlessUI;
+import com.illcode.meterman.ui.headless.NullSoundManager;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Sets up the Meterman system and headless sessions for the benchmarks.
+ * <p/>
+ * The benchmarks are run from the project directory, and use the preferences in
+ * {@code benchmarks/config/benchmark.properties}, or those given by the system property
+ * {@code meterman.benchmark.config}.
+ */
+final class BenchmarkSupport
+{
+    static final String CONFIG_PROPERTY = "meterman.benchmark.config";
+    static final String DEFAULT_CONFIG = "benchmarks/config/benchmark.properties";
+
+    private static boolean systemLoaded;
+
+    private BenchmarkSupport() {
+    }
+
+    /** Loads the preferences and system bundle, once per JVM. */
+    static synchronized void loadSystem() throws IOException {
+        if (systemLoaded)
+            return;
+        if (!Meterman.loadSystem(Paths.get(System.getProperty(CONFIG_PROPERTY, DEFAULT_CONFIG))))
+            throw new IllegalStateException("Couldn't load the Meterman system; is the working directory the project directory?");
+        systemLoaded = true;
+    }
+
+    /**
+     * Creates a session with a {@link HeadlessUI}, makes it the default session (so that the threads
+     * JMH runs the benchmark on need not bind it), and starts a game of the given size in it.
+     * @param numEntities number of entities in the game world
+     * @return the new session
+     */
+    static MetermanSession startGame(int numEntities) throws IOException {
+        loadSystem();
+        HeadlessUI ui = new HeadlessUI();
+        MetermanSession session = new MetermanSession(ui, new NullSoundManager());
+        if (!session.init())
+            throw new IllegalStateException("Couldn't initialize the session");
+        MetermanSession.setDefault(session);
+        SyntheticGame.setWorldSize(numEntities);
+        session.getGameManager().newGame(GamesList.getGame(SyntheticWorld.NAME));
+        ui.clearOutput();
+        return session;
+    }
+
+    /** Disposes of a session created by {@link #startGame(int)}. */
+    static void endGame(MetermanSession session) {
+        session.dispose();
+        if (MetermanSession.getDefault() == session)
+            MetermanSession.setDefault(null);
+    }
+
+    /** Returns the WorldBuilder that loaded the game of a session, which has its rooms and entities by ID. */
+    static WorldBuilder getWorldBuilder(MetermanSession session) {
+        return WorldBuilder.retrieveFrom(session.getGameManager().getWorldData());
+    }
+
+    /** Discards the text that the game has shown so far, so that it doesn't pile up between iterations. */
+    static void clearOutput(MetermanSession session) {
+        ((HeadlessUI) session.getUI()).clearOutput();
+    }
+}
@@ -0,0 +1,57 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.impl.DarkRoom;
+import com.illcode.meterman.impl.WorldBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link DarkRoom#isDark()} in each kind of dark room that a synthetic world has: one with no
+ * light source, one with a light source lying in it, and one with a light source in a container.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DarkRoomBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    private MetermanSession session;
+    private DarkRoom darkRoom, litRoom, containerLitRoom;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(entities);
+        WorldBuilder wb = BenchmarkSupport.getWorldBuilder(session);
+        darkRoom = (DarkRoom) wb.getRoom(SyntheticWorld.roomId(SyntheticWorld.DARK_ROOM));
+        litRoom = (DarkRoom) wb.getRoom(SyntheticWorld.roomId(SyntheticWorld.LIT_DARK_ROOM));
+        containerLitRoom = (DarkRoom) wb.getRoom(SyntheticWorld.roomId(SyntheticWorld.CONTAINER_LIT_DARK_ROOM));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    @Benchmark
+    public boolean isDark() {
+        return darkRoom.isDark();
+    }
+
+    @Benchmark
+    public boolean isDarkWithLightSource() {
+        return litRoom.isDark();
+    }
+
+    @Benchmark
+    public boolean isDarkWithContainedLightSource() {
+        return containerLitRoom.isDark();
+    }
+}
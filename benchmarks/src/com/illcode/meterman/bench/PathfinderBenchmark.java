@@ -0,0 +1,88 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.Attributes;
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.Room;
+import com.illcode.meterman.impl.Door;
+import com.illcode.meterman.impl.PathCost;
+import com.illcode.meterman.impl.Pathfinder;
+import com.illcode.meterman.impl.WorldBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Pathfinder#findPath(Room, Room)} in the grid of rooms of a synthetic world,
+ * between neighboring rooms and between opposite corners of the grid, and across the grid
+ * after a door has been locked or unlocked; and the weighted searches of a Pathfinder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathfinderBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    private MetermanSession session;
+    private Pathfinder pathfinder;
+    private Room start, neighbor, farCorner;
+    private Door door;
+    private PathCost cost;
+    private Pathfinder.RoomFilter lightSources;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(entities);
+        SyntheticWorld world = ((SyntheticGame) session.getGameManager().getGame()).getWorld();
+        WorldBuilder wb = BenchmarkSupport.getWorldBuilder(session);
+        pathfinder = new Pathfinder();
+        start = wb.getRoom(SyntheticWorld.roomId(0));
+        neighbor = wb.getRoom(SyntheticWorld.roomId(1));
+        farCorner = wb.getRoom(SyntheticWorld.roomId(world.getNumRooms() - 1));
+        for (int r = 0; door == null && r < world.getNumRooms(); r++)
+            door = (Door) wb.getEntity(SyntheticWorld.doorId(r));
+        cost = new PathCost(1, 2, 5);
+        lightSources = Pathfinder.roomsContaining(Attributes.LIGHTSOURCE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    @Benchmark
+    public List<Room> findPathToNeighbor() {
+        return pathfinder.findPath(start, neighbor);
+    }
+
+    @Benchmark
+    public List<Room> findPathAcrossWorld() {
+        return pathfinder.findPath(start, farCorner);
+    }
+
+    /** Locks or unlocks a door, which the pathfinder must take into account, before each search. */
+    @Benchmark
+    public List<Room> findPathAfterDoorChange() {
+        if (door != null)
+            door.setLocked(!door.isLocked());
+        return pathfinder.findPath(start, farCorner);
+    }
+
+    /** Finds the cheapest path across the grid, where doors and dark rooms cost extra. */
+    @Benchmark
+    public List<Room> findCheapestPathAcrossWorld() {
+        return pathfinder.findCheapestPath(start, farCorner, cost);
+    }
+
+    /** Finds the nearest room, from the far corner of the grid, with a light source lying in it. */
+    @Benchmark
+    public List<Room> findNearestLightSource() {
+        return pathfinder.findNearest(farCorner, lightSources, cost);
+    }
+}
@@ -0,0 +1,60 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.Persistence;
+import com.illcode.meterman.WorldState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks saving and loading the world state, to and from memory, with the session's
+ * {@link Persistence} implementation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")  // Kryo recurses through the room graph of large worlds
+public class PersistenceBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    private MetermanSession session;
+    private Persistence persistence;
+    private WorldState worldState;
+    private ByteArrayOutputStream bout;
+    private byte[] savedState;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(entities);
+        persistence = session.getPersistence();
+        worldState = session.getGameManager().getWorldState();
+        bout = new ByteArrayOutputStream(entities * 256);
+        persistence.saveWorldState(worldState, bout);
+        savedState = bout.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    @Benchmark
+    public int saveWorldState() {
+        bout.reset();
+        persistence.saveWorldState(worldState, bout);
+        return bout.size();
+    }
+
+    @Benchmark
+    public WorldState loadWorldState() {
+        return persistence.loadWorldState(new ByteArrayInputStream(savedState));
+    }
+}
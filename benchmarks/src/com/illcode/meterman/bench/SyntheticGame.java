@@ -0,0 +1,81 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.*;
+import com.illcode.meterman.impl.BasicWorldManager;
+import com.illcode.meterman.impl.WorldBuilder;
+
+/**
+ * A game played in a {@link SyntheticWorld}, so that benchmarks can start games of any size through
+ * the game manager, just as a player would. Its glue file is in {@code benchmarks/glue}.
+ */
+public class SyntheticGame implements Game
+{
+    private static volatile int worldSize = 100;
+    private static volatile boolean lazyLoading;
+
+    private SyntheticWorld world;
+    private TextBundle bundle;
+
+    public SyntheticGame() {
+    }
+
+    /** Sets the number of entities in the worlds of games started hereafter. */
+    public static void setWorldSize(int numEntities) {
+        worldSize = numEntities;
+    }
+
+    /** Sets whether the worlds of games started hereafter are {@link WorldBuilder#setLazyLoading(boolean) loaded lazily}. */
+    public static void setLazyLoading(boolean lazy) {
+        lazyLoading = lazy;
+    }
+
+    public String getName() {
+        return SyntheticWorld.NAME;
+    }
+
+    public SyntheticWorld getWorld() {
+        return world;
+    }
+
+    public TextBundle getBundle() {
+        return bundle;
+    }
+
+    public void init() {
+        world = new SyntheticWorld(worldSize);
+        bundle = world.createBundle(null);
+        Meterman.setGameBundle(bundle);  // which also sets the bundle's parent to the system bundle
+    }
+
+    public void about() {
+        Meterman.ui().showTextDialog(SyntheticWorld.NAME, bundle.getPassage("about-text"), "OK");
+    }
+
+    public WorldState getInitialWorldState() {
+        WorldState worldState = new WorldState();
+        worldState.init(SyntheticWorld.NAME);
+
+        WorldBuilder wb = new WorldBuilder(worldState, bundle);
+        wb.saveTo(worldState.worldData);
+        wb.setLazyLoading(lazyLoading);
+        SyntheticWorld.load(wb);
+
+        BasicWorldManager basicWorldManager = new BasicWorldManager();
+        basicWorldManager.init();
+        basicWorldManager.saveTo(worldState.worldData);
+        basicWorldManager.register();
+        return worldState;
+    }
+
+    public void start(boolean newGame) {
+    }
+
+    public void dispose() {
+        world = null;
+        bundle = null;
+    }
+
+    public void debugCommand(String command) {
+        Utils.logger.fine("Debug Command: " + command);
+    }
+}
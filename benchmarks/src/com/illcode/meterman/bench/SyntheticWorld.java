@@ -0,0 +1,286 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.TextBundle;
+import com.illcode.meterman.impl.WorldBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the text bundle of a game world of any size, for benchmarking.
+ * <p/>
+ * The world has one room for every {@link #ENTITIES_PER_ROOM} entities (but at least four rooms), laid out
+ * in a square grid whose neighboring rooms are connected by exits; every {@link #DOOR_INTERVAL}th east-west
+ * connection is made through a closed, unlocked door. The entities are dealt out to the rooms in turn, so
+ * that the first entity in each room is a container. A quarter of the rooms are dark and unlit, and another
+ * quarter are dark but have a light source, half of those lying in the room and half in its container.
+ * The third entity in each room, and every third entity besides, is takeable. The doors are not counted
+ * among the entities.
+ * <p/>
+ * The passages are laid out as a hand-written game would lay them out, and are loaded by
+ * {@link #load(WorldBuilder)} using the usual {@link WorldBuilder} methods. Room descriptions span
+ * several lines, to be flowed, and refer to the variable {@code ${weather}}.
+ */
+public final class SyntheticWorld
+{
+    public static final String NAME = "Synthetic World";
+
+    public static final int ENTITIES_PER_ROOM = 10;
+    public static final int DOOR_INTERVAL = 7;
+
+    /** A dark room with no light source. */
+    public static final int DARK_ROOM = 1;
+    /** A dark room with a light source lying in it. */
+    public static final int LIT_DARK_ROOM = 2;
+    /** A dark room with a light source in its container. */
+    public static final int CONTAINER_LIT_DARK_ROOM = 3;
+
+    private final int numEntities, numRooms, gridWidth;
+    private final Map<String,String> passages;
+
+    /**
+     * Generates a world.
+     * @param numEntities number of entities in the world
+     */
+    public SyntheticWorld(int numEntities) {
+        this.numEntities = Math.max(numEntities, 1);
+        numRooms = Math.max(4, (this.numEntities + ENTITIES_PER_ROOM - 1) / ENTITIES_PER_ROOM);
+        gridWidth = (int) Math.ceil(Math.sqrt(numRooms));
+        passages = new LinkedHashMap<>(numRooms * 2 + this.numEntities * 2 + 16);
+        generate();
+    }
+
+    public int getNumEntities() {
+        return numEntities;
+    }
+
+    public int getNumRooms() {
+        return numRooms;
+    }
+
+    /** Returns the number of rooms in each row of the grid. */
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    /** Returns the passages of the world, in the order they were generated. */
+    public Map<String,String> getPassages() {
+        return passages;
+    }
+
+    public static String roomId(int room) {
+        return "room-" + room;
+    }
+
+    public static String entityId(int entity) {
+        return "thing-" + entity;
+    }
+
+    public static String doorId(int room) {
+        return "door-" + room;
+    }
+
+    /** Returns a new TextBundle holding the passages of the world, and setting the variables they use. */
+    public TextBundle createBundle(TextBundle parent) {
+        TextBundle b = new TextBundle(parent);
+        b.putAllPassages(passages);
+        putSubstitutions(b);
+        return b;
+    }
+
+    /** Sets the variables used by the passages of the world. */
+    public static void putSubstitutions(TextBundle b) {
+        b.putSubstitution("weather", "still");
+    }
+
+    /**
+     * Writes the passages of the world in the text bundle format.
+     * @param p path of the bundle file to write
+     */
+    public void writeBundle(Path p) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String,String> e : passages.entrySet()) {
+                w.write("[ " + e.getKey() + " ]\n\n");
+                w.write(e.getValue());
+                w.write("\n\n");
+            }
+        }
+    }
+
+    /** Loads the world, using a WorldBuilder whose bundle holds our passages. */
+    public static void load(WorldBuilder wb) {
+        wb.loadRooms("synthetic-rooms");
+        wb.loadEntities("synthetic-entities");
+        wb.loadRoomConnections("room-connections");
+        wb.loadEntityPlacements("entity-placements");
+        wb.loadContainerContents("container-contents");
+        wb.loadPlayerState("player-state");
+    }
+
+    /** Returns the kind of a room: 0 for a lit room, or one of {@link #DARK_ROOM}, {@link #LIT_DARK_ROOM},
+     *  or {@link #CONTAINER_LIT_DARK_ROOM}. */
+    public static int roomKind(int room) {
+        if (room % 4 == 1)
+            return DARK_ROOM;
+        switch (room % 8) {
+        case 2:
+            return LIT_DARK_ROOM;
+        case 3:
+            return CONTAINER_LIT_DARK_ROOM;
+        default:
+            return 0;
+        }
+    }
+
+    private void generate() {
+        passages.put("about-text", "A world of " + numEntities + " entities in " + numRooms +
+            " rooms, generated for benchmarking.");
+
+        List<String> list = new ArrayList<>(numRooms);
+        for (int r = 0; r < numRooms; r++)
+            list.add(roomKind(r) == 0 ? roomId(r) : roomId(r) + ":dark");
+        passages.put("synthetic-rooms", jsonList(list));
+
+        list = new ArrayList<>(numEntities + numRooms / DOOR_INTERVAL + 1);
+        for (int i = 0; i < numEntities; i++)
+            list.add(i < numRooms ? entityId(i) + ":container" : entityId(i));
+        for (int r = 0; r < numRooms; r++)
+            if (hasDoorEast(r))
+                list.add(doorId(r) + ":door");
+        passages.put("synthetic-entities", jsonList(list));
+
+        for (int r = 0; r < numRooms; r++)
+            generateRoom(r);
+        for (int i = 0; i < numEntities; i++)
+            generateEntity(i);
+        for (int r = 0; r < numRooms; r++)
+            if (hasDoorEast(r))
+                passages.put(doorId(r), "{\n    \"id\" : \"" + doorId(r) + "\",\n    \"name\" : \"Door\",\n" +
+                    "    \"open\" : false\n}");
+
+        generateConnections();
+        generatePlacements();
+        passages.put("player-state", "{\n    \"currentRoom\" : \"" + roomId(0) + "\"\n}");
+    }
+
+    private void generateRoom(int r) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\n    \"id\" : \"").append(roomId(r)).append("\",\n");
+        sb.append("    \"name\" : \"Room ").append(r).append("\",\n");
+        sb.append("    \"description\" : \"[[").append(roomId(r)).append("-description]]\"");
+        if (roomKind(r) != 0) {
+            sb.append(",\n    \"darkName\" : \"Dark Room ").append(r).append("\",\n");
+            sb.append("    \"attributes\" : [\"dark\"]");
+        }
+        sb.append("\n}");
+        passages.put(roomId(r), sb.toString());
+        passages.put(roomId(r) + "-description",
+            "You stand in room " + r + " of " + numRooms + ", which are laid out in a grid\n" +
+            gridWidth + " rooms wide. The ${weather} air carries the faint smell of\n" +
+            "arithmetic.\n\nThere is nothing else remarkable about the place.");
+    }
+
+    private void generateEntity(int i) {
+        int room = i % numRooms;
+        int kind = roomKind(room);
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("{\n    \"id\" : \"").append(entityId(i)).append("\",\n");
+        if (i < numRooms) {
+            sb.append("    \"name\" : \"Crate ").append(i).append("\",\n");
+            sb.append("    \"description\" : \"A plain wooden crate.\",\n");
+            sb.append("    \"inPrep\" : \"into\",\n");
+            sb.append("    \"outPrep\" : \"out of\"\n}");
+        } else {
+            boolean lamp = isLamp(i);
+            sb.append("    \"name\" : \"").append(lamp ? "Lamp " : "Thing ").append(i).append("\",\n");
+            sb.append("    \"description\" : \"[[").append(entityId(i)).append("-description]]\"");
+            if (lamp)
+                sb.append(",\n    \"attributes\" : [\"lightsource\"]");
+            else if (i % 3 == 0 || i / numRooms == 2)
+                sb.append(",\n    \"attributes\" : [\"takeable\"]");
+            sb.append("\n}");
+            passages.put(entityId(i) + "-description", "Thing " + i + " is an unremarkable object" +
+                (kind == 0 ? "." : ", easily lost in the dark."));
+        }
+        passages.put(entityId(i), sb.toString());
+    }
+
+    // The second entity in a room with a light source is the light source
+    private boolean isLamp(int i) {
+        int kind = roomKind(i % numRooms);
+        return i / numRooms == 1 && (kind == LIT_DARK_ROOM || kind == CONTAINER_LIT_DARK_ROOM);
+    }
+
+    private boolean hasDoorEast(int r) {
+        return r % DOOR_INTERVAL == DOOR_INTERVAL / 2 && hasRoomEast(r);
+    }
+
+    private boolean hasRoomEast(int r) {
+        return r % gridWidth != gridWidth - 1 && r + 1 < numRooms;
+    }
+
+    private void generateConnections() {
+        StringBuilder sb = new StringBuilder(numRooms * 64);
+        sb.append("[\n");
+        for (int r = 0; r < numRooms; r++) {
+            if (hasRoomEast(r)) {
+                sb.append("    { \"rooms\" : [\"").append(roomId(r)).append("\", \"").append(roomId(r + 1));
+                sb.append("\"], \"positions\" : [\"E\", \"W\"]");
+                if (hasDoorEast(r))
+                    sb.append(", \"door\" : \"").append(doorId(r)).append('"');
+                sb.append(" },\n");
+            }
+            if (r + gridWidth < numRooms) {
+                sb.append("    { \"rooms\" : [\"").append(roomId(r)).append("\", \"").append(roomId(r + gridWidth));
+                sb.append("\"], \"positions\" : [\"S\", \"N\"] },\n");
+            }
+        }
+        endJsonList(sb);
+        passages.put("room-connections", sb.toString());
+    }
+
+    private void generatePlacements() {
+        StringBuilder placements = new StringBuilder(numEntities * 16);
+        StringBuilder contents = new StringBuilder(numRooms * 8);
+        placements.append("[\n");
+        contents.append("[\n");
+        for (int r = 0; r < numRooms; r++) {
+            placements.append("    [\"").append(roomId(r)).append('"');
+            for (int i = r; i < numEntities; i += numRooms) {
+                if (isLamp(i) && roomKind(r) == CONTAINER_LIT_DARK_ROOM)
+                    contents.append("    [\"").append(entityId(r)).append("\", \"").append(entityId(i)).append("\"],\n");
+                else
+                    placements.append(", \"").append(entityId(i)).append('"');
+            }
+            placements.append("],\n");
+        }
+        endJsonList(placements);
+        endJsonList(contents);
+        passages.put("entity-placements", placements.toString());
+        passages.put("container-contents", contents.toString());
+    }
+
+    // Formats a list of strings as a JSON array, with one item per line
+    private static String jsonList(List<String> items) {
+        StringBuilder sb = new StringBuilder(items.size() * 16);
+        sb.append("[\n");
+        for (String s : items)
+            sb.append("    \"").append(s).append("\",\n");
+        endJsonList(sb);
+        return sb.toString();
+    }
+
+    // Removes the comma following the last item of a JSON array, and closes it
+    private static void endJsonList(StringBuilder sb) {
+        if (sb.length() >= 2 && sb.charAt(sb.length() - 2) == ',')
+            sb.delete(sb.length() - 2, sb.length() - 1);
+        sb.append(']');
+    }
+}
@@ -0,0 +1,91 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.Meterman;
+import com.illcode.meterman.TextBundle;
+import com.illcode.meterman.TextBundleCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks passage lookups in the bundle of a synthetic world, loaded either from a text bundle
+ * or from a compiled bundle. Each invocation looks up a passage chosen at random from those of its kind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBundleBenchmark
+{
+    private static final int NAMES_MASK = 1023;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    @Param({"text", "compiled"})
+    public String format;
+
+    private Path dir;
+    private TextBundle bundle;
+    private String[] entityPassages, roomPassages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkSupport.loadSystem();
+        SyntheticWorld world = new SyntheticWorld(entities);
+        dir = Files.createTempDirectory("meterman-bench");
+        Path p = dir.resolve("synthetic-bundle.txt");
+        world.writeBundle(p);
+        if (format.equals("compiled"))
+            TextBundleCompiler.compile(world.getPassages(), TextBundleCompiler.compiledPath(p));
+        bundle = TextBundle.loadBundle(p, Meterman.getSystemBundle());
+        SyntheticWorld.putSubstitutions(bundle);
+
+        // Entity descriptions have no variables; room descriptions have one, and are flowed
+        Random random = new Random(1);
+        entityPassages = new String[NAMES_MASK + 1];
+        roomPassages = new String[NAMES_MASK + 1];
+        int numThings = Math.max(world.getNumEntities() - world.getNumRooms(), 1);  // entities other than containers
+        for (int i = 0; i <= NAMES_MASK; i++) {
+            int n = world.getNumRooms() + random.nextInt(numThings);
+            entityPassages[i] = SyntheticWorld.entityId(n) + "-description";
+            roomPassages[i] = SyntheticWorld.roomId(random.nextInt(world.getNumRooms())) + "-description";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Path compiled = TextBundleCompiler.compiledPath(dir.resolve("synthetic-bundle.txt"));
+        Files.deleteIfExists(compiled);
+        Files.deleteIfExists(dir.resolve("synthetic-bundle.txt"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public String getPassage() {
+        return bundle.getPassage(entityPassages[next++ & NAMES_MASK]);
+    }
+
+    @Benchmark
+    public String getPassageWithVariable() {
+        return bundle.getPassage(roomPassages[next++ & NAMES_MASK]);
+    }
+
+    @Benchmark
+    public String getPassageFlowed() {
+        return bundle.getPassageFlowed(roomPassages[next++ & NAMES_MASK]);
+    }
+
+    /** Looks up a passage that is found only in the parent (system) bundle. */
+    @Benchmark
+    public String getParentPassage() {
+        return bundle.getPassage("action-not-handled");
+    }
+}
@@ -0,0 +1,82 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.Attributes;
+import com.illcode.meterman.Entity;
+import com.illcode.meterman.GameManager;
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.Room;
+import com.illcode.meterman.impl.BasicActions;
+import com.illcode.meterman.impl.WorldBuilder;
+import com.illcode.meterman.ui.headless.HeadlessUI;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the processing of a turn: an entity action, and the player moving between rooms.
+ * Undo is disabled, so that {@link UndoBenchmark} can measure its cost separately.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TurnBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    private MetermanSession session;
+    private GameManager gm;
+    private HeadlessUI ui;
+    private Room room0, room1;
+    private Entity takeable;
+    private String takeAction, dropAction;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(entities);
+        gm = session.getGameManager();
+        ui = (HeadlessUI) session.getUI();
+        gm.setUndoEnabled(false);
+        WorldBuilder wb = BenchmarkSupport.getWorldBuilder(session);
+        room0 = wb.getRoom(SyntheticWorld.roomId(0));
+        room1 = wb.getRoom(SyntheticWorld.roomId(1));
+        for (Entity e : room0.getRoomEntities()) {
+            if (e.checkAttribute(Attributes.TAKEABLE)) {
+                takeable = e;
+                break;
+            }
+        }
+        takeAction = BasicActions.getTakeAction();
+        dropAction = BasicActions.getDropAction();
+    }
+
+    @Setup(Level.Iteration)
+    public void clearOutput() {
+        ui.clearOutput();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    /** Takes, and then drops, an entity in the starting room, one action per invocation. */
+    @Benchmark
+    public void entityActionSelected() {
+        if (gm.getCurrentRoom() != room0)
+            gm.movePlayer(room0);
+        if (gm.getSelectedEntity() != takeable)
+            ui.userSelectEntity(takeable);
+        gm.entityActionSelected(gm.isInInventory(takeable) ? dropAction : takeAction);
+    }
+
+    /** Moves the player back and forth between the first two rooms, the second of which is dark. */
+    @Benchmark
+    public void movePlayer() {
+        gm.movePlayer(gm.getCurrentRoom() == room0 ? room1 : room0);
+    }
+}
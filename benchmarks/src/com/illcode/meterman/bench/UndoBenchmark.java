@@ -0,0 +1,47 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.GameManager;
+import com.illcode.meterman.MetermanSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link GameManager#undoCheckpoint()}, with both snapshot and journaled undo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")  // Kryo recurses through the room graph of large worlds
+public class UndoBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    @Param({"false", "true"})
+    public boolean journaled;
+
+    private MetermanSession session;
+    private GameManager gm;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(entities);
+        gm = session.getGameManager();
+        gm.setUndoEnabled(true);
+        gm.setJournaledUndo(journaled);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    @Benchmark
+    public void undoCheckpoint() {
+        gm.undoCheckpoint();
+    }
+}
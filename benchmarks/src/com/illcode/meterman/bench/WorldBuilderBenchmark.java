@@ -0,0 +1,56 @@
+package com.illcode.meterman.bench;
+
+import com.illcode.meterman.Meterman;
+import com.illcode.meterman.MetermanSession;
+import com.illcode.meterman.TextBundle;
+import com.illcode.meterman.WorldState;
+import com.illcode.meterman.impl.WorldBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading a synthetic world with a {@link WorldBuilder}, serially, in parallel, and lazily
+ * (which loads only the player's room, and those it is joined to by doors), from a bundle whose passages
+ * are already in memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBuilderBenchmark
+{
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entities;
+
+    @Param({"serial", "parallel", "lazy"})
+    public String mode;
+
+    private MetermanSession session;
+    private TextBundle bundle;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        session = BenchmarkSupport.startGame(10);  // entities are initialized with the session's action names
+        bundle = new SyntheticWorld(entities).createBundle(Meterman.getSystemBundle());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.endGame(session);
+    }
+
+    @Benchmark
+    public WorldState load() {
+        WorldState worldState = new WorldState();
+        worldState.init(SyntheticWorld.NAME);
+        WorldBuilder wb = new WorldBuilder(worldState, bundle);
+        wb.setParallelLoading(mode.equals("parallel"));
+        wb.setLazyLoading(mode.equals("lazy"));
+        SyntheticWorld.load(wb);
+        return worldState;
+    }
+}
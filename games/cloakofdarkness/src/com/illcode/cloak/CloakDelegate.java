@@ -17,7 +17,7 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
     private Map<String,BaseRoom> roomIdMap;
 
     private CloakState state;
-    private TextBundle bundle;
+    private transient TextBundle bundle;  // not saved; see getBundle()
 
     private BaseEntity cloak, hook, message;
     private BaseRoom cloakroom, foyer, patio, purgatory;
@@ -53,13 +53,19 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
         darkBarActions.add(getKickAction());
     }
 
+    private TextBundle getBundle() {
+        if (bundle == null)
+            bundle = Meterman.getSystemBundle();
+        return bundle;
+    }
+
     //region -- EntityDelegate --
 
     public String getDescription(BaseEntity e) {
         if (e == cloak) {
             String s = e.description;
             if (state.cloakHung)
-                s += " " + bundle.getPassage("cloak-hung-description");
+                s += " " + getBundle().getPassage("cloak-hung-description");
             return s;
         } else {
             return e.description;
@@ -68,7 +74,7 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
 
     public List<String> getActions(BaseEntity e) {
         actions.clear();
-        if (gm.getCurrentRoom() == cloakroom) {
+        if (gm().getCurrentRoom() == cloakroom) {
             if (e == cloak) {
                 if (!state.cloakHung)
                     actions.add(getHangOnHookAction());
@@ -86,16 +92,16 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
         if (e == cloak && action.equals(BasicActions.getTakeAction())) {
             if (state.cloakHung) {
                 state.cloakHung = false;  // can't be hung if we took it!
-                ui.appendTextLn(bundle.getPassage("unhang-cloak-message"));
+                ui().appendTextLn(getBundle().getPassage("unhang-cloak-message"));
             }
             return false;  // but let the regular machinery operate as usual
         } else if (action.equals(getHangOnHookAction()) || action.equals(getHangCloakAction())) {
-            gm.moveEntity(cloak, cloakroom);  // drop it, if in inventory
+            gm().moveEntity(cloak, cloakroom);  // drop it, if in inventory
             state.cloakHung = true;
-            ui.appendTextLn(bundle.getPassage("hang-cloak-message"));
+            ui().appendTextLn(getBundle().getPassage("hang-cloak-message"));
             return true;
         } else if (darkBarEntities.contains(e)) {
-            ui.appendTextLn(bundle.getPassage("dark-bar-action-warning"));
+            ui().appendTextLn(getBundle().getPassage("dark-bar-action-warning"));
             state.numDarkBarActions++;
             return true;
         } else {
@@ -105,7 +111,7 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
 
     public String replaceParserMessage(BaseEntity e, String action) {
         if (action.equals(getHangOnHookAction()) || action.equals(getHangCloakAction())) {
-            return bundle.getPassage("hang-cloak-parser-message");
+            return getBundle().getPassage("hang-cloak-parser-message");
         } else {
             return null;
         }
@@ -113,16 +119,16 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
 
     public boolean selected(BaseEntity e) {
         if (e == message) {
-            gm.undoCheckpoint();
+            gm().undoCheckpoint();
             // I use putSubstitution() and getPassageSplit() here just to show their operation.
-            Meterman.sound.playSound("endgame-sfx", 1.0);
-            bundle.putSubstitution("wonlost",
-                bundle.getPassageSplit("win-lose", '|')[state.numDarkBarActions < 3 ? 0 : 1]);
-            GameUtils.showPassagesF(bundle, "endgame-message");
-            bundle.clearSubstitutions();
-            ui.clearText();
-            bundle.putPassage("wait-message", bundle.getPassage("purgatory-wait-message"));
-            gm.movePlayer(purgatory);
+            Meterman.sound().playSound("endgame-sfx", 1.0);
+            getBundle().putSubstitution("wonlost",
+                getBundle().getPassageSplit("win-lose", '|')[state.numDarkBarActions < 3 ? 0 : 1]);
+            GameUtils.showPassagesF(getBundle(), "endgame-message");
+            getBundle().clearSubstitutions();
+            ui().clearText();
+            getBundle().putPassage("wait-message", getBundle().getPassage("purgatory-wait-message"));
+            gm().movePlayer(purgatory);
             return true;
         } else {
             return super.selected(e);
@@ -131,7 +137,7 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
 
     public void lookInRoom(BaseEntity e) {
         if (e == hook)
-            gm.queueLookText(bundle.getPassage("brass-hook-room-addendum"), true);
+            gm().queueLookText(getBundle().getPassage("brass-hook-room-addendum"), true);
     }
 
     //endregion
@@ -147,9 +153,9 @@ public class CloakDelegate extends EntityDelegateAdapter implements RoomDelegate
 
     public boolean exiting(BaseRoom r, Room toRoom) {
         if (r == cloakroom) {
-            bar.setAttribute(Attributes.DARK, gm.isInInventory(cloak) || cloak.getRoom() != cloakroom);
+            bar.setAttribute(Attributes.DARK, gm().isInInventory(cloak) || cloak.getRoom() != cloakroom);
         } else if (r == foyer && toRoom == patio) {
-            ui.appendTextLn(bundle.getPassage("no-go-patio"));
+            ui().appendTextLn(getBundle().getPassage("no-go-patio"));
             return true;
         }
         return false;
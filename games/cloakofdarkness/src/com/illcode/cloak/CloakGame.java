@@ -21,10 +21,11 @@ public class CloakGame implements Game
         Utils.installActionNameTranslations(Utils.pathForGameAsset("cloak-action-translations.json"));
         bundle = TextBundle.loadBundle(Utils.pathForGameAsset("cloak-bundle.txt"));
         Meterman.setGameBundle(bundle);  // which also sets the bundle's parent to the system bundle
+        Meterman.persistence().registerClasses(CloakState.class, CloakDelegate.class);
     }
 
     public void about() {
-        Meterman.ui.showTextDialog("Cloak of Darkness", bundle.getPassage("about-text"), "OK");
+        Meterman.ui().showTextDialog("Cloak of Darkness", bundle.getPassage("about-text"), "OK");
     }
 
     public WorldState getInitialWorldState() {
@@ -62,9 +63,9 @@ public class CloakGame implements Game
 
     public void start(boolean newGame) {
         GameUtils.loadResources(bundle.getPassage("resources"));
-        Meterman.ui.setFrameImage("phantom-frame-image");
+        Meterman.ui().setFrameImage("phantom-frame-image");
         if (newGame)
-            Meterman.sound.playMusic("intro-music", false, 1.0);
+            Meterman.sound().playMusic("intro-music", false, 1.0);
     }
 
     public void dispose() {
@@ -21,6 +21,7 @@ public class RiverboatGame implements Game
     public void init() {
         bundle = TextBundle.loadBundle(Utils.pathForGameAsset("riverboat-bundle.txt"));
         Meterman.setGameBundle(bundle);
+        Meterman.persistence().registerClasses(RiverboatState.class, RiverboatManagerPart1.class);
     }
 
     public WorldState getInitialWorldState() {
@@ -67,7 +68,7 @@ public class RiverboatGame implements Game
     }
 
     public void start(boolean newGame) {
-        FrameImageManager.retrieveFrom(Meterman.gm.getWorldData()).update();
+        FrameImageManager.retrieveFrom(Meterman.gm().getWorldData()).update();
     }
 
     public void dispose() {
@@ -86,7 +87,7 @@ public class RiverboatGame implements Game
      */
     @SuppressWarnings("unchecked")
     static BaseEntity getEntity(String entityId) {
-        return ((Map<String,BaseEntity>) Meterman.gm.getWorldData().get("entityIdMap")).get(entityId);
+        return ((Map<String,BaseEntity>) Meterman.gm().getWorldData().get("entityIdMap")).get(entityId);
     }
 
     /**
@@ -97,6 +98,6 @@ public class RiverboatGame implements Game
      */
     @SuppressWarnings("unchecked")
     static BaseRoom getRoom(String roomId) {
-        return ((Map<String,BaseRoom>) Meterman.gm.getWorldData().get("roomIdMap")).get(roomId);
+        return ((Map<String,BaseRoom>) Meterman.gm().getWorldData().get("roomIdMap")).get(roomId);
     }
 }
@@ -33,11 +33,11 @@ class RiverboatManagerPart1 implements GameActionListener
     }
 
     void register() {
-        Meterman.gm.addGameActionListener(this);
+        Meterman.gm().addGameActionListener(this);
     }
 
     void deregister() {
-        Meterman.gm.removeGameActionListener(this);
+        Meterman.gm().removeGameActionListener(this);
     }
 
     public boolean processAction(String action, Entity e, boolean beforeAction) {
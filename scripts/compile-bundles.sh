@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -cp "meterman.jar:lib/*" com.illcode.meterman.TextBundleCompiler "$@"
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -Xmx256M -cp "meterman.jar:lib/*:jars/*" com.illcode.meterman.ui.headless.TranscriptRunner "$@"
@@ -0,0 +1,190 @@
+package com.illcode.meterman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * Saves the game of a {@link GameManager} every so many turns, on a background thread, into a rotating set
+ * of autosave files in {@link Meterman#savesPath}: {@code <game>-autosave-1.sav} is the most recent,
+ * {@code <game>-autosave-2.sav} the one before it, and so on.
+ * <p/>
+ * Rather than copy the world state on the game thread, which for a large world takes about as long as
+ * saving it, the save thread serializes the world itself, between turns, while the game thread waits for
+ * the player. When the game thread is about to change the world, it calls {@link #pause()}, which, should
+ * the save thread be serializing the world, interrupts it and waits the moment it takes to stop; that save
+ * is then retried at the end of the next turn. Writing the serialized world to disk (and syncing it) happens
+ * after the save thread is done with the world, and never holds up the game thread. A save requested while
+ * another is still being written is put off until the end of the next turn, so that saves don't queue up.
+ * <p/>
+ * Each autosave is written to a temporary file, synced, and moved into place, so that a crash leaves the
+ * previous autosaves intact.
+ */
+final class Autosaver
+{
+    private final Persistence persistence;
+    private final int interval, slots;
+    private final ExecutorService executor;
+
+    // Held by the save thread while it serializes the world; see pause()
+    private final ReentrantLock worldLock;
+
+    private volatile boolean paused;     // true from pause() until the end of the turn
+    private volatile boolean pending;    // true if a save was put off or interrupted
+    private volatile boolean inFlight;   // true from when a save is requested until it's written
+    private boolean serializing;         // guarded by this; true while the save thread serializes the world
+    private Thread saveThread;           // guarded by this
+
+    /**
+     * Create an autosaver.
+     * @param persistence the session's persistence implementation
+     * @param interval the number of turns between autosaves
+     * @param slots the number of autosave files kept
+     */
+    Autosaver(Persistence persistence, int interval, int slots) {
+        this.persistence = persistence;
+        this.interval = Math.max(1, interval);
+        this.slots = Math.max(1, slots);
+        worldLock = new ReentrantLock();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Meterman autosave");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Called on the game thread at the end of each turn. Requests an autosave if one is due, or was put off.
+     * @param state the world state, which is not to be changed until {@link #pause()} is called
+     */
+    void turnEnded(WorldState state) {
+        paused = false;
+        if (state.numTurns % interval != 0 && !pending)
+            return;
+        if (inFlight) {  // coalesce with the save still being written
+            pending = true;
+            return;
+        }
+        pending = false;
+        inFlight = true;
+        executor.execute(new SaveTask(state));
+    }
+
+    /**
+     * Called on the game thread before it changes the world. If the save thread is serializing the world,
+     * interrupts it and waits for it to stop; no save will then touch the world until the next turn ends.
+     */
+    void pause() {
+        if (paused)
+            return;
+        paused = true;
+        synchronized (this) {
+            if (serializing)
+                saveThread.interrupt();
+        }
+        worldLock.lock();  // wait for the save thread to let go of the world
+        worldLock.unlock();
+    }
+
+    /** Stops the autosaver, waiting briefly for a save being written to finish. */
+    void shutdown() {
+        pause();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class SaveTask implements Runnable
+    {
+        private final WorldState state;
+
+        SaveTask(WorldState state) {
+            this.state = state;
+        }
+
+        public void run() {
+            try {
+                byte[] data = serialize();
+                if (data != null)
+                    write(data);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Autosaver.SaveTask.run()", ex);
+            } finally {
+                inFlight = false;
+            }
+        }
+
+        // Returns the serialized world state, or null if the game thread wanted the world back first.
+        private byte[] serialize() throws IOException {
+            worldLock.lock();
+            try {
+                synchronized (Autosaver.this) {
+                    Thread.interrupted();  // clear any stale interrupt
+                    if (paused) {
+                        pending = true;
+                        return null;
+                    }
+                    serializing = true;
+                    saveThread = Thread.currentThread();
+                }
+                ByteArrayOutputStream bout = new ByteArrayOutputStream(65536);
+                persistence.saveGame(state, bout);
+                return bout.toByteArray();
+            } catch (InterruptedIOException ex) {
+                pending = true;
+                return null;
+            } finally {
+                synchronized (Autosaver.this) {
+                    serializing = false;
+                    saveThread = null;
+                    Thread.interrupted();  // so the interrupt, if it came late, doesn't stop the write
+                }
+                worldLock.unlock();
+            }
+        }
+
+        // Writes the data to a temporary file, syncs it, and moves it into the first slot, shifting the others.
+        private void write(byte[] data) throws IOException {
+            String base = state.gameName.replaceAll("[^A-Za-z0-9]+", "-").toLowerCase() + "-autosave-";
+            Path tmp = Meterman.savesPath.resolve(base + "tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining())
+                    ch.write(buf);
+                ch.force(true);
+            }
+            for (int i = slots - 1; i >= 1; i--) {
+                Path p = Meterman.savesPath.resolve(base + i + ".sav");
+                if (Files.exists(p))
+                    move(p, Meterman.savesPath.resolve(base + (i + 1) + ".sav"));
+            }
+            move(tmp, Meterman.savesPath.resolve(base + "1.sav"));
+        }
+
+        private void move(Path from, Path to) throws IOException {
+            try {
+                Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
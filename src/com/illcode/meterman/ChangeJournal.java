@@ -0,0 +1,321 @@
+package com.illcode.meterman;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A journal of the individual changes made to the world model since the last undo checkpoint.
+ * <p/>
+ * When {@link GameManager#setJournaledUndo(boolean) journaled undo} is enabled, the GameManager
+ * no longer deep-copies the entire {@link WorldState} at each checkpoint; instead, each mutation of the
+ * world model records a small {@link Change} here, and undo reverts those changes in reverse order. The
+ * cost of a turn is then proportional to what changed during the turn, and not to the size of the world.
+ * The changes of past turns are kept, up to a limit, so that several turns can be undone, and undone turns
+ * can be redone until a new checkpoint is made.
+ * <p/>
+ * The engine journals the changes it makes itself: moving the player and entities, the contents of rooms,
+ * the player inventory, and containers, attributes and delegates of {@code BaseEntity} and {@code BaseRoom},
+ * the state, key, rooms, and messages of doors, the lock and key of containers, listener registration, and
+ * writes to any {@link JournaledMap} (which is what entity, room, and player properties, and the world data,
+ * use) or {@link EntityList} (which is what rooms, the player, and containers keep their entities in).
+ * Public fields that a game assigns directly, such as the name or description of a {@code BaseEntity},
+ * are not journaled. Games whose objects keep state in their own fields, or that assign such fields
+ * after the world is built, must record those changes as well, usually by way of a {@link Swap}:
+ * <pre>{@code
+ *     ChangeJournal j = ChangeJournal.active();
+ *     if (j != null)
+ *         j.record(new ChangeJournal.Swap() {
+ *             protected void swap() { state.cloakHung = !state.cloakHung; }
+ *         });
+ *     state.cloakHung = !state.cloakHung;
+ * }</pre>
+ * A game that doesn't do so should leave journaled undo off, and full-copy checkpoints will be used.
+ */
+public final class ChangeJournal
+{
+    /** A single reversible change to the world model. */
+    public interface Change
+    {
+        /** Revert the change. */
+        void undo();
+
+        /** Reapply the change after it has been undone. */
+        void redo();
+    }
+
+    /**
+     * A change that undoes and redoes itself by the same operation, that is, by swapping the
+     * current state of the world with the state it recorded.
+     */
+    public static abstract class Swap implements Change
+    {
+        protected abstract void swap();
+
+        public void undo() {
+            swap();
+        }
+
+        public void redo() {
+            swap();
+        }
+    }
+
+    /** The approximate memory used by a recorded change, for the purposes of the memory budget. */
+    private static final int ESTIMATED_CHANGE_SIZE = 48;
+
+    private List<Change> changes;  // changes made since the last checkpoint
+    private boolean recording;
+    private UndoHistory<List<Change>> undoHistory, redoHistory;
+
+    /**
+     * Create a new journal.
+     * @param maxTurns the maximum number of turns that can be undone
+     * @param maxSize the approximate memory budget, in bytes, for the changes of past turns
+     */
+    public ChangeJournal(int maxTurns, long maxSize) {
+        changes = new ArrayList<>(64);
+        setLimits(maxTurns, maxSize);
+    }
+
+    /**
+     * Sets the limits of the undo history. Any changes recorded so far are discarded.
+     * @param maxTurns the maximum number of turns that can be undone
+     * @param maxSize the approximate memory budget, in bytes, for the changes of past turns
+     */
+    public void setLimits(int maxTurns, long maxSize) {
+        stop();
+        undoHistory = new UndoHistory<>(maxTurns - 1, maxSize);  // the current turn is kept in changes
+        redoHistory = new UndoHistory<>(maxTurns, maxSize);
+    }
+
+    /**
+     * Begins recording the changes of a new turn. Called when an undo checkpoint is made.
+     * The changes of the previous turn are kept in the undo history, and any turns that
+     * had been undone can no longer be redone.
+     * <p/>
+     * A checkpoint made when no changes have been recorded since the last merges with it, so that
+     * checkpoints can be made as often as a game likes without filling the history with empty turns.
+     */
+    public void checkpoint() {
+        if (recording && !changes.isEmpty()) {
+            undoHistory.push(changes, estimateSize(changes));
+            changes = new ArrayList<>(64);
+        }
+        redoHistory.clear();
+        recording = true;
+    }
+
+    /** Stops recording and discards any changes recorded so far, including the undo history. */
+    public void stop() {
+        changes.clear();
+        recording = false;
+        if (undoHistory != null) {
+            undoHistory.clear();
+            redoHistory.clear();
+        }
+    }
+
+    /**
+     * Stops recording changes, for code that changes the world model in a way that isn't to be undone, such
+     * as loading part of the world when it is first needed. Call {@link #resume()} when done.
+     */
+    public void suspend() {
+        recording = false;
+    }
+
+    /** Resumes recording changes after {@link #suspend()}. */
+    public void resume() {
+        recording = true;
+    }
+
+    /** Returns true if the journal is recording changes. */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /** Returns the number of changes recorded since the last checkpoint. */
+    public int size() {
+        return changes.size();
+    }
+
+    /** Returns true if there is a turn that can be undone. */
+    public boolean canUndo() {
+        return !changes.isEmpty() || undoHistory.size() > 0;
+    }
+
+    /** Returns true if there is an undone turn that can be redone. */
+    public boolean canRedo() {
+        return redoHistory.size() > 0;
+    }
+
+    /**
+     * Records a change that has been, or is about to be, made to the world model.
+     * If the journal is not recording, this method does nothing.
+     */
+    public void record(Change c) {
+        if (recording)
+            changes.add(c);
+    }
+
+    /**
+     * Reverts, in reverse order, the changes of the most recent turn, and stops recording until the next
+     * checkpoint. If no changes have been recorded since the last checkpoint, the most recent turn
+     * is taken from the undo history.
+     * @return true if a turn was undone
+     */
+    public boolean undo() {
+        List<Change> turn;
+        if (!changes.isEmpty()) {
+            turn = changes;
+            changes = new ArrayList<>(64);
+        } else {
+            turn = undoHistory.pop();
+            if (turn == null)
+                return false;  // and we go on recording
+        }
+        recording = false;  // reverting changes must not record further changes
+        for (int i = turn.size() - 1; i >= 0; i--)
+            turn.get(i).undo();
+        redoHistory.push(turn, estimateSize(turn));
+        return true;
+    }
+
+    /**
+     * Reapplies, in order, the changes of the most recently undone turn.
+     * @return true if a turn was redone
+     */
+    public boolean redo() {
+        List<Change> turn = redoHistory.pop();
+        if (turn == null)
+            return false;
+        for (Change c : turn)
+            c.redo();
+        undoHistory.push(turn, estimateSize(turn));
+        return true;
+    }
+
+    private static long estimateSize(List<Change> turn) {
+        return 32 + (long) turn.size() * ESTIMATED_CHANGE_SIZE;
+    }
+
+    /**
+     * Returns the journal of the current session's game if it is currently recording changes, or null otherwise.
+     * Code that mutates the world model outside of the helper methods below should call this and,
+     * if the result is not null, {@link #record(Change)} the change.
+     */
+    public static ChangeJournal active() {
+        MetermanSession session = MetermanSession.current();
+        GameManager gm = session != null ? session.gm : null;
+        if (gm == null)
+            return null;
+        ChangeJournal j = gm.getChangeJournal();
+        return j != null && j.recording ? j : null;
+    }
+
+    //region -- Journaled mutation helpers --
+
+    /** Sets a bit in an attribute BitSet, journaling the change. */
+    public static void setAttribute(BitSet attributes, int attribute, boolean val) {
+        if (attributes.get(attribute) == val)
+            return;
+        attributes.set(attribute, val);
+        ChangeJournal j = active();
+        if (j != null)
+            j.record(new AttributeFlip(attributes, attribute));
+    }
+
+    /** Clears all bits in an attribute BitSet, journaling the change. */
+    public static void clearAttributes(final BitSet attributes) {
+        if (attributes.isEmpty())
+            return;
+        ChangeJournal j = active();
+        if (j != null) {
+            final BitSet saved = (BitSet) attributes.clone();
+            j.record(new Swap() {
+                protected void swap() {
+                    attributes.xor(saved);  // flipping the saved bits both clears and restores them
+                }
+            });
+        }
+        attributes.clear();
+    }
+
+    /** Appends an element to a list, journaling the change. */
+    public static <E> void add(List<E> list, E e) {
+        add(list, list.size(), e);
+    }
+
+    /** Inserts an element into a list at the given index, journaling the change. */
+    public static <E> void add(List<E> list, int index, E e) {
+        list.add(index, e);
+        if (list instanceof EntityList)
+            return;  // which journals its own changes
+        ChangeJournal j = active();
+        if (j != null)
+            j.record(new ListChange<>(list, index, e, true));
+    }
+
+    /**
+     * Removes the first occurrence of an element from a list, journaling the change.
+     * @return true if the list contained the element
+     */
+    public static <E> boolean remove(List<E> list, Object o) {
+        if (list instanceof EntityList)
+            return list.remove(o);  // which journals its own changes, without looking up the index
+        int index = list.indexOf(o);
+        if (index == -1)
+            return false;
+        E e = list.remove(index);
+        ChangeJournal j = active();
+        if (j != null)
+            j.record(new ListChange<>(list, index, e, false));
+        return true;
+    }
+
+    //endregion
+
+    private static final class AttributeFlip extends Swap
+    {
+        private final BitSet attributes;
+        private final int attribute;
+
+        AttributeFlip(BitSet attributes, int attribute) {
+            this.attributes = attributes;
+            this.attribute = attribute;
+        }
+
+        protected void swap() {
+            attributes.flip(attribute);
+        }
+    }
+
+    private static final class ListChange<E> implements Change
+    {
+        private final List<E> list;
+        private final int index;
+        private final E element;
+        private final boolean added;
+
+        ListChange(List<E> list, int index, E element, boolean added) {
+            this.list = list;
+            this.index = index;
+            this.element = element;
+            this.added = added;
+        }
+
+        public void undo() {
+            if (added)
+                list.remove(index);
+            else
+                list.add(index, element);
+        }
+
+        public void redo() {
+            if (added)
+                list.add(index, element);
+            else
+                list.remove(index);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.illcode.meterman;
+
+/**
+ * Implemented by rooms, and by entities like containers, that keep the entities they hold in an
+ * {@link EntityList}, so that the GameManager can tell where an entity held by one of them is.
+ * @see GameManager#getEntityHolder(Entity)
+ */
+public interface EntityHolder
+{
+    /** Returns the list of entities held. */
+    EntityList getHeldEntities();
+
+    /**
+     * Returns true if light sources among the entities held light up the holder's surroundings, as those in
+     * an open container do. A holder whose answer changes must call {@link EntityList#lightChanged()}.
+     */
+    boolean letsLightOut();
+}
@@ -0,0 +1,492 @@
+package com.illcode.meterman;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The list of entities held by a room, the player, or a container, which can tell whether it contains an
+ * entity, and add or remove one, in constant (amortized) time.
+ * <p/>
+ * Entities are kept in an array in the order they were added, and membership is by identity; an entity
+ * is in a list at most once, and adding one that is already there does nothing. A removed entity leaves
+ * an empty slot behind, and the array is compacted into a new array when half of its slots are empty,
+ * or when an entity is looked up by index. Iterating over the list skips the empty slots, and is not
+ * disturbed by compaction, so looking entities up by index while iterating is fine, though adding or
+ * removing them (other than through the iterator) is not.
+ * <p/>
+ * Like a {@link JournaledMap}, the list records its modifications in the active {@link ChangeJournal},
+ * and undoing a removal puts the entity back in its original place.
+ * <p/>
+ * The list also keeps count of the light its entities give, for {@link com.illcode.meterman.impl.DarkRoom}:
+ * see {@link #getLightSourceCount()} and {@link #getLitHolderCount()}.
+ */
+public class EntityList extends AbstractList<Entity> implements RandomAccess
+{
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Serial numbers are spaced out so that an entity can be inserted between two others
+    private static final long SERIAL_STEP = 1L << 32;
+
+    // The light version of lists used outside any session; see lightVersionCounter()
+    private static final AtomicLong noSessionLightVersion = new AtomicLong(1);
+
+    private static final ChangeJournal.Change LIGHT_CHANGE = new ChangeJournal.Change() {
+        public void undo() {
+            lightVersionCounter().incrementAndGet();
+        }
+
+        public void redo() {
+            lightVersionCounter().incrementAndGet();
+        }
+    };
+
+    private Object holder;
+    private Entity[] elements;  // slots [0, size) hold entities in order, or null if removed
+    private long[] serials;     // the serial number of each slot's entity, ascending, to restore order
+    private int size;           // number of slots used, including empty slots
+    private int count;          // number of entities
+    private long nextSerial;
+
+    // The slot of each entity; rebuilt when null, as it is after deserialization
+    private transient IdentityHashMap<Entity,Integer> slots;
+
+    // Our light counts are valid if lightVersion is that of the counter; otherwise we count them again.
+    private transient long lightVersion;
+    private transient int lightSources, litHolders;
+
+    public EntityList() {
+        this(null);
+    }
+
+    /**
+     * Create a new list.
+     * @param holder the room, player, or entity that holds the entities in this list
+     */
+    public EntityList(Object holder) {
+        this.holder = holder;
+        elements = new Entity[INITIAL_CAPACITY];
+        serials = new long[INITIAL_CAPACITY];
+    }
+
+    /** Returns the room, player, or entity that holds the entities in this list, or null if not known. */
+    public Object getHolder() {
+        return holder;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(Object o) {
+        return o instanceof Entity && getSlots().containsKey(o);
+    }
+
+    public int indexOf(Object o) {
+        if (!(o instanceof Entity))
+            return -1;
+        Integer slot = getSlots().get(o);
+        if (slot == null)
+            return -1;
+        if (count == size)
+            return slot;
+        compact();
+        return getSlots().get(o);
+    }
+
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    public Entity get(int index) {
+        checkIndex(index, count);
+        if (count != size)
+            compact();
+        return elements[index];
+    }
+
+    /**
+     * Replaces the entity at the given index, journaling the change.
+     * @throws IllegalArgumentException if the new entity is elsewhere in the list already
+     */
+    public Entity set(int index, Entity e) {
+        Entity old = get(index);
+        if (old != e) {
+            if (contains(e))
+                throw new IllegalArgumentException("Entity already in list: " + e);
+            remove(old);
+            add(index, e);
+        }
+        return old;
+    }
+
+    /**
+     * Appends an entity to the list, if it isn't already in it, journaling the change.
+     * @return true if the entity was added
+     */
+    public boolean add(Entity e) {
+        if (e == null || contains(e))
+            return false;
+        long serial = nextSerial;
+        nextSerial += SERIAL_STEP;
+        append(e, serial);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new Registration(e, serial, true));
+        return true;
+    }
+
+    /**
+     * Inserts an entity into the list at the given index, journaling the change. If the entity is already in
+     * the list, or is null, the list is left unchanged, without any sign that the insert did nothing; unlike
+     * {@link #add(Entity)}, this method has no return value to tell, so callers that care should check
+     * {@link #contains(Object)} first. ({@link #set(int, Entity)}, which has to remove the entity it replaces,
+     * throws an IllegalArgumentException instead.)
+     * @throws IndexOutOfBoundsException if the index is out of range {@code (index < 0 || index > size())}
+     */
+    public void add(int index, Entity e) {
+        checkIndex(index, count + 1);
+        if (index == count) {
+            add(e);
+            return;
+        }
+        if (e == null || contains(e))
+            return;
+        if (count != size)
+            compact();
+        // Should there be no serial number left between those of its neighbours, the entity shares its
+        // predecessor's number, and undo may then restore one of the two slightly out of place.
+        long before = index == 0 ? serials[0] - 2 * SERIAL_STEP : serials[index - 1];
+        long serial = before + (serials[index] - before) / 2;
+        insert(e, serial, index);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new Registration(e, serial, true));
+    }
+
+    /**
+     * Removes an entity from the list, journaling the change.
+     * @return true if the entity was in the list
+     */
+    public boolean remove(Object o) {
+        if (!(o instanceof Entity))
+            return false;
+        Integer slot = getSlots().get(o);
+        if (slot == null)
+            return false;
+        long serial = serials[slot];
+        removeSlot(slot);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new Registration((Entity) o, serial, false));
+        return true;
+    }
+
+    public Entity remove(int index) {
+        Entity e = get(index);
+        remove(e);
+        return e;
+    }
+
+    /** Removes all entities from the list, journaling the change. */
+    public void clear() {
+        if (count == 0)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null) {
+            final Entity[] savedElements = Arrays.copyOf(elements, elements.length);
+            final long[] savedSerials = Arrays.copyOf(serials, serials.length);
+            final int savedSize = size;
+            j.record(new ChangeJournal.Change() {
+                public void undo() {
+                    setArrays(Arrays.copyOf(savedElements, savedElements.length),
+                              Arrays.copyOf(savedSerials, savedSerials.length), savedSize);
+                }
+
+                public void redo() {
+                    setArrays(new Entity[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+                }
+            });
+        }
+        setArrays(new Entity[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+    }
+
+    public Iterator<Entity> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * Returns the number of entities in the list that are {@link Attributes#LIGHTSOURCE light sources}.
+     * <p/>
+     * The count is kept up to date as entities are added and removed, so this takes constant time, unless
+     * {@link #lightChanged()} has been called since it was last asked for, when the list is counted again.
+     */
+    public int getLightSourceCount() {
+        checkLight();
+        return lightSources;
+    }
+
+    /**
+     * Returns the number of entities in the list, not themselves light sources, that are entity holders
+     * which {@link EntityHolder#letsLightOut() let out} the light of light sources they hold. Only light
+     * sources held directly count, not those in a holder within the holder.
+     * @see #getLightSourceCount()
+     */
+    public int getLitHolderCount() {
+        checkLight();
+        return litHolders;
+    }
+
+    /**
+     * Lets the entity lists of the current session's world know that light has changed in a way they can't
+     * see for themselves: an entity has become, or ceased to be, a light source, or an entity holder has
+     * begun, or ceased, to let light out. BaseEntity and Container call this as needed; other implementations
+     * of Entity or EntityHolder must call it themselves. The call is journaled, so that undoing the change
+     * calls it again.
+     */
+    public static void lightChanged() {
+        lightVersionCounter().incrementAndGet();
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(LIGHT_CHANGE);
+    }
+
+    // Returns the counter incremented when light changes in a way that lists can't see for themselves (see
+    // lightChanged()). It is the current session's, as the lists of one session's world needn't count their
+    // light again when it changes in another's.
+    private static AtomicLong lightVersionCounter() {
+        MetermanSession session = MetermanSession.current();
+        return session != null ? session.lightVersion : noSessionLightVersion;
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit)
+            throw new IndexOutOfBoundsException("Index: " + index);
+    }
+
+    private IdentityHashMap<Entity,Integer> getSlots() {
+        if (slots == null) {
+            slots = new IdentityHashMap<>(Math.max(count, INITIAL_CAPACITY));
+            for (int i = 0; i < size; i++)
+                if (elements[i] != null)
+                    slots.put(elements[i], i);
+        }
+        return slots;
+    }
+
+    // Replaces our arrays, of which the first n slots are used
+    private void setArrays(Entity[] newElements, long[] newSerials, int n) {
+        elements = newElements;
+        serials = newSerials;
+        size = n;
+        count = 0;
+        for (int i = 0; i < n; i++)
+            if (elements[i] != null)
+                count++;
+        slots = null;
+        modCount++;
+        lightVersion = 0;
+        if (holder instanceof Entity)  // a holder emptied or refilled may give different light
+            lightVersionCounter().incrementAndGet();
+    }
+
+    private void checkLight() {
+        long version = lightVersionCounter().get();
+        if (lightVersion == version)
+            return;
+        lightSources = 0;
+        litHolders = 0;
+        for (int i = 0; i < size; i++)
+            if (elements[i] != null)
+                countLight(elements[i], 1);
+        lightVersion = version;
+    }
+
+    // Adds to (n = 1) or subtracts from (n = -1) our counts the light an entity gives
+    private void countLight(Entity e, int n) {
+        if (e.checkAttribute(Attributes.LIGHTSOURCE)) {
+            lightSources += n;
+        } else if (e instanceof EntityHolder) {
+            EntityHolder h = (EntityHolder) e;
+            if (h.letsLightOut() && h.getHeldEntities().getLightSourceCount() > 0)
+                litHolders += n;
+        }
+    }
+
+    // Keeps our light counts up to date as an entity is added (n = 1) or removed (n = -1)
+    private void updateLight(Entity e, int n) {
+        long version = lightVersionCounter().get();
+        boolean counted = lightVersion == version;
+        if (counted)
+            countLight(e, n);
+        // If we're a container's contents, and have gained our first light source or lost our last, the
+        // container gives different light to the list it's in, which must count it again.
+        if (holder instanceof Entity && e.checkAttribute(Attributes.LIGHTSOURCE) &&
+                (!counted || lightSources == (n > 0 ? 1 : 0))) {
+            version = lightVersionCounter().incrementAndGet();
+            if (counted)
+                lightVersion = version;
+        }
+    }
+
+    private void append(Entity e, long serial) {
+        if (size == elements.length)
+            reallocate(count < size / 2 ? elements.length : elements.length * 2);
+        elements[size] = e;
+        serials[size] = serial;
+        getSlots().put(e, size);
+        size++;
+        count++;
+        modCount++;
+        updateLight(e, 1);
+    }
+
+    // Inserts an entity at a slot, into new arrays, so that an iteration in progress isn't disturbed
+    private void insert(Entity e, long serial, int slot) {
+        Entity[] newElements = new Entity[Math.max(elements.length, size + 1)];
+        long[] newSerials = new long[newElements.length];
+        System.arraycopy(elements, 0, newElements, 0, slot);
+        System.arraycopy(serials, 0, newSerials, 0, slot);
+        newElements[slot] = e;
+        newSerials[slot] = serial;
+        System.arraycopy(elements, slot, newElements, slot + 1, size - slot);
+        System.arraycopy(serials, slot, newSerials, slot + 1, size - slot);
+        elements = newElements;
+        serials = newSerials;
+        size++;
+        count++;
+        slots = null;
+        modCount++;
+        updateLight(e, 1);
+    }
+
+    private void removeSlot(int slot) {
+        Entity e = elements[slot];
+        getSlots().remove(e);
+        elements[slot] = null;
+        count--;
+        modCount++;
+        updateLight(e, -1);
+        if (size > INITIAL_CAPACITY && count < size / 2)
+            reallocate(Math.max(INITIAL_CAPACITY, count * 2));
+    }
+
+    private void compact() {
+        reallocate(elements.length);
+    }
+
+    // Copies the entities, without the empty slots, into new arrays of the given capacity
+    private void reallocate(int capacity) {
+        Entity[] newElements = new Entity[capacity];
+        long[] newSerials = new long[capacity];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (elements[i] != null) {
+                newElements[n] = elements[i];
+                newSerials[n] = serials[i];
+                n++;
+            }
+        }
+        elements = newElements;
+        serials = newSerials;
+        size = n;
+        slots = null;
+    }
+
+    // Puts an entity back in the place given by its serial number, when a change is undone or redone.
+    private void restore(Entity e, long serial) {
+        if (getSlots().containsKey(e))
+            return;
+        int pos = Arrays.binarySearch(serials, 0, size, serial);
+        if (pos < 0) {
+            pos = -pos - 1;
+        } else if (elements[pos] == null) {  // its own empty slot is still here
+            elements[pos] = e;
+            slots.put(e, pos);
+            count++;
+            modCount++;
+            updateLight(e, 1);
+            return;
+        }
+        if (pos == size)
+            append(e, serial);
+        else
+            insert(e, serial, pos);
+    }
+
+    private void unregister(Entity e) {
+        Integer slot = getSlots().get(e);
+        if (slot != null)
+            removeSlot(slot);
+    }
+
+    /** The addition or removal of an entity. */
+    private final class Registration implements ChangeJournal.Change
+    {
+        private final Entity entity;
+        private final long serial;
+        private final boolean added;
+
+        Registration(Entity entity, long serial, boolean added) {
+            this.entity = entity;
+            this.serial = serial;
+            this.added = added;
+        }
+
+        public void undo() {
+            if (added)
+                unregister(entity);
+            else
+                restore(entity, serial);
+        }
+
+        public void redo() {
+            if (added)
+                restore(entity, serial);
+            else
+                unregister(entity);
+        }
+    }
+
+    /** Iterates over the slots of the array we had when it was created, skipping empty ones. */
+    private final class Itr implements Iterator<Entity>
+    {
+        private final Entity[] a = elements;
+        private final int n = size;
+        private int next;
+        private Entity last;
+        private int expectedModCount = modCount;
+
+        Itr() {
+            advance();
+        }
+
+        private void advance() {
+            while (next < n && a[next] == null)
+                next++;
+        }
+
+        public boolean hasNext() {
+            return next < n;
+        }
+
+        public Entity next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= n)
+                throw new NoSuchElementException();
+            last = a[next++];
+            advance();
+            return last;
+        }
+
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            EntityList.this.remove(last);
+            last = null;
+            expectedModCount = modCount;
+        }
+    }
+}
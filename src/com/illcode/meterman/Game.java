@@ -17,10 +17,12 @@ public interface Game
      * Called when a game is started or loaded. A game should, in this method, load any resources (images,
      * sound, bundles) it wants immediately or game-globally available.
      * <p/>
-     * It should also install any game-specific action translations and set the game bundle.
+     * It should also install any game-specific action translations and set the game bundle, and register
+     * with the persistence implementation the game's own classes whose objects are in the world state.
      *
      * @see Utils#installActionNameTranslations(Path)
      * @see Meterman#setGameBundle(TextBundle)
+     * @see Persistence#registerClasses(Class[])
      */
     void init();
 
@@ -3,15 +3,24 @@ package com.illcode.meterman;
 import com.illcode.meterman.event.*;
 import com.illcode.meterman.ui.UIConstants;
 
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import static com.illcode.meterman.Meterman.sound;
 import static com.illcode.meterman.Meterman.ui;
 
 public final class GameManager
 {
+    /** The default maximum number of turns that can be undone. */
+    public static final int DEFAULT_UNDO_MAX_TURNS = 50;
+
+    /** The default memory budget, in bytes, of the undo history. */
+    public static final long DEFAULT_UNDO_MAX_SIZE = 8L * 1024 * 1024;
+
     /** The game we're currently playing */
     private Game game;
 
@@ -22,14 +31,14 @@ public final class GameManager
     private Player player;
     private Map<String,Object> worldData;
 
-    // Our listener lists
-    private LinkedList<GameActionListener> gameActionListeners;
-    private LinkedList<PlayerMovementListener> playerMovementListeners;
-    private LinkedList<TurnListener> turnListeners;
-    private LinkedList<EntityActionsProcessor> entityActionsProcessors;
-    private LinkedList<EntitySelectionListener> entitySelectionListeners;
-    private LinkedList<DescriptionTextProcessor> descriptionTextProcessors;
-    private LinkedList<ParserMessageProcessor> parserMessageProcessors;
+    // Our listener lists; see ListenerList for how we notify their listeners
+    private ListenerList<GameActionListener> gameActionListeners;
+    private ListenerList<PlayerMovementListener> playerMovementListeners;
+    private ListenerList<TurnListener> turnListeners;
+    private ListenerList<EntityActionsProcessor> entityActionsProcessors;
+    private ListenerList<EntitySelectionListener> entitySelectionListeners;
+    private ListenerList<DescriptionTextProcessor> descriptionTextProcessors;
+    private ListenerList<ParserMessageProcessor> parserMessageProcessors;
 
     // To be used in composing text before sending it off to the UI.
     // Methods that use textBuilder should call .setLength(0) when finished to leave it empty.
@@ -38,32 +47,41 @@ public final class GameManager
     private StringBuilder commonTextBuilder, paragraphBuilder; // See queueLookText()
     private List<String> actions; // Used for composing UI actions - reuse same list to avoid allocation
     private Entity selectedEntity;  // currently selected entity, or null if none
+    private IdentityHashMap<Entity,EntityList> entityLocations;  // see getEntityHolder()
     private boolean alwaysLook; // see setAlwaysLook()
-    private WorldState undoWorldState;  // see undo()
+    private UndoHistory<byte[]> undoSnapshots, redoSnapshots;  // compressed world states; see undo()
     private boolean undoEnabled;
+    private ChangeJournal journal;  // used instead of the snapshots when journaledUndo is true
+    private boolean journaledUndo;
+    private Autosaver autosaver;  // see setAutosave()
+    private TurnProfiler profiler;  // see setProfiling(); null when not profiling
 
 
     public GameManager() {
     }
 
     public void init() {
-        gameActionListeners = new LinkedList<>();
-        playerMovementListeners = new LinkedList<>();
-        turnListeners = new LinkedList<>();
-        entityActionsProcessors = new LinkedList<>();
-        entitySelectionListeners = new LinkedList<>();
-        descriptionTextProcessors = new LinkedList<>();
-        parserMessageProcessors = new LinkedList<>();
+        gameActionListeners = new ListenerList<>();
+        playerMovementListeners = new ListenerList<>();
+        turnListeners = new ListenerList<>();
+        entityActionsProcessors = new ListenerList<>();
+        entitySelectionListeners = new ListenerList<>();
+        descriptionTextProcessors = new ListenerList<>();
+        parserMessageProcessors = new ListenerList<>();
         textBuilder = new StringBuilder(2048);
         commonTextBuilder = new StringBuilder(1024);
         paragraphBuilder = new StringBuilder(1024);
         actions = new ArrayList<>(16);
+        entityLocations = new IdentityHashMap<>();
+        journal = new ChangeJournal(DEFAULT_UNDO_MAX_TURNS, DEFAULT_UNDO_MAX_SIZE);
+        setUndoLimits(DEFAULT_UNDO_MAX_TURNS, DEFAULT_UNDO_MAX_SIZE);
     }
 
     public void dispose() {
         closeGame();
         worldState = null;
-        undoWorldState = null;
+        undoSnapshots = null;
+        redoSnapshots = null;
         player = null;
         worldData = null;
         gameActionListeners = null;
@@ -77,6 +95,10 @@ public final class GameManager
         commonTextBuilder = null;
         paragraphBuilder = null;
         actions = null;
+        entityLocations = null;
+        journal = null;
+        setAutosave(0, 0);
+        setProfiling(false);
     }
 
     /**
@@ -90,10 +112,10 @@ public final class GameManager
         closeGame();
         this.game = game;
         String gameName = game.getName();
-        ui.showWaitDialog("Starting " + gameName + "...");
-        ui.setGameName(gameName);
+        ui().showWaitDialog("Starting " + gameName + "...");
+        ui().setGameName(gameName);
         Utils.setGameAssetsPath(GamesList.getGameAssetsPath(gameName));
-        ui.clearText();
+        ui().clearText();
         game.init();
         worldState = game.getInitialWorldState();
         player = worldState.player;
@@ -104,8 +126,8 @@ public final class GameManager
         refreshRoomUI();
         refreshInventoryUI();
         entitySelected(null);
-        ui.setFrameImage(UIConstants.DEFAULT_FRAME_IMAGE);
-        ui.hideWaitDialog();
+        ui().setFrameImage(UIConstants.DEFAULT_FRAME_IMAGE);
+        ui().hideWaitDialog();
         game.start(true);
         getCurrentRoom().entered(null);
         performLook();
@@ -135,8 +157,8 @@ public final class GameManager
         this.worldState = worldState;
         game = GamesList.getGame(worldState.gameName);
         String gameName = game.getName();
-        ui.showWaitDialog("Loading " + gameName + "...");
-        ui.setGameName(gameName);
+        ui().showWaitDialog("Loading " + gameName + "...");
+        ui().setGameName(gameName);
         Utils.setGameAssetsPath(GamesList.getGameAssetsPath(gameName));
         game.init();
         player = worldState.player;
@@ -145,19 +167,22 @@ public final class GameManager
         refreshRoomUI();
         refreshInventoryUI();
         entitySelected(null);
-        ui.setFrameImage(UIConstants.DEFAULT_FRAME_IMAGE);
-        ui.hideWaitDialog();
+        ui().setFrameImage(UIConstants.DEFAULT_FRAME_IMAGE);
+        ui().hideWaitDialog();
         game.start(false);
     }
 
     private void closeGame() {
-        ui.unloadAllImages();
-        sound.clearAudio();
+        pauseAutosave();
+        ui().unloadAllImages();
+        sound().clearAudio();
         clearListenerLists();
         player = null;
         worldData = null;
         worldState = null;
-        undoWorldState = null;
+        entityLocations.clear();
+        clearUndoHistory();
+        journaledUndo = false;
         Meterman.setGameBundle(null);
         Utils.resetActionNameTranslations();
         Utils.setGameAssetsPath(null);
@@ -165,14 +190,14 @@ public final class GameManager
             game.dispose();
             game = null;
         }
-        ui.setGameName(null);
+        ui().setGameName(null);
         clearStatusLabels();
     }
 
     private void clearStatusLabels() {
-        ui.setStatusLabel(UIConstants.LEFT_LABEL, "");
-        ui.setStatusLabel(UIConstants.CENTER_LABEL, "");
-        ui.setStatusLabel(UIConstants.RIGHT_LABEL, "");
+        ui().setStatusLabel(UIConstants.LEFT_LABEL, "");
+        ui().setStatusLabel(UIConstants.CENTER_LABEL, "");
+        ui().setStatusLabel(UIConstants.RIGHT_LABEL, "");
     }
 
     private void storeListenerListsInWorldData() {
@@ -187,13 +212,13 @@ public final class GameManager
 
     @SuppressWarnings("unchecked")
     private void restoreListenerListsFromWorldData() {
-        gameActionListeners = (LinkedList<GameActionListener>) worldData.get("gameActionListeners");
-        playerMovementListeners = (LinkedList<PlayerMovementListener>) worldData.get("playerMovementListeners");
-        turnListeners = (LinkedList<TurnListener>) worldData.get("turnListeners");
-        entityActionsProcessors = (LinkedList<EntityActionsProcessor>) worldData.get("entityActionsProcessors");
-        entitySelectionListeners = (LinkedList<EntitySelectionListener>) worldData.get("entitySelectionListeners");
-        descriptionTextProcessors = (LinkedList<DescriptionTextProcessor>) worldData.get("descriptionTextProcessors");
-        parserMessageProcessors = (LinkedList<ParserMessageProcessor>) worldData.get("parserMessageProcessors");
+        gameActionListeners = (ListenerList<GameActionListener>) worldData.get("gameActionListeners");
+        playerMovementListeners = (ListenerList<PlayerMovementListener>) worldData.get("playerMovementListeners");
+        turnListeners = (ListenerList<TurnListener>) worldData.get("turnListeners");
+        entityActionsProcessors = (ListenerList<EntityActionsProcessor>) worldData.get("entityActionsProcessors");
+        entitySelectionListeners = (ListenerList<EntitySelectionListener>) worldData.get("entitySelectionListeners");
+        descriptionTextProcessors = (ListenerList<DescriptionTextProcessor>) worldData.get("descriptionTextProcessors");
+        parserMessageProcessors = (ListenerList<ParserMessageProcessor>) worldData.get("parserMessageProcessors");
     }
 
     private void clearListenerLists() {
@@ -237,13 +262,102 @@ public final class GameManager
     public void setUndoEnabled(boolean undoEnabled) {
         this.undoEnabled = undoEnabled;
         if (!undoEnabled)
-            undoWorldState = null;
+            clearUndoHistory();
     }
 
     public boolean isUndoEnabled() {
         return undoEnabled;
     }
 
+    /**
+     * Sets the limits of the undo history. The oldest turns will be forgotten when either the number of turns
+     * or the memory used by the history exceeds these limits. The current undo history is discarded.
+     * @param maxTurns the maximum number of turns that can be undone
+     * @param maxSize the memory budget, in bytes, of the undo history (and, separately, of the redo history)
+     */
+    public void setUndoLimits(int maxTurns, long maxSize) {
+        undoSnapshots = new UndoHistory<>(maxTurns, maxSize);
+        redoSnapshots = new UndoHistory<>(maxTurns, maxSize);
+        journal.setLimits(maxTurns, maxSize);
+    }
+
+    private void clearUndoHistory() {
+        undoSnapshots.clear();
+        redoSnapshots.clear();
+        journal.stop();
+    }
+
+    /**
+     * Sets whether undo checkpoints should journal the changes made to the world during a turn,
+     * rather than deep-copying the entire world state.
+     * <p/>
+     * Journaled undo is much cheaper for large worlds, but it can only revert changes that are recorded
+     * in the {@link ChangeJournal}, so a game should only turn it on (usually in {@link Game#start(boolean)})
+     * if all the state it keeps outside of the standard world model is journaled as well.
+     * It is turned off again when the game is closed.
+     * @param journaledUndo true to journal changes, false to use full-copy checkpoints
+     */
+    public void setJournaledUndo(boolean journaledUndo) {
+        this.journaledUndo = journaledUndo;
+        clearUndoHistory();
+    }
+
+    /** @see #setJournaledUndo(boolean) */
+    public boolean isJournaledUndo() {
+        return journaledUndo;
+    }
+
+    /**
+     * Returns the journal used to record changes to the world for undo.
+     * @see ChangeJournal#active()
+     */
+    public ChangeJournal getChangeJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets whether, and how often, the game is saved automatically. Autosaves are made on a background thread,
+     * between turns, into files named {@code <game>-autosave-<n>.sav} in {@link Meterman#savesPath}, the
+     * first the most recent; see {@link Autosaver} for how the game thread is kept from waiting on them.
+     * @param interval the number of turns between autosaves, or 0 to turn autosaving off
+     * @param slots the number of autosave files kept
+     */
+    public void setAutosave(int interval, int slots) {
+        if (autosaver != null) {
+            autosaver.shutdown();
+            autosaver = null;
+        }
+        if (interval > 0)
+            autosaver = new Autosaver(Meterman.persistence(), interval, slots);
+    }
+
+    /**
+     * Sets whether the time taken by each phase of a turn, and by each listener called in it, is measured.
+     * The measurements can be seen through JMX, and in the Swing UI's debug overlay; see {@link TurnProfiler}.
+     * Turning profiling off discards the measurements.
+     * @param profiling true to profile turns
+     */
+    public void setProfiling(boolean profiling) {
+        if (profiling && profiler == null) {
+            profiler = new TurnProfiler();
+            profiler.register();
+        } else if (!profiling && profiler != null) {
+            profiler.unregister();
+            profiler = null;
+        }
+    }
+
+    /** Returns the turn profiler, or null if turns are not being profiled. */
+    public TurnProfiler getProfiler() {
+        return profiler;
+    }
+
+    // Called before the world is changed, so that an autosave isn't reading it at the time
+    private void pauseAutosave() {
+        if (autosaver != null)
+            autosaver.pause();
+    }
+
     /**
      * Moves the player to a destination room. All appropriate listeners will be notified, and
      * one of them may cancel this move.
@@ -260,20 +374,38 @@ public final class GameManager
             return;  // blocked by the room itself
         for (Entity e : fromRoom.getRoomEntities())
             e.exitingScope();
-        player.currentRoom = toRoom;
+        setCurrentRoom(toRoom);
         toRoom.entered(fromRoom);
         for (Entity e : player.inventory)
             e.setRoom(toRoom);
         for (Entity e : toRoom.getRoomEntities())
             e.enterScope();
         firePlayerMovement(fromRoom, toRoom, false);
-        ui.clearEntitySelection();  // this in turn will call entitySelected(null) if needed
+        ui().clearEntitySelection();  // this in turn will call entitySelected(null) if needed
         if (alwaysLook || !toRoom.checkAttribute(Attributes.VISITED))
             performLook();
         toRoom.setAttribute(Attributes.VISITED);
         refreshRoomUI();
     }
 
+    // Sets player.currentRoom, journaling the change
+    private void setCurrentRoom(Room room) {
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null) {
+            final Room previousRoom = player.currentRoom;
+            j.record(new ChangeJournal.Swap() {
+                private Room otherRoom = previousRoom;
+
+                protected void swap() {
+                    Room r = player.currentRoom;
+                    player.currentRoom = otherRoom;
+                    otherRoom = r;
+                }
+            });
+        }
+        player.currentRoom = room;
+    }
+
     /**
      * Moves an entity to a room. The entity can currently reside in a room, in player inventory,
      * or nowhere.
@@ -286,13 +418,13 @@ public final class GameManager
 
         // First, let's deal with where the entity is coming from
         if (isInInventory(e)) {
-            player.worn.remove(e);
-            player.equipped.remove(e);
-            player.inventory.remove(e);
+            ChangeJournal.remove(player.worn, e);
+            ChangeJournal.remove(player.equipped, e);
+            ChangeJournal.remove(player.inventory, e);
             e.dropped();
             refreshInventoryUI();
         } else if (previousRoom != null) {
-            previousRoom.getRoomEntities().remove(e);
+            ChangeJournal.remove(previousRoom.getRoomEntities(), e);
         }
 
         // If the entity is changing rooms, we need to deal with scope issues
@@ -306,7 +438,7 @@ public final class GameManager
 
         // If the entity is being moved to a room, as opposed to nowhere, add it to that room
         if (toRoom != null)
-            toRoom.getRoomEntities().add(e);
+            ChangeJournal.add(toRoom.getRoomEntities(), e);
 
         // And we may need to update our UI and selection
         if (previousRoom == playerRoom || toRoom == playerRoom)
@@ -324,8 +456,8 @@ public final class GameManager
             Room previousRoom = e.getRoom();
             Room playerRoom = player.currentRoom;
             if (previousRoom != null)
-                previousRoom.getRoomEntities().remove(e);
-            player.inventory.add(e);
+                ChangeJournal.remove(previousRoom.getRoomEntities(), e);
+            ChangeJournal.add(player.inventory, e);
             e.taken();
             if (previousRoom != playerRoom) {
                 e.setRoom(playerRoom);
@@ -337,6 +469,61 @@ public final class GameManager
         }
     }
 
+    /**
+     * Returns what holds an entity: the room in which it lies, the player if it is in the player inventory,
+     * or the {@link EntityHolder} (a container, for instance) that holds it.
+     * <p/>
+     * The answer is looked up in an index kept of where entities were last found, and the index is checked
+     * against the holder's {@link EntityList}, so that it need not be told when entities move; only an
+     * entity that has moved since it was last looked up is searched for.
+     * @param e entity
+     * @return the holder, or null if the entity is nowhere in the world
+     */
+    public Object getEntityHolder(Entity e) {
+        EntityList l = entityLocations.get(e);
+        if (l == null || !l.contains(e)) {
+            l = findEntity(e);
+            if (l != null)
+                entityLocations.put(e, l);
+            else
+                entityLocations.remove(e);
+        }
+        return l != null ? l.getHolder() : null;
+    }
+
+    // Searches for the list holding an entity: the player inventory, the room the entity says it's in,
+    // and the entity holders found in either.
+    private EntityList findEntity(Entity e) {
+        if (player.inventory.contains(e))
+            return player.inventory;
+        Room r = e.getRoom();
+        if (r == null)
+            return null;
+        EntityList roomEntities = null;
+        if (r instanceof EntityHolder)
+            roomEntities = ((EntityHolder) r).getHeldEntities();
+        else if (r.getRoomEntities() instanceof EntityList)
+            roomEntities = (EntityList) r.getRoomEntities();
+        if (roomEntities != null && roomEntities.contains(e))
+            return roomEntities;
+        LinkedList<EntityList> queue = new LinkedList<>();
+        queue.add(player.inventory);
+        if (roomEntities != null)
+            queue.add(roomEntities);
+        Set<EntityList> searched = Collections.newSetFromMap(new IdentityHashMap<EntityList,Boolean>());
+        while (!queue.isEmpty()) {
+            EntityList l = queue.removeFirst();
+            if (!searched.add(l))
+                continue;
+            if (l.contains(e))
+                return l;
+            for (Entity held : l)
+                if (held instanceof EntityHolder)
+                    queue.add(((EntityHolder) held).getHeldEntities());
+        }
+        return null;
+    }
+
     /** Returns true if the given entity is in the player inventory. */
     public boolean isInInventory(Entity e) {
         return player.inventory.contains(e);
@@ -358,14 +545,14 @@ public final class GameManager
         if (wear) {
             if (e.checkAttribute(Attributes.WEARABLE) && isInInventory(e) && !isWorn(e)) {
                 if (isEquipped(e))
-                    player.equipped.remove(e);
-                player.worn.add(e);
+                    ChangeJournal.remove(player.equipped, e);
+                ChangeJournal.add(player.worn, e);
                 refreshInventoryUI();
                 return true;
             }
         } else {
             if (isWorn(e)) {
-                player.worn.remove(e);
+                ChangeJournal.remove(player.worn, e);
                 refreshInventoryUI();
                 return true;
             }
@@ -389,14 +576,14 @@ public final class GameManager
         if (equip) {
             if (e.checkAttribute(Attributes.EQUIPPABLE) && isInInventory(e) && !isEquipped(e)) {
                 if (isWorn(e))
-                    player.worn.remove(e);
-                player.equipped.add(e);
+                    ChangeJournal.remove(player.worn, e);
+                ChangeJournal.add(player.equipped, e);
                 refreshInventoryUI();
                 return true;
             }
         } else {
             if (isEquipped(e)) {
-                player.equipped.remove(e);
+                ChangeJournal.remove(player.equipped, e);
                 refreshInventoryUI();
                 return true;
             }
@@ -406,16 +593,28 @@ public final class GameManager
 
     /** Called by the UI when the user selects the "About..." menu item.*/
     public void aboutMenuClicked() {
-        ui.appendNewline();
-        ui.appendTextLn("> " + SystemActions.getAboutAction().toUpperCase());
+        pauseAutosave();  // the game may change the world
+        ui().appendNewline();
+        ui().appendTextLn("> " + SystemActions.getAboutAction().toUpperCase());
         game.about();
     }
 
+    /**
+     * Called by the UI when the implementor enters a debug command.
+     * @see Game#debugCommand(String)
+     */
+    public void debugCommand(String command) {
+        pauseAutosave();  // debug commands are apt to change the world
+        game.debugCommand(command);
+    }
+
     /** Called by the UI when the user clicks "Look", or when the player moves rooms */
     public void lookCommand() {
+        if (profiler != null)
+            profiler.turnStarted();
         undoCheckpoint();
-        ui.appendNewline();
-        ui.appendTextLn("> " + SystemActions.getLookAction().toUpperCase());
+        ui().appendNewline();
+        ui().appendTextLn("> " + SystemActions.getLookAction().toUpperCase());
         performLook();
         nextTurn();
     }
@@ -437,7 +636,7 @@ public final class GameManager
             paragraphBuilder.setLength(0);
         }
         fireDescriptionTextReady(textBuilder, getCurrentRoom());
-        ui.appendText(textBuilder.toString());
+        ui().appendText(textBuilder.toString());
         textBuilder.setLength(0);
     }
 
@@ -456,27 +655,46 @@ public final class GameManager
 
     /** Called by the UI when the user clicks "Wait" */
     public void waitCommand() {
+        if (profiler != null)
+            profiler.turnStarted();
         undoCheckpoint();
-        ui.appendNewline();
-        ui.appendTextLn("> " + SystemActions.getWaitAction().toUpperCase());
-        ui.appendTextLn(Meterman.getSystemBundle().getPassage("wait-message"));
+        ui().appendNewline();
+        ui().appendTextLn("> " + SystemActions.getWaitAction().toUpperCase());
+        ui().appendTextLn(Meterman.getSystemBundle().getPassage("wait-message"));
         nextTurn();
     }
 
     /** Called as one turn is transitioning to the next (before {@link WorldState#numTurns} is incremented) */
     private void nextTurn() {
         fireTurn();
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Change() {
+                public void undo() {
+                    worldState.numTurns--;
+                }
+
+                public void redo() {
+                    worldState.numTurns++;
+                }
+            });
         worldState.numTurns++;
+        if (autosaver != null)
+            autosaver.turnEnded(worldState);
+        if (profiler != null)
+            profiler.turnEnded();
     }
     
     /** Called by the UI when the user clicks an exit button */
     public void exitSelected(int position) {
+        if (profiler != null)
+            profiler.turnStarted();
         undoCheckpoint();
         Room toRoom = getCurrentRoom().getExit(position);
         if (toRoom != null) {
             // "> GO TO <exit label>"
-            ui.appendNewline();
-            ui.appendTextLn(Utils.fmt("> %s %s",
+            ui().appendNewline();
+            ui().appendTextLn(Utils.fmt("> %s %s",
                 SystemActions.getGoAction().toUpperCase(), toRoom.getExitName().toUpperCase()));
             movePlayer(toRoom);
         }
@@ -486,6 +704,8 @@ public final class GameManager
     /** Called by the UI when the user clicks an action button (or selects an action
      *  from the combo box when there are many actions) */
     public void entityActionSelected(String action) {
+        if (profiler != null)
+            profiler.turnStarted();
         undoCheckpoint();
         String msg = selectedEntity.replaceParserMessage(action);
         if (msg == null)
@@ -493,21 +713,25 @@ public final class GameManager
         if (msg == null)
             msg = Utils.fmt("> %s %s", action.toUpperCase(), selectedEntity.getName().toUpperCase());
         if (!msg.isEmpty()) {
-            ui.appendNewline();
-            ui.appendTextLn(msg);
+            ui().appendNewline();
+            ui().appendTextLn(msg);
         }
         boolean actionHandled = false;
         actionChain:
         {
             if (actionHandled = fireGameAction(action, selectedEntity, true))
                 break actionChain;
-            if (actionHandled = selectedEntity.processAction(action))
+            long start = profiler != null ? System.nanoTime() : 0L;
+            actionHandled = selectedEntity.processAction(action);
+            if (profiler != null)
+                profiler.record(TurnProfiler.Phase.PROCESS_ACTION, selectedEntity, start);
+            if (actionHandled)
                 break actionChain;
             if (actionHandled = fireGameAction(action, selectedEntity, false))
                 break actionChain;
         }
         if (firePostAction(action, selectedEntity, actionHandled) == false && !actionHandled)
-            ui.appendTextLn(Meterman.getSystemBundle().getPassage("action-not-handled"));
+            ui().appendTextLn(Meterman.getSystemBundle().getPassage("action-not-handled"));
         nextTurn();
     }
 
@@ -525,13 +749,60 @@ public final class GameManager
      * do something potentially non-recoverable, like killing the player or moving him
      * to Hades.
      * <p/>
-     * On a 2.13Ghz i3 from 2010 with slow RAM, checkpointing Cloak of Darkness takes
-     * about 1.5ms. So for a huge game on an old machine, turning off undo might be something
-     * to consider.
+     * Unless {@link #setJournaledUndo(boolean) journaled undo} is in use, each checkpoint stores the entire
+     * world state, serialized and compressed, in the undo history. On a 2.13Ghz i3 from 2010 with slow RAM,
+     * copying the world state of Cloak of Darkness takes about 1.5ms. So for a huge game on an old machine,
+     * turning off undo, or using journaled undo, might be something to consider. With journaled undo,
+     * a checkpoint costs the same however large the world. Either way, a checkpoint made when nothing has
+     * changed since the last merges with it.
      */
     public void undoCheckpoint() {
-        if (undoEnabled)
-            undoWorldState = Meterman.persistence.copyWorldState(worldState);
+        pauseAutosave();
+        if (!undoEnabled)
+            return;
+        long start = profiler != null ? System.nanoTime() : 0L;
+        if (journaledUndo) {
+            journal.checkpoint();
+        } else {
+            byte[] snapshot = snapshotWorldState();
+            if (snapshot != null) {
+                // as with the journal, a checkpoint made when nothing has changed merges with the last
+                if (!Arrays.equals(snapshot, undoSnapshots.peek()))
+                    undoSnapshots.push(snapshot, snapshot.length);
+                redoSnapshots.clear();
+            }
+        }
+        if (profiler != null)
+            profiler.record(TurnProfiler.Phase.CHECKPOINT, null, start);
+    }
+
+    // Returns the current world state serialized and compressed, or null if an error occurred
+    private byte[] snapshotWorldState() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(8192);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bout, deflater, 4096)) {
+            Meterman.persistence().saveWorldState(worldState, out);
+        } catch (IOException ex) {
+            Utils.logger.log(Level.WARNING, "GameManager.snapshotWorldState()", ex);
+            return null;
+        } finally {
+            deflater.end();
+        }
+        return bout.toByteArray();
+    }
+
+    // Replaces the current world state with one stored by snapshotWorldState()
+    private void restoreWorldState(byte[] snapshot) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(snapshot))) {
+            worldState = Meterman.persistence().loadWorldState(in);
+        } catch (IOException ex) {
+            Utils.logger.log(Level.WARNING, "GameManager.restoreWorldState()", ex);
+            return;
+        }
+        player = worldState.player;
+        worldData = worldState.worldData;
+        entityLocations.clear();  // which refers to the entities we just replaced
+        restoreListenerListsFromWorldData();
     }
 
     /**
@@ -539,6 +810,7 @@ public final class GameManager
      * @param e entity selected, or null if no entity selected
      */
     public void entitySelected(Entity e) {
+        pauseAutosave();  // selection listeners may change the world
         selectedEntity = e;
         refreshEntityUI();
         if (e != null) {
@@ -556,38 +828,39 @@ public final class GameManager
         if (e == null)
             return;
         if (getCurrentRoom().getRoomEntities().contains(e)) {
-            ui.refreshRoomEntity(e);
+            ui().refreshRoomEntity(e);
         } else if (isInInventory(e)) {
             String modifiers = null;
             if (isEquipped(e))
                 modifiers = "(e)";
             else if (isWorn(e))
                 modifiers = "(w)";
-            ui.refreshInventoryEntity(e, modifiers);
+            ui().refreshInventoryEntity(e, modifiers);
         }
         if (e == selectedEntity)
             refreshEntityUI();
     }
 
     private void refreshEntityUI() {
+        long start = profiler != null ? System.nanoTime() : 0L;
         if (selectedEntity != null) {
             actions.clear();
             actions.addAll(selectedEntity.getActions());
             fireProcessEntityActions(selectedEntity, actions);
-            ui.setObjectName(selectedEntity.getName());
+            ui().setObjectName(selectedEntity.getName());
             textBuilder.append(selectedEntity.getDescription());
             fireDescriptionTextReady(textBuilder, selectedEntity);
-            ui.setObjectText(textBuilder.toString());
+            ui().setObjectText(textBuilder.toString());
             textBuilder.setLength(0);
-            ui.clearActions();
-            for (String s : actions)
-                ui.addAction(s);
+            ui().setActions(actions);
         } else {
-            ui.clearActions();
-            ui.setObjectName("(nothing selected)");
-            ui.setObjectText("");
-            ui.setEntityImage(UIConstants.NO_IMAGE);
+            ui().clearActions();
+            ui().setObjectName("(nothing selected)");
+            ui().setObjectText("");
+            ui().setEntityImage(UIConstants.NO_IMAGE);
         }
+        if (profiler != null)
+            profiler.record(TurnProfiler.Phase.UI_REFRESH, null, start);
     }
 
     /**
@@ -604,70 +877,134 @@ public final class GameManager
             // the exit label it supplied will have changed as well.
             for (int pos = 0; pos < UIConstants.NUM_EXIT_BUTTONS; pos++)
                 if (currentRoom.getExit(pos) == r)
-                    ui.setExitLabel(pos, currentRoom.getExitLabel(pos));
+                    ui().setExitLabel(pos, currentRoom.getExitLabel(pos));
         }
     }
 
     private void refreshRoomUI() {
+        long start = profiler != null ? System.nanoTime() : 0L;
         Room r = getCurrentRoom();
-        ui.setRoomName(r.getName());
+        ui().setRoomName(r.getName());
         for (int pos = 0; pos < UIConstants.NUM_EXIT_BUTTONS; pos++)
-            ui.setExitLabel(pos, r.getExitLabel(pos));
-        ui.clearRoomEntities();
+            ui().setExitLabel(pos, r.getExitLabel(pos));
+        // The list is handed to the UI whole, so that it is updated once, however many entities there are.
+        // (A new list each time, since the UI may call back into a refresh while it updates the list.)
+        List<Entity> entities = new ArrayList<>(r.getRoomEntities().size());
         for (Entity e : r.getRoomEntities())
             if (!e.checkAttribute(Attributes.CONCEALED))
-                ui.addRoomEntity(e);
+                entities.add(e);
+        ui().setRoomEntities(entities);
+        if (profiler != null)
+            profiler.record(TurnProfiler.Phase.UI_REFRESH, null, start);
     }
 
     /**
      * Called when the player inventory changes in such a way that the UI needs to be refreshed.
      */
     private void refreshInventoryUI() {
-        LinkedList<Entity> remainingItems = new LinkedList<>(player.inventory);
+        long start = profiler != null ? System.nanoTime() : 0L;
         Entity savedSE = selectedEntity;
-        ui.clearInventoryEntities();
+        int n = player.inventory.size();
+        List<Entity> items = new ArrayList<>(n);
+        List<String> modifiers = new ArrayList<>(n);
         for (Entity item : player.equipped) {
-            ui.addInventoryEntity(item, "(e)");
-            remainingItems.remove(item);
+            items.add(item);
+            modifiers.add("(e)");
         }
         for (Entity item : player.worn) {
-            if (remainingItems.remove(item))
-                ui.addInventoryEntity(item, "(w)");
+            if (player.inventory.contains(item) && !player.equipped.contains(item)) {
+                items.add(item);
+                modifiers.add("(w)");
+            }
         }
         for (Entity item : player.inventory) {
-            if (remainingItems.remove(item))
-                ui.addInventoryEntity(item, null);
+            if (!player.worn.contains(item) && !player.equipped.contains(item)) {
+                items.add(item);
+                modifiers.add(null);
+            }
         }
+        ui().setInventoryEntities(items, modifiers);
         if (isInInventory(savedSE))
-            ui.selectEntity(savedSE);
+            ui().selectEntity(savedSE);
+        if (profiler != null)
+            profiler.record(TurnProfiler.Phase.UI_REFRESH, null, start);
     }
 
     /** Called by the UI when the user requests an undo. */
     public void undo() {
-        if (undoEnabled && undoWorldState != null) {
-            worldState = undoWorldState;
-            undoWorldState = null;
-            player = worldState.player;
-            worldData = worldState.worldData;
-            restoreListenerListsFromWorldData();
-            refreshRoomUI();
-            refreshInventoryUI();
-            entitySelected(null);
-            ui.appendNewline();
-            ui.appendTextLn(Meterman.getSystemBundle().getPassage("undo-message"));
-        }
+        pauseAutosave();
+        if (undoEnabled && stepUndoHistory(true))
+            undoRedoFinished("undo-message");
     }
 
-    /** Called by the UI when it's time to load a saved game. */
-    public void loadGameState(InputStream in) {
-        loadGame(Meterman.persistence.loadWorldState(in));
-        ui.appendText("\n------- Game Loaded -------\n\n");
+    /** Called by the UI when the user requests that an undone turn be redone. */
+    public void redo() {
+        pauseAutosave();
+        if (undoEnabled && stepUndoHistory(false))
+            undoRedoFinished("redo-message");
     }
 
-    /** Called by the UI when it's time to save a game. */
-    public void saveGameState(OutputStream out) {
-        Meterman.persistence.saveWorldState(worldState, out);
-        ui.appendText("\n------- Game Saved -------\n\n");
+    /** Returns true if there is a turn that can be undone. */
+    public boolean canUndo() {
+        if (!undoEnabled)
+            return false;
+        return journaledUndo ? journal.canUndo() : undoSnapshots.size() > 0;
+    }
+
+    /** Returns true if there is an undone turn that can be redone. */
+    public boolean canRedo() {
+        if (!undoEnabled)
+            return false;
+        return journaledUndo ? journal.canRedo() : redoSnapshots.size() > 0;
+    }
+
+    /**
+     * Moves the world one turn backward or forward in the undo history.
+     * @param backward true to undo, false to redo
+     * @return true if the world state changed
+     */
+    private boolean stepUndoHistory(boolean backward) {
+        if (journaledUndo)
+            return backward ? journal.undo() : journal.redo();
+        UndoHistory<byte[]> from = backward ? undoSnapshots : redoSnapshots;
+        UndoHistory<byte[]> to = backward ? redoSnapshots : undoSnapshots;
+        byte[] snapshot = from.pop();
+        if (snapshot == null)
+            return false;
+        byte[] current = snapshotWorldState();
+        if (current != null)
+            to.push(current, current.length);
+        restoreWorldState(snapshot);
+        return true;
+    }
+
+    private void undoRedoFinished(String messagePassage) {
+        refreshRoomUI();
+        refreshInventoryUI();
+        entitySelected(null);
+        ui().appendNewline();
+        ui().appendTextLn(Meterman.getSystemBundle().getPassage(messagePassage));
+    }
+
+    /**
+     * Called by the UI when it's time to load a saved game.
+     * @throws IOException if the game could not be loaded
+     * @see Persistence#loadGame(InputStream)
+     */
+    public void loadGameState(InputStream in) throws IOException {
+        clearUndoHistory();  // the deserialized world must not be journaled
+        loadGame(Meterman.persistence().loadGame(in));
+        ui().appendText("\n------- Game Loaded -------\n\n");
+    }
+
+    /**
+     * Called by the UI when it's time to save a game.
+     * @throws IOException if the game could not be saved
+     * @see Persistence#saveGame(WorldState, OutputStream)
+     */
+    public void saveGameState(OutputStream out) throws IOException {
+        Meterman.persistence().saveGame(worldState, out);
+        ui().appendText("\n------- Game Saved -------\n\n");
     }
 
     /** Set whether we should always "Look" when entering a room, even if it's
@@ -687,13 +1024,12 @@ public final class GameManager
      * {@link GameActionListener#processAction(String, Entity, boolean)} method returns true, further action
      * processing will be bypassed.
      * <p/>
-     * Listeners are added to the front of our list, and thus the most recently added
+     * Listeners are notified in the reverse of the order they were added, and thus the most recently added
      * listener will be notified before previously added listeners.
      * @param l listener to add
      */
     public void addGameActionListener(GameActionListener l) {
-        if (!gameActionListeners.contains(l))
-            gameActionListeners.addFirst(l);
+        gameActionListeners.add(l);
     }
 
 
@@ -715,8 +1051,15 @@ public final class GameManager
      *         and thus normal action processing should be skipped.
      */
     private boolean fireGameAction(String action, Entity e, boolean beforeAction) {
-        for (GameActionListener l : gameActionListeners) {
-            if (l.processAction(action, e, beforeAction))
+        Object[] a = gameActionListeners.array();
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] == null)
+                continue;
+            long start = profiler != null ? System.nanoTime() : 0L;
+            boolean interrupted = ((GameActionListener) a[i]).processAction(action, e, beforeAction);
+            if (profiler != null)
+                profiler.record(TurnProfiler.Phase.GAME_ACTION, a[i], start);
+            if (interrupted)
                 return true;
         }
         return false;
@@ -730,8 +1073,15 @@ public final class GameManager
      */
     private boolean firePostAction(String action, Entity e, boolean actionHandled) {
         boolean suppressMessage = false;
-        for (GameActionListener l : gameActionListeners)
-            suppressMessage = l.postAction(action, e, actionHandled) || suppressMessage;
+        Object[] a = gameActionListeners.array();
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] == null)
+                continue;
+            long start = profiler != null ? System.nanoTime() : 0L;
+            suppressMessage = ((GameActionListener) a[i]).postAction(action, e, actionHandled) || suppressMessage;
+            if (profiler != null)
+                profiler.record(TurnProfiler.Phase.POST_ACTION, a[i], start);
+        }
         return suppressMessage;
     }
 
@@ -740,13 +1090,12 @@ public final class GameManager
      * listener may return true from its {@link PlayerMovementListener#playerMove}
      * method to halt further movement processing.
      * <p/>
-     * Listeners are added to the front of our list, and thus the most recently added
+     * Listeners are notified in the reverse of the order they were added, and thus the most recently added
      * listener will be notified before previously added listeners.
      * @param l listener to add
      */
     public void addPlayerMovementListener(PlayerMovementListener l) {
-        if (!playerMovementListeners.contains(l))
-            playerMovementListeners.addFirst(l);
+        playerMovementListeners.add(l);
     }
 
     /**
@@ -765,8 +1114,15 @@ public final class GameManager
      * @return true if any PlayerMovementListener interrupted the chain by returning true.
      */
     private boolean firePlayerMovement(Room from, Room to, boolean beforeMove) {
-        for (PlayerMovementListener l : playerMovementListeners) {
-            if (l.playerMove(from, to, beforeMove))
+        Object[] a = playerMovementListeners.array();
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] == null)
+                continue;
+            long start = profiler != null ? System.nanoTime() : 0L;
+            boolean interrupted = ((PlayerMovementListener) a[i]).playerMove(from, to, beforeMove);
+            if (profiler != null)
+                profiler.record(TurnProfiler.Phase.PLAYER_MOVEMENT, a[i], start);
+            if (interrupted)
                 return true;
         }
         return false;
@@ -775,13 +1131,12 @@ public final class GameManager
     /**
      * Adds a TurnListener to be notified when the turn cycles to the next.
      * <p/>
-     * Listeners are added to the front of our list, and thus the most recently added
+     * Listeners are notified in the reverse of the order they were added, and thus the most recently added
      * listener will be notified before previously added listeners.
      * @param l listener to add
      */
     public void addTurnListener(TurnListener l) {
-        if (!turnListeners.contains(l))
-            turnListeners.addFirst(l);
+        turnListeners.add(l);
     }
 
     /**
@@ -794,20 +1149,26 @@ public final class GameManager
 
     /** Notifies registered {@code TurnListener}S that we have reached the cycle of turns */
     private void fireTurn() {
-        for (TurnListener l : turnListeners)
-            l.turn();
+        Object[] a = turnListeners.array();
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] == null)
+                continue;
+            long start = profiler != null ? System.nanoTime() : 0L;
+            ((TurnListener) a[i]).turn();
+            if (profiler != null)
+                profiler.record(TurnProfiler.Phase.TURN, a[i], start);
+        }
     }
 
     /**
      * Adds an EntityActionsProcessor.
      * <p/>
-     * Listeners are added to the front of our list, and thus the most recently added
+     * Listeners are notified in the reverse of the order they were added, and thus the most recently added
      * listener will be notified before previously added listeners.
      * @param l listener to add
      */
     public void addEntityActionsProcessor(EntityActionsProcessor l) {
-        if (!entityActionsProcessors.contains(l))
-            entityActionsProcessors.addFirst(l);
+        entityActionsProcessors.add(l);
     }
 
     /**
@@ -826,20 +1187,21 @@ public final class GameManager
      *      which each listener may modify.
      */
     private void fireProcessEntityActions(Entity e, List<String> actions) {
-        for (EntityActionsProcessor l : entityActionsProcessors)
-            l.processEntityActions(e, actions);
+        Object[] a = entityActionsProcessors.array();
+        for (int i = a.length - 1; i >= 0; i--)
+            if (a[i] != null)
+                ((EntityActionsProcessor) a[i]).processEntityActions(e, actions);
     }
 
     /**
      * Adds a EntitySelectionListener.
      * <p/>
-     * Listeners are added to the front of our list, and thus the most recently added
+     * Listeners are notified in the reverse of the order they were added, and thus the most recently added
      * listener will be notified before previously added listeners.
      * @param l listener to add
      */
     public void addEntitySelectionListener(EntitySelectionListener l) {
-        if (!entitySelectionListeners.contains(l))
-            entitySelectionListeners.addFirst(l);
+        entitySelectionListeners.add(l);
     }
 
     /**
@@ -855,8 +1217,9 @@ public final class GameManager
      * @param e selected entity
      */
     private void fireEntitySelected(Entity e) {
-        for (EntitySelectionListener l : entitySelectionListeners)
-            if (l.entitySelected(e))
+        Object[] a = entitySelectionListeners.array();
+        for (int i = a.length - 1; i >= 0; i--)
+            if (a[i] != null && ((EntitySelectionListener) a[i]).entitySelected(e))
                 break;
     }
 
@@ -865,8 +1228,7 @@ public final class GameManager
      * @param l listener to add
      */
     public void addDescriptionTextProcessor(DescriptionTextProcessor l) {
-        if (!descriptionTextProcessors.contains(l))
-            descriptionTextProcessors.addFirst(l);
+        descriptionTextProcessors.add(l);
     }
 
     /**
@@ -884,8 +1246,10 @@ public final class GameManager
      * @param r room
      */
     private void fireDescriptionTextReady(StringBuilder sb, Room r) {
-        for (DescriptionTextProcessor l : descriptionTextProcessors)
-            l.roomDescriptionTextReady(sb, r);
+        Object[] a = descriptionTextProcessors.array();
+        for (int i = a.length - 1; i >= 0; i--)
+            if (a[i] != null)
+                ((DescriptionTextProcessor) a[i]).roomDescriptionTextReady(sb, r);
     }
 
     /**
@@ -895,8 +1259,10 @@ public final class GameManager
      * @param e entity
      */
     private void fireDescriptionTextReady(StringBuilder sb, Entity e) {
-        for (DescriptionTextProcessor l : descriptionTextProcessors)
-            l.entityDescriptionTextReady(sb, e);
+        Object[] a = descriptionTextProcessors.array();
+        for (int i = a.length - 1; i >= 0; i--)
+            if (a[i] != null)
+                ((DescriptionTextProcessor) a[i]).entityDescriptionTextReady(sb, e);
     }
 
     /**
@@ -904,8 +1270,7 @@ public final class GameManager
      * @param p processor to add
      */
     public void addParserMessageProcessor(ParserMessageProcessor p) {
-        if (!parserMessageProcessors.contains(p))
-            parserMessageProcessors.addFirst(p);
+        parserMessageProcessors.add(p);
     }
 
     /**
@@ -922,13 +1287,18 @@ public final class GameManager
      * @see ParserMessageProcessor#replaceParserMessage(Entity, String)
      */
     private String fireProcessingParserMessage(Entity e, String action) {
-        String msg = null;
-        for (ParserMessageProcessor p : parserMessageProcessors) {
-            msg = p.replaceParserMessage(e, action);
-            if (msg != null)
-                break;
+        Object[] a = parserMessageProcessors.array();
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] != null) {
+                long start = profiler != null ? System.nanoTime() : 0L;
+                String msg = ((ParserMessageProcessor) a[i]).replaceParserMessage(e, action);
+                if (profiler != null)
+                    profiler.record(TurnProfiler.Phase.PARSER_MESSAGE, a[i], start);
+                if (msg != null)
+                    return msg;
+            }
         }
-        return msg;
+        return null;
     }
     //endregion
 }
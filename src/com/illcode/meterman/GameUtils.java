@@ -22,9 +22,6 @@ import java.util.logging.Level;
  */
 public final class GameUtils
 {
-    private static String defaultMoreLabel;
-    private static String defaultCloseLabel;
-
     /**
      * Returns the subset of a given list of entities that have a specific attribute value.
      * @param entities list of entities to filter
@@ -64,7 +61,7 @@ public final class GameUtils
         int n = passageNames.length;
         for (int i = 0; i < n; i++) {
             String label = (i == n - 1) ? closeLabel : moreLabel;
-            Meterman.ui.showTextDialog(header, b.getPassage(passageNames[i]), label);
+            Meterman.ui().showTextDialog(header, b.getPassage(passageNames[i]), label);
         }
     }
 
@@ -72,12 +69,10 @@ public final class GameUtils
      * We called the method <tt>showPassagesD</tt> because the varargs makes it tricky to disambiguate
      * overloaded methods with the same parameter types. */
     public static void showPassagesD(TextBundle b, String header, String... passageNames) {
-        if (defaultMoreLabel == null) {
-            TextBundle sysBundle = Meterman.getSystemBundle();
-            defaultMoreLabel = sysBundle.getPassage("more-button-label");
-            defaultCloseLabel = sysBundle.getPassage("close-button-label");
-        }
-        showPassages(b, header, defaultMoreLabel, defaultCloseLabel, passageNames);
+        // The labels are looked up each time, since each session's game bundle may customize them
+        TextBundle sysBundle = Meterman.getSystemBundle();
+        showPassages(b, header, sysBundle.getPassage("more-button-label"),
+            sysBundle.getPassage("close-button-label"), passageNames);
     }
 
     /**
@@ -110,7 +105,7 @@ public final class GameUtils
             String header = text.substring(0, firstNewline).trim();
             String buttonLabel = text.substring(lastNewline+1).trim();
             String passageText = text.substring(firstNewline + 1, lastNewline);
-            Meterman.ui.showTextDialog(header, passageText, buttonLabel);
+            Meterman.ui().showTextDialog(header, passageText, buttonLabel);
         }
     }
 
@@ -207,8 +202,8 @@ public final class GameUtils
      * Like {@link #getCurrentTakeableEntities()}, but uses a list given as a parameter to avoid allocation.
      */
     public static void getCurrentTakeableEntities(List<Entity> takeables) {
-        filterByAttribute(Meterman.gm.getCurrentRoom().getRoomEntities(), TAKEABLE, true, takeables);
-        filterByAttribute(Meterman.gm.getPlayer().inventory, TAKEABLE, true, takeables);
+        filterByAttribute(Meterman.gm().getCurrentRoom().getRoomEntities(), TAKEABLE, true, takeables);
+        filterByAttribute(Meterman.gm().getPlayer().inventory, TAKEABLE, true, takeables);
     }
 
     /**
@@ -246,17 +241,17 @@ public final class GameUtils
             JsonValue v = o.get("sounds");
             if (v != null) {
                 for (JsonObject.Member m : v.asObject())
-                    Meterman.sound.loadSound(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
+                    Meterman.sound().loadSound(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
             }
             v = o.get("music");
             if (v != null) {
                 for (JsonObject.Member m : v.asObject())
-                    Meterman.sound.loadMusic(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
+                    Meterman.sound().loadMusic(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
             }
             v = o.get("images");
             if (v != null) {
                 for (JsonObject.Member m : v.asObject())
-                    Meterman.ui.loadImage(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
+                    Meterman.ui().loadImage(m.getName(), Utils.pathForGameAsset(m.getValue().asString()));
             }
         } catch (ParseException | UnsupportedOperationException ex) {
             logger.log(Level.WARNING, "JSON error, GameUtils.loadResources()", ex);
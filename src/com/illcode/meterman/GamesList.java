@@ -15,19 +15,20 @@ import static com.illcode.meterman.Utils.logger;
 /**
  * A class containing the names of all the games packaged with Meterman,
  * and {@link #getGame a method} to retrieve a {@link Game} instance based on a given name.
+ * The list is shared by all sessions, and so its methods are synchronized.
  */
 public class GamesList
 {
     private static List<String> gameNames;
     private static Map<String,PieceOfGlue> gamesMap;
 
-    public static Game getGame(String gameName) {
+    public static synchronized Game getGame(String gameName) {
         if (gamesMap == null)
             loadGamesMap();
         return gamesMap.get(gameName).createGame();
     }
 
-    public static List<String> getGameNames() {
+    public static synchronized List<String> getGameNames() {
         if (gameNames == null) {
             if (gamesMap == null)
                 loadGamesMap();
@@ -41,7 +42,7 @@ public class GamesList
      * @param gameName game name
      * @return game description
      */
-    public static String getGameDescription(String gameName) {
+    public static synchronized String getGameDescription(String gameName) {
         if (gamesMap == null)
             loadGamesMap();
         return gamesMap.get(gameName).description;
@@ -52,24 +53,42 @@ public class GamesList
      * @param gameName game name
      * @return string assets path
      */
-    public static String getGameAssetsPath(String gameName) {
+    public static synchronized String getGameAssetsPath(String gameName) {
         if (gamesMap == null)
             loadGamesMap();
         return gamesMap.get(gameName).assetsPath;
     }
 
+    /**
+     * Return the version of a game, as given by the optional "version" passage of its glue file,
+     * which it is the game's business to change when it changes the classes it saves.
+     * @param gameName game name
+     * @return game version, or an empty string if it has none or the game isn't known
+     */
+    public static synchronized String getGameVersion(String gameName) {
+        if (gamesMap == null)
+            loadGamesMap();
+        PieceOfGlue glue = gamesMap.get(gameName);
+        return glue != null && glue.version != null ? glue.version : "";
+    }
+
     private static void loadGamesMap() {
         gamesMap = new HashMap<>();
         try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(Meterman.gluePath)) {
             for (Path p : dirStream) {
-                String filename = p.getFileName().toString().toLowerCase();
-                if (filename.endsWith(".glue")) {
+                String name = p.getFileName().toString();
+                String filename = name.toLowerCase();
+                // a compiled glue file is used when it's shipped without its source
+                if (filename.endsWith(".glue") || (filename.endsWith(TextBundleCompiler.EXTENSION) && Files.notExists(
+                        p.resolveSibling(name.substring(0, name.length() - TextBundleCompiler.EXTENSION.length()) + ".glue")))) {
                     TextBundle b = TextBundle.loadBundle(p);
                     PieceOfGlue glue = new PieceOfGlue();
                     glue.name = b.getPassage("name");
                     glue.description = b.getPassage("description");
                     glue.assetsPath = b.getPassage("assets-path");
                     glue.gameClassName = b.getPassage("game-class");
+                    if (b.hasPassage("version"))
+                        glue.version = b.getPassage("version");
                     gamesMap.put(glue.name, glue);
                 }
             }
@@ -83,6 +102,7 @@ public class GamesList
         String description;
         String assetsPath;
         String gameClassName;
+        String version;
 
         public String getName() {
             return name;
@@ -0,0 +1,87 @@
+package com.illcode.meterman;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A HashMap that records its modifications in the active {@link ChangeJournal}, so that
+ * they can be undone when journaled undo is enabled.
+ * <p/>
+ * Only modifications made through {@link #put}, {@link #remove}, {@link #putAll}, and {@link #clear}
+ * are journaled; modifying the map through its views (ex. {@code entrySet().iterator().remove()})
+ * is not.
+ */
+public class JournaledMap<K,V> extends HashMap<K,V>
+{
+    private static final long serialVersionUID = 1L;
+
+    public JournaledMap() {
+    }
+
+    public JournaledMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    public V put(K key, V value) {
+        ChangeJournal j = ChangeJournal.active();
+        if (j == null)
+            return super.put(key, value);
+        boolean present = containsKey(key);
+        V oldValue = super.put(key, value);
+        j.record(new EntryChange(key, present, oldValue));
+        return oldValue;
+    }
+
+    public void putAll(Map<? extends K,? extends V> m) {
+        for (Map.Entry<? extends K,? extends V> entry : m.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    public V remove(Object key) {
+        ChangeJournal j = ChangeJournal.active();
+        if (j == null || !containsKey(key))
+            return super.remove(key);
+        V oldValue = super.remove(key);
+        j.record(new EntryChange(key, true, oldValue));
+        return oldValue;
+    }
+
+    public void clear() {
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null && !isEmpty()) {
+            final Map<K,V> saved = new HashMap<>(this);
+            j.record(new ChangeJournal.Change() {
+                public void undo() {
+                    JournaledMap.super.putAll(saved);
+                }
+
+                public void redo() {
+                    JournaledMap.super.clear();
+                }
+            });
+        }
+        super.clear();
+    }
+
+    /** Swaps the current mapping of a key with the one recorded before it was changed. */
+    private final class EntryChange extends ChangeJournal.Swap
+    {
+        private final Object key;
+        private boolean present;
+        private V value;
+
+        EntryChange(Object key, boolean present, V value) {
+            this.key = key;
+            this.present = present;
+            this.value = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        protected void swap() {
+            boolean nowPresent = containsKey(key);
+            V nowValue = present ? JournaledMap.super.put((K) key, value) : JournaledMap.super.remove(key);
+            present = nowPresent;
+            value = nowValue;
+        }
+    }
+}
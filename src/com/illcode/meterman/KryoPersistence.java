@@ -1,32 +1,108 @@
 package com.illcode.meterman;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.factories.SerializerFactory;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import com.esotericsoftware.kryo.util.ObjectMap;
+import com.illcode.meterman.impl.*;
 import de.javakaffee.kryoserializers.ArraysAsListSerializer;
 import de.javakaffee.kryoserializers.RegexSerializer;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.illcode.meterman.Utils.logger;
 
 /**
  * Uses Kryo to serialize world state.
  * <p/>
- * Note that if any of the classes referenced in the state changes, then saved
- * data cannot be loaded.
+ * The world state {@link #saveWorldState saved} for undo, or {@link #copyWorldState copied}, is written by
+ * Kryo's FieldSerializer, which is fast, but whose data cannot be loaded if any of the classes referenced
+ * in the state changes.
+ * <p/>
+ * {@link #saveGame Saved games} are written in a format meant to survive changes to the engine and game:
+ * <ol>
+ *     <li>A header, written with a {@link DataOutputStream}: the magic number {@link #SAVE_MAGIC}, the format
+ *         version, the {@link Meterman#VERSION engine version}, the game name and
+ *         {@link GamesList#getGameVersion(String) version}, and a hash of the names and types of the fields
+ *         of the classes saved.</li>
+ *     <li>The world state, compressed with Deflate. Objects are written field by field, each field tagged, in
+ *         effect, with its name, so that a field added to a class since the game was saved is left at its
+ *         default value (that is, as the constructor leaves it, since {@code init()} isn't called), and a field
+ *         since removed, or whose value no longer fits its type, is skipped.</li>
+ * </ol>
+ * Games saved before the format had a header can't be loaded, since the engine's classes have changed since.
+ * <p/>
+ * The Kryo used for undo and copies has the classes of the engine, and those a game passes to
+ * {@link #registerClasses}, registered in a fixed order, so that their objects are written with a small
+ * ID rather than their class name. Saved games still name their classes, since the IDs would change
+ * along with the classes registered.
+ * <p/>
+ * A KryoPersistence may be used by several threads at once: each call borrows, from a pool, a set of Kryo
+ * instances along with an input and output buffer that are reused from call to call.
  */
 public final class KryoPersistence implements Persistence
 {
-    private Kryo kryo;
+    /** The magic number at the start of a saved game: "MSV1". */
+    public static final int SAVE_MAGIC = 0x4D535631;
+
+    /** The version of the saved game format. */
+    public static final int SAVE_FORMAT_VERSION = 1;
+
+    private static final Map<Class<?>,Class<?>> PRIMITIVE_WRAPPERS = new HashMap<>();
+    static {
+        PRIMITIVE_WRAPPERS.put(boolean.class, Boolean.class);
+        PRIMITIVE_WRAPPERS.put(byte.class, Byte.class);
+        PRIMITIVE_WRAPPERS.put(char.class, Character.class);
+        PRIMITIVE_WRAPPERS.put(short.class, Short.class);
+        PRIMITIVE_WRAPPERS.put(int.class, Integer.class);
+        PRIMITIVE_WRAPPERS.put(long.class, Long.class);
+        PRIMITIVE_WRAPPERS.put(float.class, Float.class);
+        PRIMITIVE_WRAPPERS.put(double.class, Double.class);
+    }
+
+    /**
+     * The classes registered, in this order, with the Kryo used for undo and copies: those whose objects
+     * make up the world state of a typical game. Classes may only be added to the end of the list.
+     */
+    private static final Class<?>[] ENGINE_CLASSES = {
+        WorldState.class, Player.class, EntityList.class, JournaledMap.class, ListenerList.class,
+        PassageTemplate.class, Entity[].class, Room[].class,
+        BaseEntity.class, BaseRoom.class, BaseRoom[].class, Container.class, Door.class, DarkRoom.class,
+        TalkingEntity.class, TalkTopic.class, BasicWorldManager.class, FrameImageManager.class,
+        WorldBuilder.class,
+        ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class, HashSet.class,
+        LinkedHashSet.class, ConcurrentHashMap.class, Object[].class, String[].class, int[].class
+    };
+
+    /** The registration ID of the first class passed to {@link #registerClasses}; those before are the engine's. */
+    private static final int FIRST_GAME_CLASS_ID = 100;
+
+    /** Output and save buffers that have grown larger than this are not kept for reuse. */
+    private static final int MAX_RETAINED_BUFFER = 4 << 20;
+
+    private final ConcurrentLinkedQueue<KryoSet> pool = new ConcurrentLinkedQueue<>();
+    private final List<Class<?>> gameClasses = new ArrayList<>();  // guarded by itself
 
     public void init() {
-        kryo = new Kryo();
+    }
+
+    private static void configure(Kryo kryo) {
         // My serializers
         kryo.register(BitSet.class, new BitSetSerializer());
         kryo.register(TextBundle.class, new TextBundleSerializer());
@@ -38,23 +114,351 @@ public final class KryoPersistence implements Persistence
     }
 
     public void dispose() {
-        kryo = null;
+        pool.clear();
+    }
+
+    /**
+     * Registers the classes with the Kryo used for undo and copies, after those of the engine, giving them
+     * IDs in the order they are first registered. A class already registered is ignored.
+     */
+    public void registerClasses(Class<?>... types) {
+        synchronized (gameClasses) {
+            for (Class<?> type : types)
+                if (!gameClasses.contains(type))
+                    gameClasses.add(type);
+        }
     }
 
     public void saveWorldState(WorldState state, OutputStream out) {
-        Output output = new Output(out);
-        kryo.writeObject(output, state);
-        output.flush();
+        KryoSet ks = borrow();
+        try {
+            ks.output.setOutputStream(out);
+            ks.kryo.writeObject(ks.output, state);
+            ks.output.flush();
+        } finally {
+            ks.output.setOutputStream(null);
+            release(ks);
+        }
     }
 
     public WorldState loadWorldState(InputStream in) {
-        Input input = new Input(in);
-        WorldState state = kryo.readObject(input, WorldState.class);
-        return state;
+        KryoSet ks = borrow();
+        try {
+            ks.input.setInputStream(in);
+            return ks.kryo.readObject(ks.input, WorldState.class);
+        } finally {
+            ks.input.setInputStream(null);
+            release(ks);
+        }
     }
 
     public WorldState copyWorldState(WorldState ws) {
-        return kryo.copy(ws);
+        KryoSet ks = borrow();
+        try {
+            return ks.kryo.copy(ws);
+        } finally {
+            release(ks);
+        }
+    }
+
+    public void saveGame(WorldState state, OutputStream out) throws IOException {
+        KryoSet ks = borrow();
+        try {
+            // The world state is serialized first, since the header has the hash of the classes serialized
+            Output output = ks.output;
+            SaveBuffer saveBuffer = ks.saveBuffer;
+            output.setOutputStream(saveBuffer);
+            ks.saveClasses.classes.clear();
+            try {
+                ks.saveKryo.writeObject(output, state);
+                output.flush();
+            } catch (KryoException ex) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException("Saving the game was interrupted");
+                throw new IOException("Could not save the game: " + ex.getMessage(), ex);
+            }
+            DataOutputStream dout = new DataOutputStream(out);
+            dout.writeInt(SAVE_MAGIC);
+            dout.writeInt(SAVE_FORMAT_VERSION);
+            dout.writeUTF(Meterman.VERSION);
+            dout.writeUTF(state.gameName);
+            dout.writeUTF(GamesList.getGameVersion(state.gameName));
+            dout.writeLong(ks.schemaHash());
+            dout.flush();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream zout = new DeflaterOutputStream(out, deflater, 8192);
+                zout.write(saveBuffer.getBuffer(), 0, saveBuffer.size());
+                zout.finish();
+                zout.flush();
+            } finally {
+                deflater.end();
+            }
+        } finally {
+            ks.output.setOutputStream(null);  // which resets its position
+            ks.saveBuffer.reset();
+            release(ks);
+        }
+    }
+
+    public WorldState loadGame(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in, 8192);
+        DataInputStream din = new DataInputStream(bin);
+        if (din.readInt() != SAVE_MAGIC)  // saved before the format had a header, or not a saved game at all
+            throw new IOException("The game was saved by an older, incompatible version of Meterman");
+        int formatVersion = din.readInt();
+        if (formatVersion > SAVE_FORMAT_VERSION)
+            throw new IOException("Unsupported saved game version " + formatVersion);
+        String engineVersion = din.readUTF();
+        String gameName = din.readUTF();
+        String gameVersion = din.readUTF();
+        long schemaHash = din.readLong();
+        WorldState state;
+        boolean changed;
+        KryoSet ks = borrow();
+        Inflater inflater = new Inflater();
+        try {
+            ks.saveClasses.classes.clear();
+            ks.input.setInputStream(new InflaterInputStream(bin, inflater, 8192));
+            state = ks.saveKryo.readObject(ks.input, WorldState.class);
+            changed = schemaHash != ks.schemaHash();
+        } catch (RuntimeException ex) {  // a KryoException, or the like from data that fits our classes badly
+            throw new IOException("Could not load the game: " + ex.getMessage(), ex);
+        } finally {
+            inflater.end();
+            ks.input.setInputStream(null);
+            release(ks);
+        }
+        if (changed || !gameVersion.equals(GamesList.getGameVersion(gameName)))
+            logger.info(Utils.fmt("KryoPersistence.loadGame(): loaded a game saved by version '%s' of %s " +
+                "and engine version %s, whose classes have since changed", gameVersion, gameName, engineVersion));
+        return state;
+    }
+
+    private KryoSet borrow() {
+        KryoSet ks = pool.poll();
+        if (ks == null)
+            ks = new KryoSet();
+        ks.registerGameClasses();
+        return ks;
+    }
+
+    private void release(KryoSet ks) {
+        if (ks.output.getBuffer().length > MAX_RETAINED_BUFFER)
+            ks.output.setBuffer(new byte[16384], -1);
+        if (ks.saveBuffer.getBuffer().length > MAX_RETAINED_BUFFER)
+            ks.saveBuffer = new SaveBuffer();
+        pool.offer(ks);
+    }
+
+    /** The Kryo instances and buffers used by one thread at a time; see {@link #borrow()}. */
+    private final class KryoSet
+    {
+        final Kryo kryo;      // for undo and copies
+        final Kryo saveKryo;  // for saved games
+        final RecordingClassResolver saveClasses;
+        final Output output;
+        SaveBuffer saveBuffer;
+        final Input input;
+        int gameClassesRegistered;
+
+        KryoSet() {
+            kryo = new Kryo();
+            configure(kryo);
+            // EntityList is a Collection, but we want its holder and the places of its entities saved as well
+            kryo.addDefaultSerializer(EntityList.class, FieldSerializer.class);
+            for (Class<?> type : ENGINE_CLASSES)
+                kryo.register(type);
+
+            saveClasses = new RecordingClassResolver();
+            saveKryo = new Kryo(saveClasses, new MapReferenceResolver());
+            configure(saveKryo);
+            SerializerFactory namedFields = new SerializerFactory() {
+                public Serializer<?> makeSerializer(Kryo kryo, Class<?> type) {
+                    return NamedFieldSerializer.create(kryo, type);
+                }
+            };
+            saveKryo.setDefaultSerializer(namedFields);
+            saveKryo.addDefaultSerializer(EntityList.class, namedFields);
+
+            output = new Output(16384, -1);
+            saveBuffer = new SaveBuffer();
+            input = new Input(16384);
+        }
+
+        // Registers the game classes registered since this set was last used. Each is registered with an
+        // explicit ID, and so replaces the ID-less registration Kryo makes for a class written unregistered.
+        void registerGameClasses() {
+            synchronized (gameClasses) {
+                for (; gameClassesRegistered < gameClasses.size(); gameClassesRegistered++) {
+                    Class<?> type = gameClasses.get(gameClassesRegistered);
+                    int id = FIRST_GAME_CLASS_ID + gameClassesRegistered;
+                    kryo.register(type, kryo.getDefaultSerializer(type), id);
+                }
+            }
+        }
+
+        // Returns a hash of the names and field layouts of the classes written or read by saveKryo since
+        // its class resolver's record was cleared.
+        long schemaHash() {
+            List<String> schema = new ArrayList<>(saveClasses.classes.size() + 1);
+            saveClasses.classes.add(WorldState.class);  // which, read and written by writeObject(), isn't recorded
+            StringBuilder sb = new StringBuilder(256);
+            for (Class<?> c : saveClasses.classes) {
+                sb.setLength(0);
+                sb.append(c.getName());
+                Serializer<?> serializer = saveKryo.getRegistration(c).getSerializer();
+                if (serializer instanceof FieldSerializer)
+                    for (FieldSerializer.CachedField<?> f : ((FieldSerializer<?>) serializer).getFields())
+                        sb.append(' ').append(f.getField().getName())
+                          .append(':').append(f.getField().getType().getName());
+                schema.add(sb.toString());
+            }
+            Collections.sort(schema);
+            long hash = 0xcbf29ce484222325L;  // 64-bit FNV-1a
+            for (String s : schema) {
+                for (int i = 0; i < s.length(); i++) {
+                    hash ^= s.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+                hash ^= '\n';
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Writes the fields of an object tagged, in effect, by their names: the names of a class's fields are
+     * written once per saved game, before its first object, and the value of each field is written with its
+     * class, so that a reader can read (and throw away) the value of a field whose class no longer has it.
+     * Kryo's CompatibleFieldSerializer does the same by copying each field through a chunked buffer, which
+     * for a deep world graph made saving thirty times slower.
+     */
+    private static final class NamedFieldSerializer<T> extends FieldSerializer<T>
+    {
+        NamedFieldSerializer(Kryo kryo, Class<T> type) {
+            super(kryo, type);
+            for (CachedField<?> f : getFields())
+                f.getField().setAccessible(true);
+        }
+
+        // Captures the type parameter of a Class<?>, as a SerializerFactory is given.
+        static <T> NamedFieldSerializer<T> create(Kryo kryo, Class<T> type) {
+            return new NamedFieldSerializer<>(kryo, type);
+        }
+
+        public void write(Kryo kryo, Output output, T object) {
+            CachedField<?>[] fields = getFields();
+            @SuppressWarnings("unchecked")  // Kryo's graph context is a raw ObjectMap
+            ObjectMap<Object,Object> context = kryo.getGraphContext();
+            if (!context.containsKey(this)) {
+                context.put(this, null);
+                output.writeVarInt(fields.length, true);
+                for (CachedField<?> f : fields)
+                    output.writeString(f.getField().getName());
+            }
+            try {
+                for (CachedField<?> f : fields)
+                    kryo.writeClassAndObject(output, f.getField().get(object));
+            } catch (IllegalAccessException ex) {
+                throw new KryoException(ex);
+            }
+        }
+
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            T object = create(kryo, input, type);
+            kryo.reference(object);
+            @SuppressWarnings("unchecked")
+            ObjectMap<Object,Object> context = kryo.getGraphContext();
+            Field[] fields = (Field[]) context.get(this);
+            if (fields == null) {
+                fields = readFieldNames(input);
+                context.put(this, fields);
+            }
+            try {
+                for (Field f : fields) {
+                    Object value = kryo.readClassAndObject(input);
+                    if (f != null && fits(f.getType(), value))
+                        f.set(object, value);
+                }
+            } catch (IllegalAccessException ex) {
+                throw new KryoException(ex);
+            }
+            return object;
+        }
+
+        // Reads the names of the fields saved, and returns the fields they name, or null for those that no
+        // longer exist. Should a class have two fields of the same name, they were saved in the same order.
+        private Field[] readFieldNames(Input input) {
+            CachedField<?>[] current = getFields();
+            boolean[] matched = new boolean[current.length];
+            Field[] fields = new Field[input.readVarInt(true)];
+            for (int i = 0; i < fields.length; i++) {
+                String name = input.readString();
+                for (int j = 0; j < current.length; j++) {
+                    if (!matched[j] && current[j].getField().getName().equals(name)) {
+                        matched[j] = true;
+                        fields[i] = current[j].getField();
+                        break;
+                    }
+                }
+            }
+            return fields;
+        }
+
+        private static boolean fits(Class<?> fieldType, Object value) {
+            if (value == null)
+                return !fieldType.isPrimitive();
+            if (fieldType.isPrimitive())
+                return PRIMITIVE_WRAPPERS.get(fieldType) == value.getClass();
+            return fieldType.isInstance(value);
+        }
+    }
+
+    /**
+     * Holds the serialized world state of a game being saved until the header, which has the hash of the
+     * classes serialized, has been written. The output flushes into it each time its buffer fills, and so it
+     * is here that a save notices it has been interrupted, and stops, as {@link Autosaver#pause()} expects.
+     */
+    private static final class SaveBuffer extends ByteArrayOutputStream
+    {
+        SaveBuffer() {
+            super(65536);
+        }
+
+        public void write(byte[] b, int off, int len) {
+            if (Thread.currentThread().isInterrupted())
+                throw new KryoException("Interrupted");
+            super.write(b, off, len);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /** Records the classes of the objects whose class it writes or reads. */
+    private static final class RecordingClassResolver extends DefaultClassResolver
+    {
+        final Set<Class<?>> classes = new HashSet<>();
+
+        @SuppressWarnings("rawtypes")  // overrides Kryo's raw signature
+        public Registration writeClass(Output output, Class type) {
+            if (type != null)
+                classes.add(type);
+            return super.writeClass(output, type);
+        }
+
+        public Registration readClass(Input input) {
+            Registration r = super.readClass(input);
+            if (r != null) {
+                Class<?> type = r.getType();
+                // a boxed value is read with the registration of its primitive type, which shares its ID
+                classes.add(type.isPrimitive() ? PRIMITIVE_WRAPPERS.get(type) : type);
+            }
+            return r;
+        }
     }
 
     private static class TextBundleSerializer extends Serializer<TextBundle> {
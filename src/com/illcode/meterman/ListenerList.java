@@ -0,0 +1,243 @@
+package com.illcode.meterman;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A list of listeners, as kept by the {@link GameManager}, that can be notified without allocating
+ * an iterator, and to which a listener can be added, or from which it can be removed, in constant
+ * (amortized) time.
+ * <p/>
+ * Listeners are kept in an array in the order they were added, and are notified in reverse order, that is,
+ * the most recently added listener first. Membership is by identity, and a listener is only added once.
+ * A removed listener leaves an empty slot behind, and the array is compacted into a new array when half
+ * of its slots are empty. An array handed out by {@link #array()} is never changed: the list copies it
+ * before it next changes, so code may notify listeners like this, even if they add or remove listeners
+ * while being notified:
+ * <pre>{@code
+ *     Object[] a = turnListeners.array();
+ *     for (int i = a.length - 1; i >= 0; i--)
+ *         if (a[i] != null)
+ *             ((TurnListener) a[i]).turn();
+ * }</pre>
+ * Notification thus sees the listeners as they were when it began: a listener added during notification
+ * is not notified until the next time, and a listener removed during notification is still notified if it
+ * hasn't been already.
+ * <p/>
+ * Additions and removals are recorded in the active {@link ChangeJournal}, and undoing a removal puts
+ * the listener back in its original place.
+ */
+public final class ListenerList<L>
+{
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Object[] listeners;  // slots [0, size) hold listeners in the order added, or null if removed
+    private long[] serials;      // the serial number of each slot's listener, ascending, to restore order
+    private int size;            // number of slots used, including empty slots
+    private int count;           // number of listeners
+    private long nextSerial;
+
+    // The slot of each listener; rebuilt when null, as it is after deserialization
+    private transient IdentityHashMap<Object,Integer> slots;
+
+    // True if our arrays have been handed out by array(), and so must be copied before they are changed
+    private transient boolean shared;
+
+    public ListenerList() {
+        listeners = new Object[INITIAL_CAPACITY];
+        serials = new long[INITIAL_CAPACITY];
+    }
+
+    /** Returns the number of listeners in the list. */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** Returns true if the list contains the given listener. */
+    public boolean contains(L l) {
+        return getSlots().containsKey(l);
+    }
+
+    /**
+     * Adds a listener to the list, if it isn't already in it, journaling the change.
+     * @return true if the listener was added
+     */
+    public boolean add(L l) {
+        if (l == null || contains(l))
+            return false;
+        long serial = nextSerial++;
+        append(l, serial);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new Registration(l, serial, true));
+        return true;
+    }
+
+    /**
+     * Removes a listener from the list, journaling the change.
+     * @return true if the listener was in the list
+     */
+    public boolean remove(L l) {
+        Integer slot = getSlots().get(l);
+        if (slot == null)
+            return false;
+        long serial = serials[slot];
+        removeSlot(slot);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new Registration(l, serial, false));
+        return true;
+    }
+
+    /** Removes all listeners from the list. This is not journaled. */
+    public void clear() {
+        listeners = new Object[INITIAL_CAPACITY];
+        serials = new long[INITIAL_CAPACITY];
+        size = 0;
+        count = 0;
+        slots = null;
+        shared = false;
+    }
+
+    /**
+     * Returns the array of listeners, in the order they were added, for notifying them. The array may
+     * contain null elements, which are to be skipped, and must not be modified. The list doesn't change the
+     * array afterwards, but copies it when the list itself changes.
+     */
+    public Object[] array() {
+        shared = true;
+        return listeners;
+    }
+
+    // Copies our arrays, if they have been handed out, before they are changed in place
+    private void unshare() {
+        if (shared) {
+            listeners = listeners.clone();
+            serials = serials.clone();
+            shared = false;
+        }
+    }
+
+    private IdentityHashMap<Object,Integer> getSlots() {
+        if (slots == null) {
+            slots = new IdentityHashMap<>(Math.max(count, INITIAL_CAPACITY));
+            for (int i = 0; i < size; i++)
+                if (listeners[i] != null)
+                    slots.put(listeners[i], i);
+        }
+        return slots;
+    }
+
+    private void append(Object l, long serial) {
+        if (size == listeners.length)
+            reallocate(count < size / 2 ? listeners.length : listeners.length * 2);
+        else
+            unshare();
+        listeners[size] = l;
+        serials[size] = serial;
+        getSlots().put(l, size);
+        size++;
+        count++;
+    }
+
+    private void removeSlot(int slot) {
+        getSlots().remove(listeners[slot]);
+        unshare();
+        listeners[slot] = null;
+        count--;
+        if (size > INITIAL_CAPACITY && count < size / 2)
+            reallocate(Math.max(INITIAL_CAPACITY, count * 2));
+    }
+
+    // Copies the listeners, without the empty slots, into new arrays of the given capacity
+    private void reallocate(int capacity) {
+        Object[] newListeners = new Object[capacity];
+        long[] newSerials = new long[capacity];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (listeners[i] != null) {
+                newListeners[n] = listeners[i];
+                newSerials[n] = serials[i];
+                n++;
+            }
+        }
+        listeners = newListeners;
+        serials = newSerials;
+        size = n;
+        slots = null;
+        shared = false;
+    }
+
+    // Puts a listener back in the place given by its serial number, when a change is undone or redone.
+    private void restore(Object l, long serial) {
+        if (getSlots().containsKey(l))
+            return;
+        int pos = Arrays.binarySearch(serials, 0, size, serial);
+        if (pos < 0)
+            pos = -pos - 1;
+        else if (listeners[pos] == null) {  // its own empty slot is still here
+            unshare();
+            listeners[pos] = l;
+            slots.put(l, pos);
+            count++;
+            return;
+        }
+        if (pos == size) {
+            append(l, serial);
+            return;
+        }
+        // Insert into new arrays, which are thus not shared
+        Object[] newListeners = new Object[Math.max(listeners.length, size + 1)];
+        long[] newSerials = new long[newListeners.length];
+        System.arraycopy(listeners, 0, newListeners, 0, pos);
+        System.arraycopy(serials, 0, newSerials, 0, pos);
+        newListeners[pos] = l;
+        newSerials[pos] = serial;
+        System.arraycopy(listeners, pos, newListeners, pos + 1, size - pos);
+        System.arraycopy(serials, pos, newSerials, pos + 1, size - pos);
+        listeners = newListeners;
+        serials = newSerials;
+        size++;
+        count++;
+        slots = null;
+        shared = false;
+    }
+
+    private void unregister(Object l) {
+        Integer slot = getSlots().get(l);
+        if (slot != null)
+            removeSlot(slot);
+    }
+
+    /** The addition or removal of a listener. */
+    private final class Registration implements ChangeJournal.Change
+    {
+        private final Object listener;
+        private final long serial;
+        private final boolean added;
+
+        Registration(Object listener, long serial, boolean added) {
+            this.listener = listener;
+            this.serial = serial;
+            this.added = added;
+        }
+
+        public void undo() {
+            if (added)
+                unregister(listener);
+            else
+                restore(listener, serial);
+        }
+
+        public void redo() {
+            if (added)
+                restore(listener, serial);
+            else
+                unregister(listener);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.illcode.meterman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The passage map of a TextBundle loaded from a compiled bundle file (see {@link TextBundleCompiler}).
+ * <p/>
+ * The file is memory-mapped (or, if it's not on the default file system, as inside a ZIP file,
+ * read into a heap buffer), and passages are decoded only when first requested. Finding a passage
+ * requires only a probe of the file's hash table, so {@code containsKey()} decodes nothing.
+ * <p/>
+ * Passages put into or removed from the map are kept in an overlay in front of the file; operations that
+ * need every passage, like iteration and {@code size()}, decode the whole file.
+ */
+final class MappedPassageMap extends AbstractMap<String,String>
+{
+    private final ByteBuffer buf;
+    private final int count, tableSize;
+    private final int tableOffset, entriesOffset;
+    private boolean cleared;  // true if the file passages have been cleared
+
+    // Passages that have been decoded from the file
+    private final ConcurrentHashMap<String,String> decoded;
+
+    // Passages put or removed since loading; a null value marks a removed passage. Only the session
+    // owning a bundle modifies it, so this need not be a concurrent map.
+    private final Map<String,String> overlay;
+
+    private MappedPassageMap(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.remaining() < TextBundleCompiler.HEADER_SIZE || buf.getInt(0) != TextBundleCompiler.MAGIC)
+            throw new IOException("Not a compiled text bundle");
+        if (buf.getInt(4) != TextBundleCompiler.FORMAT_VERSION)
+            throw new IOException("Unsupported compiled text bundle version " + buf.getInt(4));
+        count = buf.getInt(8);
+        tableSize = buf.getInt(12);
+        tableOffset = TextBundleCompiler.HEADER_SIZE;
+        entriesOffset = tableOffset + tableSize * 4;
+        decoded = new ConcurrentHashMap<>();
+        overlay = new HashMap<>();
+    }
+
+    /**
+     * Opens a compiled bundle file.
+     * @param p path of the file
+     * @return a map of the file's passages
+     * @throws IOException if the file cannot be read or is not a compiled bundle
+     */
+    static MappedPassageMap open(Path p) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (UnsupportedOperationException ex) {
+            buf = ByteBuffer.wrap(Files.readAllBytes(p));  // ZIP file systems don't support mapping
+        }
+        return new MappedPassageMap(buf);
+    }
+
+    public String get(Object key) {
+        if (!(key instanceof String))
+            return null;
+        String name = (String) key;
+        if (overlay.containsKey(name))
+            return overlay.get(name);
+        String text = decoded.get(name);
+        if (text == null && !cleared) {
+            int entry = findEntry(name);
+            if (entry != -1) {
+                text = decodeString(entry + 12);
+                decoded.put(name, text);
+            }
+        }
+        return text;
+    }
+
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String))
+            return false;
+        String name = (String) key;
+        if (overlay.containsKey(name))
+            return overlay.get(name) != null;
+        return !cleared && (decoded.containsKey(name) || findEntry(name) != -1);
+    }
+
+    public String put(String key, String value) {
+        if (value == null)
+            throw new NullPointerException("passage text");
+        String oldValue = get(key);
+        overlay.put(key, value);
+        return oldValue;
+    }
+
+    public String remove(Object key) {
+        if (!(key instanceof String))
+            return null;
+        String oldValue = get(key);
+        if (oldValue != null)
+            overlay.put((String) key, null);
+        return oldValue;
+    }
+
+    public void clear() {
+        cleared = true;
+        decoded.clear();
+        overlay.clear();
+    }
+
+    public Set<Entry<String,String>> entrySet() {
+        return Collections.unmodifiableMap(toHashMap()).entrySet();
+    }
+
+    public int size() {
+        return toHashMap().size();
+    }
+
+    /** Decodes every passage, and returns a HashMap containing them all. */
+    HashMap<String,String> toHashMap() {
+        HashMap<String,String> map = new HashMap<>(count * 4 / 3 + 1 + overlay.size());
+        if (!cleared) {
+            for (int i = 0; i < count; i++) {
+                int entry = entriesOffset + i * TextBundleCompiler.ENTRY_SIZE;
+                String name = decodeString(entry + 4);
+                String text = decoded.get(name);
+                map.put(name, text != null ? text : decodeString(entry + 12));
+            }
+        }
+        for (Map.Entry<String,String> e : overlay.entrySet()) {
+            if (e.getValue() != null)
+                map.put(e.getKey(), e.getValue());
+            else
+                map.remove(e.getKey());
+        }
+        return map;
+    }
+
+    // Returns the offset of the index entry of the named passage, or -1 if the file doesn't have it.
+    private int findEntry(String name) {
+        if (count == 0)
+            return -1;
+        int hash = name.hashCode();
+        byte[] nameBytes = null;
+        int mask = tableSize - 1;
+        for (int slot = TextBundleCompiler.mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int idx = buf.getInt(tableOffset + slot * 4);
+            if (idx == 0)
+                return -1;
+            int entry = entriesOffset + (idx - 1) * TextBundleCompiler.ENTRY_SIZE;
+            if (buf.getInt(entry) != hash)
+                continue;
+            if (nameBytes == null)
+                nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytesEqual(buf.getInt(entry + 4), buf.getInt(entry + 8), nameBytes))
+                return entry;
+        }
+    }
+
+    private boolean bytesEqual(int offset, int length, byte[] bytes) {
+        if (length != bytes.length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (buf.get(offset + i) != bytes[i])
+                return false;
+        return true;
+    }
+
+    // Decodes a string whose offset and length are stored at the given position in the buffer
+    private String decodeString(int pos) {
+        int offset = buf.getInt(pos);
+        int length = buf.getInt(pos + 4);
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buf.duplicate();  // so that threads sharing a bundle don't share a position
+        b.position(offset);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -19,30 +19,68 @@ import static com.illcode.meterman.Utils.logger;
 
 public final class Meterman
 {
+    /** The version of the engine: the date of the latest entry in CHANGES.txt. It is written into saved games. */
+    public static final String VERSION = "2026-10-18";
+
     public static Path prefsPath, savesPath, assetsPath, gluePath;
     static Properties prefs;
 
-    /** The GameManager running the current game */
-    public static GameManager gm;
+    // The default system text bundle, shared by all sessions. Each session may have a game-specific
+    // bundle that shadows passages in the default system bundle to customize messages.
+    static TextBundle systemBundle;
+
+    // Stores the system-default action name translations
+    static Map<String,String> systemActionNameTranslations;
+
+    public static void main(String[] args) throws IOException {
+        if (!loadSystem(Paths.get("config/meterman.properties")))
+            return;
 
-    /** The MetermanUI displaying the current game */
-    public static MetermanUI ui;
+        MetermanSession session;
+        switch (Utils.pref("ui", "swing")) {
+        case "swing":
+            session = new MetermanSession(new SwingUI(), new TinySoundManager());
+            break;
+        default:
+            logger.severe("Invalid ui set in config!");
+            return;
+        }
+        MetermanSession.setDefault(session);
+        if (!session.init())
+            return;
 
-    /** The SoundManager operating in the current game */
-    public static SoundManager sound;
+        if (session.getUI().run())
+            shutdown();
+    }
 
-    /** Our persistence implementation */
-    public static Persistence persistence;
+    /** The GameManager running the game of the {@link MetermanSession#current() current session} */
+    public static GameManager gm() {
+        return MetermanSession.current().gm;
+    }
 
-    // The default system text bundle, and a game-specific bundle that can shadow passages
-    // in the default system bundle to customize messages.
-    static TextBundle systemBundle, gameBundle;
+    /** The MetermanUI displaying the game of the current session */
+    public static MetermanUI ui() {
+        return MetermanSession.current().ui;
+    }
 
-    // Stores the system-default action name translations
-    static Map<String,String> systemActionNameTranslations;
+    /** The SoundManager operating in the game of the current session */
+    public static SoundManager sound() {
+        return MetermanSession.current().sound;
+    }
 
-    public static void main(String[] args) throws IOException {
-        prefsPath = Paths.get("config/meterman.properties");
+    /** The persistence implementation of the current session */
+    public static Persistence persistence() {
+        return MetermanSession.current().persistence;
+    }
+
+    /**
+     * Loads preferences, initializes logging, and loads the system assets. This is the part of starting up
+     * that does not depend on the UI, and that is shared by all {@link MetermanSession sessions}.
+     * @param prefsPath path of the preferences file
+     * @return true if successful
+     */
+    public static boolean loadSystem(Path prefsPath) throws IOException {
+        Meterman.prefsPath = prefsPath;
         if (!loadPrefs(prefsPath)) {
             System.err.println("Error loading prefs from " + prefsPath.toString());
             System.exit(1);
@@ -58,7 +96,7 @@ public final class Meterman
         assetsPath = Paths.get(Utils.pref("assets-path", "assets"));
         if (Files.notExists(assetsPath)) {
             logger.severe("Assets path doesn't exist!");
-            return;
+            return false;
         }
         Utils.setAssetsPath(assetsPath);
         Utils.setSystemAssetsPath(Utils.pref("system-assets-path", "meterman"));
@@ -66,49 +104,18 @@ public final class Meterman
         gluePath = Paths.get(Utils.pref("glue-path", "glue"));
         if (Files.notExists(gluePath)) {
             logger.severe("Glue path doesn't exist!");
-            return;
+            return false;
         }
 
         systemBundle = TextBundle.loadBundle(Utils.pathForSystemAsset("system-bundle.txt"));
         if (systemBundle == null) {
             logger.severe("Invalid system bundle path in config!");
-            return;
+            return false;
         }
 
         systemActionNameTranslations = Utils.loadActionNameTranslations(
             Utils.pathForSystemAsset("system-action-translations.json"));
-        Utils.resetActionNameTranslations();
-
-        gm = new GameManager();
-        switch (Utils.pref("ui", "swing")) {
-        case "swing":
-            ui = new SwingUI();
-            sound = new TinySoundManager();
-            break;
-        default:
-            logger.severe("Invalid ui set in config!");
-            return;
-        }
-        switch (Utils.pref("persistence", "kryo")) {
-        case "kryo":
-            persistence = new KryoPersistence();
-            break;
-        default:
-            logger.severe("Invalid persistence set in config!");
-            return;
-        }
-        gm.init();
-        ui.init();
-        sound.init();
-        persistence.init();
-
-        sound.setSoundEnabled(Utils.booleanPref("sound-enabled", true));
-        sound.setMusicEnabled(Utils.booleanPref("music-enabled", true));
-        gm.setAlwaysLook(Utils.booleanPref("always-look", true));
-        gm.setUndoEnabled(Utils.booleanPref("undo-enabled", false));
-
-        if (ui.run())
-            shutdown();
+        return true;
     }
 
     private static boolean loadPrefs(Path path) {
@@ -135,10 +142,7 @@ public final class Meterman
     /** Called when the program is shutting down. */
     public static void shutdown() {
         logger.info("Meterman shutting down...");
-        persistence.dispose();
-        sound.dispose();
-        ui.dispose();
-        gm.dispose();
+        MetermanSession.getDefault().dispose();
         savePrefs(prefsPath);
         Utils.dispose();
     }
@@ -149,6 +153,8 @@ public final class Meterman
      * @return bundle with system passages
      */
     public static TextBundle getSystemBundle() {
+        MetermanSession session = MetermanSession.current();
+        TextBundle gameBundle = session != null ? session.gameBundle : null;
         if (gameBundle != null)
             return gameBundle;
         else
@@ -156,15 +162,15 @@ public final class Meterman
     }
 
     /**
-     * Installs a bundle as a game-specific bundle in front of the default system bundle, in order to
+     * Installs a bundle, for the current session, as a game-specific bundle in front of the default system bundle, in order to
      * customize game messages.
      * @param b game-specific bundle, or null to remove any such bundle. If this bundle does not have the
      * default system bundle in its parent chain, the default system bundle will be placed in its parent
      * chain.
      */
     public static void setGameBundle(TextBundle b) {
-        gameBundle = b;
-        if (gameBundle != null)
-            GameUtils.ensureBundleHasParent(gameBundle, systemBundle);
+        MetermanSession.current().gameBundle = b;
+        if (b != null)
+            GameUtils.ensureBundleHasParent(b, systemBundle);
     }
 }
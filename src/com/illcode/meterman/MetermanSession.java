@@ -0,0 +1,220 @@
+package com.illcode.meterman;
+
+import com.illcode.meterman.ui.MetermanUI;
+import com.illcode.meterman.ui.SoundManager;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * A session holds everything that belongs to one player's game: the {@link GameManager}, the
+ * {@link MetermanUI} and {@link SoundManager} it talks to, the {@link Persistence} implementation,
+ * the game-specific text bundle, action name translations, and game assets path.
+ * <p/>
+ * The static accessors of {@link Meterman} ({@link Meterman#gm()}, {@link Meterman#ui()}, etc.) return
+ * the parts of the session that is <em>current</em> for the calling thread, which is the session bound to
+ * the thread if there is one, or otherwise the default session. A desktop program has only a default
+ * session, and needs do nothing further. A program that hosts several sessions at once (ex. a play server,
+ * or parallel automated playthroughs) creates a session for each, and runs any code that touches a
+ * session's game with the session bound to its thread:
+ * <pre>{@code
+ *     MetermanSession previous = session.bind();
+ *     try {
+ *         Meterman.gm().lookCommand();
+ *     } finally {
+ *         MetermanSession.restore(previous);
+ *     }
+ * }</pre>
+ * or, more simply, {@code session.run(task)}. A session must not be used by two threads at the same time,
+ * but it may move from thread to thread between tasks, as it would on a thread pool.
+ * <p/>
+ * The preferences, system assets, and default system bundle are loaded once, by
+ * {@link Meterman#loadSystem(Path)}, and are shared, read-only, by all sessions.
+ */
+public final class MetermanSession
+{
+    private static final ThreadLocal<MetermanSession> boundSession = new ThreadLocal<>();
+    private static volatile MetermanSession defaultSession;
+
+    GameManager gm;
+    MetermanUI ui;
+    SoundManager sound;
+    Persistence persistence;
+
+    // A game-specific bundle that can shadow passages in the default system bundle
+    TextBundle gameBundle;
+
+    // System and game action name translations, and their inverse; see Utils.getActionName()
+    Map<String,String> actionNameMap;
+    Map<String,String> canonicalActionNameMap;
+
+    Path gameAssetsPath;
+    FileSystem gameZipFs;
+
+    // Incremented when light changes in the session's world; see EntityList.lightChanged()
+    final AtomicLong lightVersion = new AtomicLong(1);
+
+    /**
+     * Create a new session. {@link #init()} must be called before the session is used.
+     * @param ui the UI that will display the session's game
+     * @param sound the sound manager that will play the session's audio
+     */
+    public MetermanSession(MetermanUI ui, SoundManager sound) {
+        this.ui = ui;
+        this.sound = sound;
+        actionNameMap = new HashMap<>();
+        canonicalActionNameMap = new HashMap<>();
+    }
+
+    /**
+     * Creates the game manager and persistence implementation, initializes them along with the UI and
+     * sound manager, and applies the preferences. {@link Meterman#loadSystem(Path)} must have been called
+     * beforehand.
+     * @return true if successful
+     */
+    public boolean init() {
+        MetermanSession previous = bind();
+        try {
+            gm = new GameManager();
+            persistence = createPersistence();
+            if (persistence == null) {
+                logger.severe("Invalid persistence set in config!");
+                return false;
+            }
+            Utils.resetActionNameTranslations();
+            gm.init();
+            ui.init();
+            sound.init();
+            persistence.init();
+
+            sound.setSoundEnabled(Utils.booleanPref("sound-enabled", true));
+            sound.setMusicEnabled(Utils.booleanPref("music-enabled", true));
+            gm.setAlwaysLook(Utils.booleanPref("always-look", true));
+            gm.setUndoEnabled(Utils.booleanPref("undo-enabled", false));
+            gm.setUndoLimits(Utils.intPref("undo-max-turns", GameManager.DEFAULT_UNDO_MAX_TURNS),
+                Utils.intPref("undo-max-memory", (int) (GameManager.DEFAULT_UNDO_MAX_SIZE / 1024)) * 1024L);
+            gm.setAutosave(Utils.intPref("autosave-turns", 0), Utils.intPref("autosave-slots", 3));
+            gm.setProfiling(Utils.booleanPref("turn-profiler", false));
+            return true;
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Creates a new, uninitialized, instance of the persistence implementation set in the preferences.
+     * @return the instance, or null if the preferences name no valid implementation
+     */
+    private Persistence createPersistence() {
+        switch (Utils.pref("persistence", "kryo")) {
+        case "kryo":
+            return new KryoPersistence();
+        default:
+            return null;
+        }
+    }
+
+    /** Disposes of the session's game manager, persistence, sound manager, and UI. */
+    public void dispose() {
+        MetermanSession previous = bind();
+        try {
+            persistence.dispose();
+            sound.dispose();
+            ui.dispose();
+            gm.dispose();
+            closeGameZipFs();
+            actionNameMap.clear();
+            canonicalActionNameMap.clear();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    void closeGameZipFs() {
+        if (gameZipFs != null) {
+            try {
+                gameZipFs.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "MetermanSession.closeGameZipFs()", e);
+            }
+            gameZipFs = null;
+        }
+    }
+
+    public GameManager getGameManager() {
+        return gm;
+    }
+
+    public MetermanUI getUI() {
+        return ui;
+    }
+
+    public SoundManager getSoundManager() {
+        return sound;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    /**
+     * Binds this session to the calling thread, so that it becomes the current session of the thread.
+     * @return the session previously bound to the thread, or null if there was none; pass this to
+     *         {@link #restore(MetermanSession)} when finished.
+     */
+    public MetermanSession bind() {
+        MetermanSession previous = boundSession.get();
+        boundSession.set(this);
+        return previous;
+    }
+
+    /**
+     * Rebinds, to the calling thread, the session that was bound before a call to {@link #bind()}.
+     * @param previous the value returned by {@code bind()}; if null, the thread is left with no bound session.
+     */
+    public static void restore(MetermanSession previous) {
+        if (previous == null)
+            boundSession.remove();
+        else
+            boundSession.set(previous);
+    }
+
+    /** Runs a task on the calling thread with this session bound to it. */
+    public void run(Runnable task) {
+        MetermanSession previous = bind();
+        try {
+            task.run();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Returns the current session of the calling thread: the session bound to it, or the default session
+     * if none is bound.
+     */
+    public static MetermanSession current() {
+        MetermanSession s = boundSession.get();
+        return s != null ? s : defaultSession;
+    }
+
+    /** Returns the default session, used by threads that have no session bound. */
+    public static MetermanSession getDefault() {
+        return defaultSession;
+    }
+
+    /**
+     * Sets the default session, used by threads that have no session bound, such as the event
+     * thread of a desktop UI.
+     */
+    public static void setDefault(MetermanSession session) {
+        defaultSession = session;
+    }
+}
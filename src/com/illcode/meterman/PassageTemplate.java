@@ -0,0 +1,143 @@
+package com.illcode.meterman;
+
+import org.apache.commons.lang3.text.StrSubstitutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A TextBundle passage compiled into literal segments and variable slots, so that substituting its
+ * variables is a matter of appending strings rather than re-scanning the passage text.
+ * <p/>
+ * The syntax is that of the {@link StrSubstitutor} used by TextBundle: {@code ${name}} is replaced by
+ * the value of the variable, {@code ${name|default}} by the default if the variable is not set,
+ * {@code $${name}} is an escape for the literal text {@code ${name}}, and a variable that is not set and
+ * has no default is left in the text as is.
+ */
+final class PassageTemplate
+{
+    private static final String PREFIX = "${";
+    private static final char SUFFIX = '}';
+    private static final char ESCAPE = '$';
+    private static final char VALUE_DELIMITER = '|';
+
+    private final String source;  // the passage text, as given to compile()
+    private final String text;    // the passage text, if it has no variables
+    private final String[] literals;  // literals[i] precedes slot i; the last literal follows the last slot
+    private final Slot[] slots;
+    private final int literalLength;
+
+    private PassageTemplate(String text) {
+        source = text;
+        this.text = text;
+        literals = null;
+        slots = null;
+        literalLength = text.length();
+    }
+
+    private PassageTemplate(String source, String[] literals, Slot[] slots) {
+        this.source = source;
+        text = null;
+        this.literals = literals;
+        this.slots = slots;
+        int len = 0;
+        for (String s : literals)
+            len += s.length();
+        literalLength = len;
+    }
+
+    /** Compiles passage text into a template. */
+    static PassageTemplate compile(String s) {
+        int pos = s.indexOf(PREFIX);
+        if (pos == -1)
+            return new PassageTemplate(s);  // the fast path: no variables, nor escapes, at all
+        List<String> literals = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(s.length());
+        int start = 0;  // start of the text not yet added to a literal
+        while (pos != -1) {
+            if (pos > 0 && s.charAt(pos - 1) == ESCAPE) {
+                // an escaped prefix: drop the escape character and keep the prefix as literal text
+                literal.append(s, start, pos - 1).append(PREFIX);
+                start = pos + PREFIX.length();
+                pos = s.indexOf(PREFIX, start);
+                continue;
+            }
+            int end = s.indexOf(SUFFIX, pos + PREFIX.length());
+            if (end == -1)
+                break;  // an unterminated variable is literal text, as is the rest of the passage
+            literal.append(s, start, pos);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(new Slot(s.substring(pos, end + 1), s.startsWith(PREFIX, end + 1)));
+            start = end + 1;
+            pos = s.indexOf(PREFIX, start);
+        }
+        literal.append(s, start, s.length());
+        if (slots.isEmpty())
+            return new PassageTemplate(literal.toString());
+        literals.add(literal.toString());
+        return new PassageTemplate(s, literals.toArray(new String[literals.size()]), slots.toArray(new Slot[slots.size()]));
+    }
+
+    /** Returns true if the template has no variables, and thus {@link #render} always returns the same text. */
+    boolean isConstant() {
+        return text != null;
+    }
+
+    /**
+     * Renders the template, substituting variables.
+     * @param subMap variable values
+     * @param sub substitutor used for values that themselves contain variables
+     * @return passage text
+     */
+    String render(Map<String,String> subMap, StrSubstitutor sub) {
+        if (text != null)
+            return text;
+        StringBuilder sb = new StringBuilder(literalLength + slots.length * 16);
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            Slot slot = slots[i];
+            String value = subMap.isEmpty() ? null : subMap.get(slot.name);
+            if (value == null)
+                value = slot.defaultValue;
+            if (value == null) {
+                sb.append(slot.raw);
+                continue;
+            }
+            if (value.contains(PREFIX))
+                value = sub.replace(value);  // variables in the value are substituted in turn
+            // A value ending with the escape character escapes the variable that follows it; this is rare
+            // enough that we let the substitutor deal with it.
+            if (slot.prefixFollows && !value.isEmpty() && value.charAt(value.length() - 1) == ESCAPE)
+                return sub.replace(source);
+            sb.append(value);
+        }
+        sb.append(literals[slots.length]);
+        return sb.toString();
+    }
+
+    private static final class Slot
+    {
+        final String raw;  // the text of the variable reference, "${...}"
+        final String name;
+        final String defaultValue;
+        final boolean prefixFollows;  // true if another variable reference immediately follows this one
+
+        Slot(String raw, boolean prefixFollows) {
+            this.raw = raw;
+            this.prefixFollows = prefixFollows;
+            String expr = raw.substring(PREFIX.length(), raw.length() - 1);
+            int idx = expr.indexOf(VALUE_DELIMITER);
+            int prefixIdx = expr.indexOf(PREFIX);
+            if (idx == -1 || (prefixIdx != -1 && prefixIdx < idx)) {  // a nested "${" ends the search for a default
+                name = expr;
+                defaultValue = null;
+            } else {
+                name = expr.substring(0, idx);
+                defaultValue = expr.substring(idx + 1);
+            }
+        }
+    }
+}
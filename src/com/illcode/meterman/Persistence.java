@@ -1,11 +1,15 @@
 package com.illcode.meterman;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
  * Implementations of this interface are responsible for serializing and deserializing
  * {@link WorldState} instances to and from streams.
+ * <p/>
+ * The methods of an implementation may be called by several threads at once, each with its own world state;
+ * an autosave, for instance, is made on a thread other than the game's.
  */
 public interface Persistence
 {
@@ -16,7 +20,15 @@ public interface Persistence
     void dispose();
 
     /**
-     * Save a {@code WorldState} instance to an {@code OutputStream}.
+     * Tell the implementation the classes, other than the engine's, whose objects a game puts in its world
+     * state, so that it may serialize them more compactly. Games call this from {@link Game#init()}.
+     * @param types classes, which should be given in the same order each time the game is started
+     */
+    void registerClasses(Class<?>... types);
+
+    /**
+     * Save a {@code WorldState} instance to an {@code OutputStream}, as quickly as possible, as for undo;
+     * the data need only be loadable by {@link #loadWorldState} while the classes in the state are unchanged.
      * @param state world-state instance
      * @param out output stream
      */
@@ -35,4 +47,24 @@ public interface Persistence
      * @return deep copy
      */
     WorldState copyWorldState(WorldState ws);
+
+    /**
+     * Save a game, that is, a {@code WorldState} instance, to an {@code OutputStream}, in a format that can
+     * be loaded by {@link #loadGame} after the engine or game has been updated.
+     * <p/>
+     * This may be called on a thread other than the game's, while the game's thread leaves the state alone;
+     * if the calling thread is interrupted, the implementation should stop and throw an InterruptedIOException.
+     * @param state world-state instance
+     * @param out output stream, which is not closed
+     * @throws IOException if the state could not be written
+     */
+    void saveGame(WorldState state, OutputStream out) throws IOException;
+
+    /**
+     * Load a game saved by {@link #saveGame}.
+     * @param in input stream, which is not closed
+     * @return new world-state instance
+     * @throws IOException if the stream could not be read, or does not hold a saved game
+     */
+    WorldState loadGame(InputStream in) throws IOException;
 }
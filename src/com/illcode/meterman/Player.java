@@ -1,8 +1,5 @@
 package com.illcode.meterman;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,13 +11,13 @@ public class Player
     public Room currentRoom;
 
     /** A list of all entities in the player's inventory */
-    public List<Entity> inventory;
+    public EntityList inventory;
 
     /** A list of entities worn by the player (subset of {@link #inventory}) */
-    public List<Entity> worn;
+    public EntityList worn;
 
     /** A list of entities equipped by the player (subset of {@link #inventory}) */
-    public List<Entity> equipped;
+    public EntityList equipped;
 
     /** A modifiable Map that can be used to store arbitrary data useful for custom processing. */
     public Map<String,Object> properties;
@@ -30,9 +27,9 @@ public class Player
 
     public void init() {
         currentRoom = null;
-        inventory = new LinkedList<>();
-        worn = new LinkedList<>();
-        equipped = new LinkedList<>();
-        properties = new HashMap<>();
+        inventory = new EntityList(this);
+        worn = new EntityList(this);
+        equipped = new EntityList(this);
+        properties = new JournaledMap<>();
     }
 }
@@ -2,19 +2,25 @@ package com.illcode.meterman;
 
 public final class SystemActions
 {
+    // The canonical names of the system actions; see BasicActions
+    public static final String GO_ACTION = "Go to";
+    public static final String LOOK_ACTION = "Look";
+    public static final String WAIT_ACTION = "Wait";
+    public static final String ABOUT_ACTION = "About";
+
     public static String getGoAction() {
-        return Utils.getActionName("Go to");
+        return Utils.getActionName(GO_ACTION);
     }
 
     public static String getLookAction() {
-        return Utils.getActionName("Look");
+        return Utils.getActionName(LOOK_ACTION);
     }
 
     public static String getWaitAction() {
-        return Utils.getActionName("Wait");
+        return Utils.getActionName(WAIT_ACTION);
     }
 
     public static String getAboutAction() {
-        return Utils.getActionName("About");
+        return Utils.getActionName(ABOUT_ACTION);
     }
 }
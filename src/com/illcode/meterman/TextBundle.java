@@ -11,6 +11,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
@@ -58,6 +61,12 @@ public final class TextBundle
     /** @see #getPassageFlowed(String)  */
     private static Pattern flowPattern;
 
+    /** Marks, in the compiled passages, a passage that doesn't exist. */
+    private static final PassageTemplate NO_PASSAGE = PassageTemplate.compile("");
+
+    /** Source of bundle versions; see {@link #modified()}. */
+    private static final AtomicLong versionCounter = new AtomicLong();
+
     private Map<String, String> passageMap;
 
     private StrSubstitutor sub;
@@ -65,6 +74,14 @@ public final class TextBundle
 
     private TextBundle parent;
 
+    // Bumped, from versionCounter, whenever our passages or parent change. Since every bump is larger than
+    // any version before it, the greatest version in a parent chain changes whenever any bundle in it does.
+    private volatile long version;
+
+    // The compiled passages of our whole parent chain, with those of children shadowing those of parents,
+    // filled in as passages are requested, and replaced when it is out of date.
+    private volatile CompiledPassages compiledPassages;
+
     public TextBundle() {
         this(null);
     }
@@ -79,6 +96,7 @@ public final class TextBundle
         subMap = new HashMap<>();
         sub = new StrSubstitutor(subMap);
         sub.setValueDelimiter('|');
+        modified();
     }
 
     // Primarily to be used for persistence
@@ -88,6 +106,7 @@ public final class TextBundle
         this.subMap = subMap;
         sub = new StrSubstitutor(subMap);
         sub.setValueDelimiter('|');
+        modified();
     }
 
     public TextBundle getParent() {
@@ -96,6 +115,7 @@ public final class TextBundle
 
     public void setParent(TextBundle parent) {
         this.parent = parent;
+        modified();
     }
 
     /**
@@ -142,33 +162,75 @@ public final class TextBundle
     /** Returns true if this bundle, or any bundle up its parent chain, contains a passage
      *  with the given name. */
     public boolean hasPassage(String name) {
-        if (passageMap.containsKey(name))
-            return true;
-        else if (parent != null)
-            return parent.hasPassage(name);
-        else
-            return false;
+        return getTemplate(name) != null;
     }
 
     /**
      * Returns a passage with newlines intact.
+     * <p/>
+     * A passage found in a parent bundle has its variables substituted from this bundle.
      * @param name passage heading name
      * @return passage text or "" if the passage doesn't exist
      */
     public String getPassage(String name) {
-        return getPassage(name, sub);
-    }
-
-    // When we chain a getPassage() call from a child to parent bundle, we
-    // want the parent to use the StrSubstitutor of the child.
-    private String getPassage(String name, StrSubstitutor strSub) {
-        String s = passageMap.get(name);
-        if (s != null)
-            return strSub.replace(s);
-        else if (parent != null)
-            return parent.getPassage(name, strSub);
-        else
+        PassageTemplate t = getTemplate(name);
+        if (t == null)
+            return "";
+        return t.render(subMap, sub);
+    }
+
+    /**
+     * Returns a passage with newlines intact, substituting variables from a given map ahead of those of
+     * this bundle. The bundle's own substitutions are left untouched, so that a bundle shared between
+     * sessions, like the system bundle, can be used with per-call values.
+     * @param name passage heading name
+     * @param subs variable values for this passage alone
+     * @return passage text or "" if the passage doesn't exist
+     */
+    public String getPassage(String name, Map<String,String> subs) {
+        PassageTemplate t = getTemplate(name);
+        if (t == null)
             return "";
+        if (t.isConstant() || subs.isEmpty())
+            return t.render(subMap, sub);
+        Map<String,String> m = new HashMap<>(subMap);
+        m.putAll(subs);
+        StrSubstitutor s = new StrSubstitutor(m);
+        s.setValueDelimiter('|');
+        return t.render(m, s);
+    }
+
+    // Called whenever our passages or parent change, to invalidate the compiled passages.
+    private void modified() {
+        version = versionCounter.incrementAndGet();
+    }
+
+    // The greatest version in our parent chain
+    private long chainVersion() {
+        long v = version;
+        for (TextBundle b = parent; b != null; b = b.parent)
+            v = Math.max(v, b.version);
+        return v;
+    }
+
+    // Returns the compiled passage with the given name from our parent chain, or null if there is none.
+    // Passages are compiled only when first requested, so that a bundle whose passages are themselves
+    // loaded lazily (see MappedPassageMap) decodes only what is used.
+    private PassageTemplate getTemplate(String name) {
+        long v = chainVersion();
+        CompiledPassages cp = compiledPassages;
+        if (cp == null || cp.version != v)
+            compiledPassages = cp = new CompiledPassages(v);
+        PassageTemplate t = cp.templates.get(name);
+        if (t == null) {
+            String s = passageMap.get(name);
+            if (s != null)
+                t = PassageTemplate.compile(s);
+            else if (parent != null)
+                t = parent.getTemplate(name);  // the parent's compiled passages are shared by its children
+            cp.templates.put(name, t != null ? t : NO_PASSAGE);
+        }
+        return t != NO_PASSAGE ? t : null;
     }
 
     /**
@@ -240,10 +302,10 @@ public final class TextBundle
     }
 
     /**
-     * Returns a set of the names of the passages contained in this text bundle.
+     * Returns an unmodifiable set of the names of the passages contained in this text bundle.
      */
     public Set<String> getPassageNames() {
-        return passageMap.keySet();
+        return Collections.unmodifiableSet(passageMap.keySet());
     }
 
     /**
@@ -264,6 +326,7 @@ public final class TextBundle
      */
     public void putPassage(String name, String text) {
         passageMap.put(name, text);
+        modified();
     }
     
     /**
@@ -272,6 +335,7 @@ public final class TextBundle
      */
     public void putAllPassages(Map<String,String> passages) {
         passageMap.putAll(passages);
+        modified();
     }
     
     /**
@@ -279,16 +343,20 @@ public final class TextBundle
      */
     public void clearPassages() {
         passageMap.clear();
+        modified();
     }
 
     // Primarily to be used for persistence
     Map<String,String> getPassageMap() {
+        if (passageMap instanceof MappedPassageMap)  // persist the passages, not the mapped file
+            return ((MappedPassageMap) passageMap).toHashMap();
         return passageMap;
     }
 
     // Primarily to be used for persistence
     void setPassageMap(Map<String,String> passageMap) {
         this.passageMap = passageMap;
+        modified();
     }
 
     // Primarily to be used for persistence
@@ -309,11 +377,34 @@ public final class TextBundle
     /**
      * Load a TextBundle from a given Path. The format of text bundles is given in
      * the {@link TextBundle class notes}.
+     * <p/>
+     * If {@code p} is a compiled bundle (see {@link TextBundleCompiler}), or there is a compiled bundle of
+     * the same name beside it that is not older than it (or {@code p} doesn't exist), the compiled bundle
+     * is loaded instead, and its passages are decoded only as they are requested.
      * @param p path of bundle file
      * @param parent the parent bundle of the loaded TextBundle
      * @return a new TextBundle containing passages from the file
      */
     public static TextBundle loadBundle(Path p, TextBundle parent) {
+        Path compiled = p.getFileName().toString().endsWith(TextBundleCompiler.EXTENSION) ?
+            p : TextBundleCompiler.compiledPath(p);
+        try {
+            if (compiled == p || (Files.exists(compiled) && (Files.notExists(p) ||
+                    Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(p)) >= 0))) {
+                TextBundle b = new TextBundle(parent);
+                b.setPassageMap(MappedPassageMap.open(compiled));
+                return b;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "loadBundle()", e);
+            if (compiled == p)
+                return new TextBundle(parent);
+        }
+        return loadTextBundle(p, parent);
+    }
+
+    // Loads a bundle in the text format, as described in the class notes.
+    static TextBundle loadTextBundle(Path p, TextBundle parent) {
         ArrayList<String> passageLines = new ArrayList<>(100);
         String name = null;  // name of the current passage
 
@@ -341,6 +432,7 @@ public final class TextBundle
             }
             if (name != null)   // save the last passage, if any
                 savePassage(b.passageMap, name, gatherPassage(passageLines));
+            b.modified();
         } catch (IOException e) {
             logger.log(Level.WARNING, "loadBundle()", e);
         }
@@ -392,6 +484,18 @@ public final class TextBundle
         return b.toString();
     }
 
+    /** Compiled passages, and the chain version from which they were compiled. */
+    private static final class CompiledPassages
+    {
+        final long version;
+        final ConcurrentMap<String,PassageTemplate> templates;
+
+        CompiledPassages(long version) {
+            this.version = version;
+            templates = new ConcurrentHashMap<>();
+        }
+    }
+
     /**
      * Returns the passage name indicated by {@code line}, if {@code line} is a
      * passage heading string (i.e. {@code "[<name>]"}), or {@code null} otherwise.
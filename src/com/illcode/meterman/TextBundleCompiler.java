@@ -0,0 +1,153 @@
+package com.illcode.meterman;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles text bundles into a binary format that can be loaded without parsing, and whose
+ * passages are decoded only when requested.
+ * <p/>
+ * A compiled bundle (by convention with an extension of ".mtb") holds the passages of a text bundle
+ * exactly as {@link TextBundle#loadBundle(Path)} would produce them, that is, with passages whose names
+ * end in "(flowed)" already flowed. {@code loadBundle()} loads a compiled bundle given its path, and
+ * also, when given the path of a text bundle, loads the compiled bundle of the same name beside it instead,
+ * if there is one that is not older than the text bundle, or the text bundle doesn't exist.
+ * <p/>
+ * The format, with all integers big-endian, is:
+ * <pre>
+ *     int magic ("MTB1"), int format version, int passage count, int hash table size (a power of two)
+ *     int[table size]  hash table: 1 + index of a passage entry, or 0 for an empty slot
+ *     passage entries: int name hash ({@link String#hashCode()}), int name offset, int name length,
+ *                      int text offset, int text length
+ *     the UTF-8 bytes of names and text, at the offsets (from the start of the file) given above
+ * </pre>
+ * The hash table uses linear probing starting from the slot given by {@link #mix(int)}.
+ * <p/>
+ * Usage: {@code TextBundleCompiler [-d <output dir>] <bundle>...}
+ * <br/>
+ * Each bundle is written beside its source, or to the output directory, with its extension replaced by ".mtb".
+ */
+public final class TextBundleCompiler
+{
+    static final int MAGIC = 0x4D544231;  // "MTB1"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 20;
+
+    /** The extension of compiled bundles. */
+    public static final String EXTENSION = ".mtb";
+
+    public static void main(String[] args) throws IOException {
+        Path outputDir = null;
+        List<Path> bundles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d"))
+                outputDir = Paths.get(args[++i]);
+            else
+                bundles.add(Paths.get(args[i]));
+        }
+        if (bundles.isEmpty()) {
+            System.err.println("Usage: TextBundleCompiler [-d <output dir>] <bundle>...");
+            System.exit(2);
+        }
+        for (Path p : bundles) {
+            Path out = compiledPath(p);
+            if (outputDir != null)
+                out = outputDir.resolve(out.getFileName());
+            TextBundle b = TextBundle.loadTextBundle(p, null);
+            int size = compile(b.getPassageMap(), out);
+            System.out.println(Utils.fmt("%s: %d passages, %d bytes", out, b.getPassageMap().size(), size));
+        }
+    }
+
+    /**
+     * Returns the path that the compiled version of a bundle would have: the path with its extension,
+     * if any, replaced by {@link #EXTENSION}.
+     */
+    public static Path compiledPath(Path p) {
+        String filename = p.getFileName().toString();
+        int idx = filename.lastIndexOf('.');
+        if (idx > 0)
+            filename = filename.substring(0, idx);
+        return p.resolveSibling(filename + EXTENSION);
+    }
+
+    /**
+     * Writes passages in the compiled format. The bundle is written to a temporary file beside {@code out},
+     * which then replaces {@code out} in one step, so that a running program that has the old bundle
+     * memory-mapped (see {@link TextBundle#loadBundle(Path)}) goes on reading it undisturbed.
+     * @param passages passages to compile
+     * @param out path of the compiled bundle to write
+     * @return the number of bytes written
+     */
+    public static int compile(Map<String,String> passages, Path out) throws IOException {
+        int count = passages.size();
+        int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;  // at most half full
+        int[] table = new int[tableSize];
+        int[] hashes = new int[count];
+        byte[][] names = new byte[count][];
+        byte[][] texts = new byte[count][];
+        int i = 0;
+        for (Map.Entry<String,String> e : passages.entrySet()) {
+            hashes[i] = e.getKey().hashCode();
+            names[i] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            texts[i] = e.getValue().getBytes(StandardCharsets.UTF_8);
+            int slot = mix(hashes[i]) & (tableSize - 1);
+            while (table[slot] != 0)
+                slot = (slot + 1) & (tableSize - 1);
+            table[slot] = i + 1;
+            i++;
+        }
+
+        int offset = HEADER_SIZE + tableSize * 4 + count * ENTRY_SIZE;
+        Path tmp = Files.createTempFile(out.toAbsolutePath().getParent(), out.getFileName().toString(), ".tmp");
+        int size;
+        try (DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            dout.writeInt(MAGIC);
+            dout.writeInt(FORMAT_VERSION);
+            dout.writeInt(count);
+            dout.writeInt(tableSize);
+            for (int idx : table)
+                dout.writeInt(idx);
+            for (i = 0; i < count; i++) {
+                dout.writeInt(hashes[i]);
+                dout.writeInt(offset);
+                dout.writeInt(names[i].length);
+                offset += names[i].length;
+                dout.writeInt(offset);
+                dout.writeInt(texts[i].length);
+                offset += texts[i].length;
+            }
+            for (i = 0; i < count; i++) {
+                dout.write(names[i]);
+                dout.write(texts[i]);
+            }
+            size = dout.size();
+        } catch (IOException|RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        try {
+            Files.move(tmp, out, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        return size;
+    }
+
+    /** Spreads the bits of a hash code, so that hash codes differing only in their high bits
+     *  land in different slots of a small table. */
+    static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,324 @@
+package com.illcode.meterman;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * Times the phases of each turn processed by a {@link GameManager}, and the listeners called in each, so that
+ * a game author can see what makes a turn slow. Enabled by {@link GameManager#setProfiling(boolean)}.
+ * <p/>
+ * Each phase has a histogram of the time spent in it per turn, and each listener (or, for
+ * {@link Phase#PROCESS_ACTION}, entity) class called in a phase has a histogram of the time each call
+ * took. Times are kept in logarithmic buckets, four to a power of two, so that percentiles are good to
+ * within about 10%. The statistics are available through {@link #getReport()}, and through JMX as a
+ * {@link TurnProfilerMXBean} named {@code com.illcode.meterman:type=TurnProfiler,session=<n>}.
+ * <p/>
+ * Timing is done on the game thread; the statistics may be read from any thread.
+ */
+public final class TurnProfiler implements TurnProfilerMXBean
+{
+    /** The phases of a turn. */
+    public enum Phase
+    {
+        /** Making the undo checkpoint. */
+        CHECKPOINT("checkpoint"),
+        /** Calling the ParserMessageProcessors. */
+        PARSER_MESSAGE("parser message"),
+        /** Calling the GameActionListeners, before and after the entity processes an action. */
+        GAME_ACTION("game action"),
+        /** The entity processing an action. */
+        PROCESS_ACTION("process action"),
+        /** Calling the GameActionListeners once an action has been processed. */
+        POST_ACTION("post action"),
+        /** Calling the PlayerMovementListeners. */
+        PLAYER_MOVEMENT("player movement"),
+        /** Calling the TurnListeners. */
+        TURN("turn listeners"),
+        /** Refreshing the room, inventory, and entity parts of the UI. */
+        UI_REFRESH("UI refresh");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final AtomicInteger sessionCounter = new AtomicInteger();
+
+    private final Histogram turns;
+    private final Histogram[] phases;
+    private final List<Map<Class<?>,Histogram>> calls;  // by phase, then by listener class
+    private final long[] turnNanos;  // the time spent in each phase this turn
+
+    private long turnStart;   // when the turn in progress started, or 0 if there is none
+    private ObjectName objectName;  // if registered with the platform MBean server
+
+    public TurnProfiler() {
+        int n = Phase.values().length;
+        turns = new Histogram();
+        phases = new Histogram[n];
+        calls = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            phases[i] = new Histogram();
+            calls.add(new HashMap<Class<?>,Histogram>());
+        }
+        turnNanos = new long[n];
+    }
+
+    /** Called at the start of a turn. */
+    public synchronized void turnStarted() {
+        turnStart = System.nanoTime();
+        Arrays.fill(turnNanos, -1L);
+    }
+
+    /** Called at the end of a turn, to record the time it, and each phase in it, took. */
+    public synchronized void turnEnded() {
+        if (turnStart == 0)
+            return;
+        turns.record(System.nanoTime() - turnStart);
+        for (int i = 0; i < turnNanos.length; i++)
+            if (turnNanos[i] >= 0)
+                phases[i].record(turnNanos[i]);
+        turnStart = 0;
+    }
+
+    /**
+     * Records the time taken by a call made in a phase.
+     * @param phase the phase
+     * @param callee the listener or entity called, or null if the phase doesn't call one
+     * @param startNanos the value of {@link System#nanoTime()} when the call was made
+     */
+    public synchronized void record(Phase phase, Object callee, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        int i = phase.ordinal();
+        if (turnStart != 0)
+            turnNanos[i] = Math.max(turnNanos[i], 0L) + nanos;
+        if (callee != null) {
+            Map<Class<?>,Histogram> m = calls.get(i);
+            Histogram h = m.get(callee.getClass());
+            if (h == null) {
+                h = new Histogram();
+                m.put(callee.getClass(), h);
+            }
+            h.record(nanos);
+        }
+    }
+
+    public synchronized long getTurns() {
+        return turns.count;
+    }
+
+    public synchronized double getMeanTurnMillis() {
+        return turns.mean() / 1e6;
+    }
+
+    public synchronized double getP99TurnMillis() {
+        return turns.percentile(0.99) / 1e6;
+    }
+
+    public synchronized double getMaxTurnMillis() {
+        return turns.max / 1e6;
+    }
+
+    public synchronized TimerStats[] getTimers() {
+        List<TimerStats> l = new ArrayList<>();
+        l.add(new TimerStats("turn", null, turns));
+        Phase[] values = Phase.values();
+        for (int i = 0; i < values.length; i++) {
+            if (phases[i].count == 0)
+                continue;
+            l.add(new TimerStats(values[i].toString(), null, phases[i]));
+            List<TimerStats> callStats = new ArrayList<>();
+            for (Map.Entry<Class<?>,Histogram> entry : calls.get(i).entrySet())
+                callStats.add(new TimerStats(values[i].toString(), entry.getKey().getName(), entry.getValue()));
+            Collections.sort(callStats, TimerStats.BY_TOTAL_TIME);
+            l.addAll(callStats);
+        }
+        return l.toArray(new TimerStats[l.size()]);
+    }
+
+    public String getReport() {
+        TimerStats[] timers = getTimers();
+        StringBuilder sb = new StringBuilder(2048);
+        Formatter f = new Formatter(sb, Locale.ROOT);
+        f.format("%-44s %7s %9s %9s %9s %9s %10s%n", "phase / listener (ms)", "calls", "mean", "p50", "p99", "max", "total");
+        for (TimerStats t : timers) {
+            String name = t.getListener() == null ? t.getPhase() : "  " + abbreviate(t.getListener(), 42);
+            f.format("%-44s %7d %9.3f %9.3f %9.3f %9.3f %10.1f%n", name, t.getCount(), t.getMeanMillis(),
+                     t.getP50Millis(), t.getP99Millis(), t.getMaxMillis(), t.getTotalMillis());
+        }
+        return sb.toString();
+    }
+
+    // Shortens a class name from the left to fit in a column
+    private static String abbreviate(String s, int width) {
+        return s.length() <= width ? s : "..." + s.substring(s.length() - width + 3);
+    }
+
+    public synchronized void reset() {
+        turns.clear();
+        for (int i = 0; i < phases.length; i++) {
+            phases[i].clear();
+            calls.get(i).clear();
+        }
+        turnStart = 0;
+    }
+
+    /** Registers the profiler with the platform MBean server, if it isn't already registered. */
+    synchronized void register() {
+        if (objectName != null)
+            return;
+        try {
+            ObjectName name = new ObjectName("com.illcode.meterman:type=TurnProfiler,session=" +
+                                             sessionCounter.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException|SecurityException ex) {
+            logger.log(Level.WARNING, "TurnProfiler.register()", ex);
+        }
+    }
+
+    /** Unregisters the profiler from the platform MBean server, if it was registered. */
+    synchronized void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException|SecurityException ex) {
+            logger.log(Level.WARNING, "TurnProfiler.unregister()", ex);
+        }
+        objectName = null;
+    }
+
+    /** The statistics of a phase, or of a listener called in it, as shown by JMX clients. */
+    public static final class TimerStats
+    {
+        static final Comparator<TimerStats> BY_TOTAL_TIME = new Comparator<TimerStats>() {
+            public int compare(TimerStats t1, TimerStats t2) {
+                return Double.compare(t2.totalMillis, t1.totalMillis);
+            }
+        };
+
+        private final String phase, listener;
+        private final long count;
+        private final double meanMillis, p50Millis, p99Millis, maxMillis, totalMillis;
+
+        TimerStats(String phase, String listener, Histogram h) {
+            this.phase = phase;
+            this.listener = listener;
+            count = h.count;
+            meanMillis = h.mean() / 1e6;
+            p50Millis = h.percentile(0.5) / 1e6;
+            p99Millis = h.percentile(0.99) / 1e6;
+            maxMillis = h.max / 1e6;
+            totalMillis = h.sum / 1e6;
+        }
+
+        /** Returns the phase, or "turn" for the statistics of whole turns. */
+        public String getPhase() {
+            return phase;
+        }
+
+        /** Returns the class name of the listener called, or null for the statistics of the phase itself. */
+        public String getListener() {
+            return listener;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+    }
+
+    /** A histogram of times, in nanoseconds, with four buckets to each power of two. */
+    static final class Histogram
+    {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] buckets = new long[64 * SUB_BUCKETS];
+        long count, sum, max;
+
+        void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            buckets[bucket(nanos)]++;
+            count++;
+            sum += nanos;
+            if (nanos > max)
+                max = nanos;
+        }
+
+        void clear() {
+            Arrays.fill(buckets, 0L);
+            count = sum = max = 0;
+        }
+
+        double mean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        /** Returns the midpoint of the bucket holding the given fraction of the recorded times. */
+        double percentile(double fraction) {
+            if (count == 0)
+                return 0.0;
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(rank, 1))
+                    return Math.min((lowerBound(i) + lowerBound(i + 1)) / 2.0, max);
+            }
+            return max;
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS)
+                return (int) nanos;
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static double lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int sub = bucket % SUB_BUCKETS;
+            return Math.scalb((double) (SUB_BUCKETS + sub), exp - SUB_BUCKET_BITS);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.illcode.meterman;
+
+/**
+ * The management interface of a {@link TurnProfiler}, through which JMX clients such as JConsole
+ * can watch the time taken by turns, and by the listeners called in them.
+ */
+public interface TurnProfilerMXBean
+{
+    /** Returns the number of turns profiled. */
+    long getTurns();
+
+    double getMeanTurnMillis();
+
+    double getP99TurnMillis();
+
+    double getMaxTurnMillis();
+
+    /**
+     * Returns the statistics of whole turns, followed by those of each phase, each followed by
+     * those of the listeners called in it, slowest first.
+     */
+    TurnProfiler.TimerStats[] getTimers();
+
+    /** Returns the statistics as a table, as shown in the debug overlay. */
+    String getReport();
+
+    /** Discards the statistics gathered so far. */
+    void reset();
+}
@@ -0,0 +1,89 @@
+package com.illcode.meterman;
+
+/**
+ * A bounded stack of undo (or redo) entries kept in a ring buffer.
+ * <p/>
+ * Each entry is pushed along with its size in bytes. When pushing an entry would exceed either the maximum
+ * number of entries or the memory budget, the oldest entries are evicted to make room, though the newest
+ * entry is always kept, even if it alone exceeds the budget.
+ */
+final class UndoHistory<E>
+{
+    private Object[] entries;
+    private long[] sizes;
+    private int top;  // the slot after the newest entry
+    private int count;
+    private long totalSize;
+    private long maxSize;
+
+    /**
+     * Create a new history.
+     * @param maxEntries the maximum number of entries to keep
+     * @param maxSize the memory budget, in bytes
+     */
+    UndoHistory(int maxEntries, long maxSize) {
+        entries = new Object[Math.max(maxEntries, 0)];
+        sizes = new long[entries.length];
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Push an entry onto the history, evicting the oldest entries if necessary.
+     * @param entry entry to push
+     * @param size the size of the entry, in bytes
+     */
+    void push(E entry, long size) {
+        if (entries.length == 0)
+            return;
+        while (count > 0 && (count == entries.length || totalSize + size > maxSize))
+            evictOldest();
+        entries[top] = entry;
+        sizes[top] = size;
+        top = (top + 1) % entries.length;
+        count++;
+        totalSize += size;
+    }
+
+    /** Remove and return the newest entry, or null if the history is empty. */
+    @SuppressWarnings("unchecked")
+    E pop() {
+        if (count == 0)
+            return null;
+        top = (top - 1 + entries.length) % entries.length;
+        E entry = (E) entries[top];
+        entries[top] = null;
+        totalSize -= sizes[top];
+        count--;
+        return entry;
+    }
+
+    /** Returns the newest entry, without removing it, or null if the history is empty. */
+    @SuppressWarnings("unchecked")
+    E peek() {
+        if (count == 0)
+            return null;
+        return (E) entries[(top - 1 + entries.length) % entries.length];
+    }
+
+    void clear() {
+        while (count > 0)
+            pop();
+    }
+
+    /** Returns the number of entries in the history. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the total size, in bytes, of the entries in the history. */
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    private void evictOldest() {
+        int idx = (top - count + entries.length) % entries.length;
+        entries[idx] = null;
+        totalSize -= sizes[idx];
+        count--;
+    }
+}
@@ -17,19 +17,14 @@ public final class Utils
 {
     public static Logger logger;
     private static Random random;
-    private static Path assetsPath, systemAssetsPath, gameAssetsPath;
-    private static FileSystem systemZipFs, gameZipFs;
-
-    private static Map<String,String> actionNameMap;
+    private static Path assetsPath, systemAssetsPath;
+    private static FileSystem systemZipFs;
 
     public static void init() {
-        actionNameMap = new HashMap<>();
     }
 
     public static void dispose() {
         closeSystemZipFs();
-        closeGameZipFs();
-        actionNameMap = null;
     }
 
     public static void closeSystemZipFs() {
@@ -43,15 +38,9 @@ public final class Utils
         }
     }
 
+    /** Closes the ZIP file, if any, holding the game assets of the current session. */
     public static void closeGameZipFs() {
-        if (gameZipFs != null) {
-            try {
-                gameZipFs.close();
-            } catch (IOException e) {
-                logger.log(Level.WARNING, "Utils.closeGameZipFs()", e);
-            }
-            gameZipFs = null;
-        }
+        MetermanSession.current().closeGameZipFs();
     }
 
     /**
@@ -78,10 +67,23 @@ public final class Utils
      * @return version of {@code name} to be shown to the user.
      */
     public static String getActionName(String name) {
-        String val = actionNameMap.get(name);
+        String val = MetermanSession.current().actionNameMap.get(name);
         return val != null ? val : name;
     }
 
+    /**
+     * Returns the canonical name of an action, given the version shown to the user; the inverse of
+     * {@link #getActionName(String)}. Code that handles several actions can thus translate an action once,
+     * and switch on its canonical name, rather than compare it with the translation of each action in turn.
+     * @param action action name, as shown to the user
+     * @return canonical action name, or {@code action} itself if it is not a translation (or the empty string
+     *          if {@code action} is a canonical name that is shown to the user as something else)
+     */
+    public static String getCanonicalActionName(String action) {
+        String val = MetermanSession.current().canonicalActionNameMap.get(action);
+        return val != null ? val : action;
+    }
+
     /**
      * Installs action name translations from a JSON file. The JSON data should be an object,
      * whose names are the canonical action names ("Look", etc.) and the values the translated
@@ -101,7 +103,22 @@ public final class Utils
     /** Installs action name translations from a Map.
      *  @see #installActionNameTranslations(Path) */
     public static void installActionNameTranslations(Map<String,String> m) {
-        actionNameMap.putAll(m);
+        MetermanSession session = MetermanSession.current();
+        session.actionNameMap.putAll(m);
+        updateCanonicalActionNames(session);
+    }
+
+    // Rebuilds the inverse of a session's action name translations
+    private static void updateCanonicalActionNames(MetermanSession session) {
+        Map<String,String> m = session.canonicalActionNameMap;
+        m.clear();
+        for (Map.Entry<String,String> entry : session.actionNameMap.entrySet())
+            m.put(entry.getValue(), entry.getKey());
+        // a name translated to something else no longer names its action, as when actions were compared
+        // with their translations one by one
+        for (String name : session.actionNameMap.keySet())
+            if (!m.containsKey(name))
+                m.put(name, "");
     }
 
     /**
@@ -136,7 +153,9 @@ public final class Utils
      * Remove any game-specific action name translations, and retain only the system translations.
      */
     public static void resetActionNameTranslations() {
-        actionNameMap.clear();
+        MetermanSession session = MetermanSession.current();
+        session.actionNameMap.clear();
+        session.canonicalActionNameMap.clear();
         installActionNameTranslations(Meterman.systemActionNameTranslations);
     }
 
@@ -168,23 +187,24 @@ public final class Utils
         }
     }
 
-    /** Sets the game assets path. This can be a directory or a ZIP file.
+    /** Sets the game assets path of the current session. This can be a directory or a ZIP file.
      * @param path path, relative to {@link #setAssetsPath(Path) assetsPath} */
     public static void setGameAssetsPath(String path) {
-        closeGameZipFs();
+        MetermanSession session = MetermanSession.current();
+        session.closeGameZipFs();
         if (path != null) {
-            gameAssetsPath = assetsPath.resolve(path);
+            session.gameAssetsPath = assetsPath.resolve(path);
             if (StringUtils.endsWithIgnoreCase(path, ".zip")) {
                 try {
-                    gameZipFs = FileSystems.newFileSystem(gameAssetsPath, null);
-                    gameAssetsPath = gameZipFs.getPath("/");
+                    session.gameZipFs = FileSystems.newFileSystem(session.gameAssetsPath, null);
+                    session.gameAssetsPath = session.gameZipFs.getPath("/");
                 } catch (IOException e) {
                     logger.log(Level.WARNING, "Utils.setGameAssetsPath()", e);
-                    gameAssetsPath = null;
+                    session.gameAssetsPath = null;
                 }
             }
         } else {
-            gameAssetsPath = null;
+            session.gameAssetsPath = null;
         }
     }
 
@@ -194,7 +214,7 @@ public final class Utils
      * @return the resolved path
      */
     public static Path pathForGameAsset(String asset) {
-        return gameAssetsPath.resolve(asset);
+        return MetermanSession.current().gameAssetsPath.resolve(asset);
     }
 
     /**
@@ -1,7 +1,6 @@
 package com.illcode.meterman;
 
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -34,7 +33,7 @@ public class WorldState
         this.gameName = gameName;
         player = new Player();
         player.init();
-        worldData = new HashMap<>();
+        worldData = new JournaledMap<>();
         numTurns = 0;
     }
 }
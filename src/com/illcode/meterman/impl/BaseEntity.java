@@ -1,6 +1,10 @@
 package com.illcode.meterman.impl;
 
+import com.illcode.meterman.Attributes;
+import com.illcode.meterman.ChangeJournal;
 import com.illcode.meterman.Entity;
+import com.illcode.meterman.EntityList;
+import com.illcode.meterman.JournaledMap;
 import com.illcode.meterman.Meterman;
 import com.illcode.meterman.Room;
 import com.illcode.meterman.ui.MetermanUI;
@@ -43,7 +47,7 @@ public class BaseEntity implements Entity
         listName = null;
         description = "(description)";
         attributes = new BitSet(64);
-        properties = new HashMap<>();
+        properties = new JournaledMap<>();
         imageName = UIConstants.NO_IMAGE;
     }
 
@@ -52,19 +56,30 @@ public class BaseEntity implements Entity
     }
 
     public void clearAttribute(int attribute) {
-        attributes.clear(attribute);
+        changeAttribute(attribute, false);
     }
 
     public void setAttribute(int attribute) {
-        attributes.set(attribute);
+        changeAttribute(attribute, true);
     }
 
     public void setAttribute(int attribute, boolean val) {
-        attributes.set(attribute, val);
+        changeAttribute(attribute, val);
     }
 
     public void clearAllAttributes() {
-        attributes.clear();
+        boolean light = attributes.get(Attributes.LIGHTSOURCE);
+        ChangeJournal.clearAttributes(attributes);
+        if (light)
+            EntityList.lightChanged();
+    }
+
+    // Sets an attribute, letting entity lists know if we have become, or ceased to be, a light source
+    private void changeAttribute(int attribute, boolean val) {
+        boolean light = attribute == Attributes.LIGHTSOURCE && attributes.get(attribute) != val;
+        ChangeJournal.setAttribute(attributes, attribute, val);
+        if (light)
+            EntityList.lightChanged();
     }
 
     public String getName() {
@@ -121,7 +136,7 @@ public class BaseEntity implements Entity
     // For subclasses and delegates
     protected boolean selectedImpl() {
         if (imageName != null)
-            Meterman.ui.setEntityImage(imageName);
+            Meterman.ui().setEntityImage(imageName);
         return false;
     }
 
@@ -130,6 +145,11 @@ public class BaseEntity implements Entity
     }
 
     public void setRoom(Room room) {
+        if (room == this.room)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new RoomChange(this.room));
         this.room = room;
     }
 
@@ -163,10 +183,39 @@ public class BaseEntity implements Entity
      * @param delegate delegate to set, or null to remove proxying
      */
     public void setDelegate(EntityDelegate delegate) {
+        if (delegate == this.delegate)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Swap() {
+                private EntityDelegate otherDelegate = BaseEntity.this.delegate;
+
+                protected void swap() {
+                    EntityDelegate d = BaseEntity.this.delegate;
+                    BaseEntity.this.delegate = otherDelegate;
+                    otherDelegate = d;
+                }
+            });
         this.delegate = delegate;
     }
 
     public String toString() {
         return getListName();
     }
+
+    /** Journals a change of {@link #room}. */
+    private final class RoomChange extends ChangeJournal.Swap
+    {
+        private Room otherRoom;
+
+        RoomChange(Room otherRoom) {
+            this.otherRoom = otherRoom;
+        }
+
+        protected void swap() {
+            Room r = room;
+            room = otherRoom;
+            otherRoom = r;
+        }
+    }
 }
@@ -1,17 +1,25 @@
 package com.illcode.meterman.impl;
 
+import com.illcode.meterman.ChangeJournal;
 import com.illcode.meterman.Entity;
+import com.illcode.meterman.EntityHolder;
+import com.illcode.meterman.EntityList;
+import com.illcode.meterman.JournaledMap;
 import com.illcode.meterman.Room;
 import com.illcode.meterman.ui.UIConstants;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A Room implementation that supports various standard features, and can
  * be used as a starting point for more game-specific implementations.
  */
-public class BaseRoom implements Room
+public class BaseRoom implements Room, EntityHolder
 {
+    /** Source of exit versions; see {@link #exitsChanged()}. */
+    private static final AtomicLong exitVersionCounter = new AtomicLong();
+
     /**
      * An ID for this particular room, which can be used to uniquely identify it.
      */
@@ -21,13 +29,27 @@ public class BaseRoom implements Room
     public String exitName;
     public String description;
     public BitSet attributes;
+
+    /**
+     * The exits of the room; code that changes them after the world is loaded should call {@link #exitsChanged()}.
+     * In a world that is {@link WorldBuilder#setLazyLoading(boolean) loaded lazily}, an exit to a room not yet
+     * loaded is null here until {@link #getExit(int)} is called for it.
+     */
     public Room[] exits;
     public String[] exitLabels;
-    public LinkedList<Entity> entities;
+    public EntityList entities;
     public HashMap<String,Object> properties;
 
     protected RoomDelegate delegate;
 
+    // The IDs of the rooms that exits not yet loaded lead to, and the WorldBuilder that will load them
+    String[] lazyExits;
+    WorldBuilder exitLoader;
+
+    // Bumped, from exitVersionCounter, whenever exitsChanged() is called. Since every bump is larger than
+    // any version before it, a Pathfinder can tell which rooms have changed since it last looked.
+    private transient volatile long exitVersion;
+
     public BaseRoom() {
     }
 
@@ -39,8 +61,8 @@ public class BaseRoom implements Room
         attributes = new BitSet(64);
         exits = new Room[UIConstants.NUM_EXIT_BUTTONS];
         exitLabels = new String[UIConstants.NUM_EXIT_BUTTONS];
-        entities = new LinkedList<>();
-        properties = new HashMap<>();
+        entities = new EntityList(this);
+        properties = new JournaledMap<>();
     }
 
     public boolean checkAttribute(int attribute) {
@@ -48,19 +70,19 @@ public class BaseRoom implements Room
     }
 
     public void clearAttribute(int attribute) {
-        attributes.clear(attribute);
+        ChangeJournal.setAttribute(attributes, attribute, false);
     }
 
     public void setAttribute(int attribute) {
-        attributes.set(attribute);
+        ChangeJournal.setAttribute(attributes, attribute, true);
     }
 
     public void setAttribute(int attribute, boolean val) {
-        attributes.set(attribute, val);
+        ChangeJournal.setAttribute(attributes, attribute, val);
     }
 
     public void clearAllAttributes() {
-        attributes.clear();
+        ChangeJournal.clearAttributes(attributes);
     }
 
     public String getName() {
@@ -79,18 +101,40 @@ public class BaseRoom implements Room
     }
 
     public Room getExit(int direction) {
-        return exits[direction];
+        Room r = exits[direction];
+        if (r == null && lazyExits != null && lazyExits[direction] != null)
+            r = exitLoader.loadExit(this, direction);
+        return r;
     }
 
     public String getExitLabel(int direction) {
         if (exitLabels[direction] != null)
             return exitLabels[direction];
-        else if (exits[direction] != null)
-            return exits[direction].getExitName();
+        Room r = getExit(direction);
+        if (r != null)
+            return r.getExitName();
         else
             return null;
     }
 
+    /**
+     * Should be called after the exits of the room, or the state of a door in it, are changed, so
+     * that any {@link Pathfinder} will notice the change. {@link Door} does so itself.
+     */
+    public void exitsChanged() {
+        exitVersion = exitVersionCounter.incrementAndGet();
+    }
+
+    /** Returns the version of our exits, which increases each time {@link #exitsChanged()} is called. */
+    long getExitVersion() {
+        return exitVersion;
+    }
+
+    /** Returns the latest version of the exits of any room. */
+    static long latestExitVersion() {
+        return exitVersionCounter.get();
+    }
+
     public List<Entity> getRoomEntities() {
         if (delegate != null)
             return delegate.getRoomEntities(this);
@@ -98,6 +142,15 @@ public class BaseRoom implements Room
             return entities;
     }
 
+    /** Returns the entities in the room, whether or not {@link #getRoomEntities()} shows them all. */
+    public EntityList getHeldEntities() {
+        return entities;
+    }
+
+    public boolean letsLightOut() {
+        return true;
+    }
+
     public void entered(Room fromRoom) {
         if (delegate != null)
             delegate.entered(this, fromRoom);
@@ -119,6 +172,19 @@ public class BaseRoom implements Room
      * @param delegate delegate to set, or null to remove proxying
      */
     public void setDelegate(RoomDelegate delegate) {
+        if (delegate == this.delegate)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Swap() {
+                private RoomDelegate otherDelegate = BaseRoom.this.delegate;
+
+                protected void swap() {
+                    RoomDelegate d = BaseRoom.this.delegate;
+                    BaseRoom.this.delegate = otherDelegate;
+                    otherDelegate = d;
+                }
+            });
         this.delegate = delegate;
     }
 
@@ -6,75 +6,96 @@ import org.apache.commons.lang3.text.WordUtils;
 
 public final class BasicActions
 {
+    // The canonical names of the actions, as passed to Utils.getActionName(). Code that handles several actions
+    // can switch on Utils.getCanonicalActionName(action), with these as case labels.
+    public static final String EXAMINE_ACTION = "Examine";
+    public static final String DROP_ACTION = "Drop";
+    public static final String EQUIP_ACTION = "Equip";
+    public static final String UNEQUIP_ACTION = "Unequip";
+    public static final String WEAR_ACTION = "Wear";
+    public static final String TAKE_OFF_ACTION = "Take Off";
+    public static final String PULL_ACTION = "Pull";
+    public static final String PUSH_ACTION = "Push";
+    public static final String OPEN_ACTION = "Open";
+    public static final String CLOSE_ACTION = "Close";
+    public static final String UNLOCK_ACTION = "Unlock";
+    public static final String LOCK_ACTION = "Lock";
+    public static final String TALK_ACTION = "Talk to";
+    public static final String CONTAINER_EXAMINE_ACTION = "Examine Items";
+    public static final String TAKE_ACTION = "Take";
+    public static final String PUT_ACTION = "Put";
+    public static final String CONTAINER_PUT_ACTION_PREFIX = "Put Item ";
+    public static final String CONTAINER_TAKE_ACTION_PREFIX = "Take Item ";
+
     public static String getExamineAction() {
-        return Utils.getActionName("Examine");
+        return Utils.getActionName(EXAMINE_ACTION);
     }
 
     public static String getDropAction() {
-        return Utils.getActionName("Drop");
+        return Utils.getActionName(DROP_ACTION);
     }
 
     public static String getEquipAction() {
-        return Utils.getActionName("Equip");
+        return Utils.getActionName(EQUIP_ACTION);
     }
 
     public static String getUnequipAction() {
-        return Utils.getActionName("Unequip");
+        return Utils.getActionName(UNEQUIP_ACTION);
     }
 
     public static String getWearAction() {
-        return Utils.getActionName("Wear");
+        return Utils.getActionName(WEAR_ACTION);
     }
 
     public static String getTakeOffAction() {
-        return Utils.getActionName("Take Off");
+        return Utils.getActionName(TAKE_OFF_ACTION);
     }
 
     public static String getPullAction() {
-        return Utils.getActionName("Pull");
+        return Utils.getActionName(PULL_ACTION);
     }
 
     public static String getPushAction() {
-        return Utils.getActionName("Push");
+        return Utils.getActionName(PUSH_ACTION);
     }
 
     public static String getOpenAction() {
-        return Utils.getActionName("Open");
+        return Utils.getActionName(OPEN_ACTION);
     }
 
     public static String getCloseAction() {
-        return Utils.getActionName("Close");
+        return Utils.getActionName(CLOSE_ACTION);
     }
 
     public static String getUnlockAction() {
-        return Utils.getActionName("Unlock");
+        return Utils.getActionName(UNLOCK_ACTION);
     }
 
     public static String getLockAction() {
-        return Utils.getActionName("Lock");
+        return Utils.getActionName(LOCK_ACTION);
     }
 
     public static String getTalkAction() {
-        return Utils.getActionName("Talk to");
+        return Utils.getActionName(TALK_ACTION);
     }
 
     public static String getContainerExamineAction() {
-        return Utils.getActionName("Examine Items");
+        return Utils.getActionName(CONTAINER_EXAMINE_ACTION);
     }
 
     public static String getContainerPutAction(String preposition) {
-        return Utils.getActionName(WordUtils.capitalizeFully("Put Item " + preposition));
+        return Utils.getActionName(WordUtils.capitalizeFully(CONTAINER_PUT_ACTION_PREFIX + preposition));
     }
 
     public static String getContainerTakeAction(String preposition) {
-        return Utils.getActionName(WordUtils.capitalizeFully("Take Item " + preposition));
+        return Utils.getActionName(WordUtils.capitalizeFully(CONTAINER_TAKE_ACTION_PREFIX + preposition));
     }
 
     public static String getTakeAction() {
-        return Utils.getActionName("Take");
+        return Utils.getActionName(TAKE_ACTION);
     }
 
     public static String getPutAction() {
-        return Utils.getActionName("Put");
+        return Utils.getActionName(PUT_ACTION);
     }
 }
@@ -17,7 +17,7 @@ public class BasicUtils
      * @param message message to display before transporting the player
      */
     public static void endGame(String message) {
-        WorldBuilder wb = new WorldBuilder(gm.getWorldState(), Meterman.getSystemBundle());
+        WorldBuilder wb = new WorldBuilder(gm().getWorldState(), Meterman.getSystemBundle());
         BaseRoom r = wb.loadRoom("default-endgame-room");
         endGame(message, r);
     }
@@ -28,9 +28,9 @@ public class BasicUtils
      * @param r room where the player will be transported
      */
     public static void endGame(String message, Room r) {
-        gm.undoCheckpoint();
-        ui.appendTextLn(message);
-        ui.appendNewline();
-        gm.movePlayer(r);
+        gm().undoCheckpoint();
+        ui().appendTextLn(message);
+        ui().appendNewline();
+        gm().movePlayer(r);
     }
 }
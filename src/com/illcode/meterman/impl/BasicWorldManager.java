@@ -12,6 +12,7 @@ import static com.illcode.meterman.Meterman.ui;
 import static com.illcode.meterman.Attributes.*;
 import static com.illcode.meterman.impl.BasicActions.*;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -77,34 +78,34 @@ public class BasicWorldManager implements GameActionListener, EntityActionsProce
 
     /** Registers the BasicWorldManager with the GameManager */
     public void register() {
-        gm.addGameActionListener(this);
-        gm.addEntityActionsProcessor(this);
-        gm.addTurnListener(this);
+        gm().addGameActionListener(this);
+        gm().addEntityActionsProcessor(this);
+        gm().addTurnListener(this);
     }
 
     /** De-registers this BasicWorldManager from the GameManager. */
     public void deregister() {
-        gm.removeGameActionListener(this);
-        gm.removeEntityActionsProcessor(this);
-        gm.removeTurnListener(this);
+        gm().removeGameActionListener(this);
+        gm().removeEntityActionsProcessor(this);
+        gm().removeTurnListener(this);
     }
 
     // implement EntityActionsProcessor
     public void processEntityActions(Entity e, List<String> actions) {
         if (e.checkAttribute(TAKEABLE)) {
-            if (gm.isInInventory(e))
+            if (gm().isInInventory(e))
                 actions.add(getDropAction());
             else
                 actions.add(getTakeAction());
         }
-        if (e.checkAttribute(WEARABLE) && gm.isInInventory(e)) {
-            if (gm.isWorn(e))
+        if (e.checkAttribute(WEARABLE) && gm().isInInventory(e)) {
+            if (gm().isWorn(e))
                 actions.add(getTakeOffAction());
             else
                 actions.add(getWearAction());
         }
-        if (e.checkAttribute(EQUIPPABLE) && gm.isInInventory(e)) {
-            if (gm.isEquipped(e))
+        if (e.checkAttribute(EQUIPPABLE) && gm().isInInventory(e)) {
+            if (gm().isEquipped(e))
                 actions.add(getUnequipAction());
             else
                 actions.add(getEquipAction());
@@ -121,28 +122,29 @@ public class BasicWorldManager implements GameActionListener, EntityActionsProce
         if (beforeAction)
             return false;  // we don't want to block the entity from handling the action itself
 
-        if (action.equals(getDropAction())) {
-            gm.moveEntity(e, e.getRoom());
+        switch (Utils.getCanonicalActionName(action)) {
+        case DROP_ACTION:
+            gm().moveEntity(e, e.getRoom());
             return true;
-        } else if (action.equals(getTakeAction())) {
-            if (gm.getPlayer().inventory.size() < maxInventoryItems)
-                gm.takeEntity(e);
+        case TAKE_ACTION:
+            if (gm().getPlayer().inventory.size() < maxInventoryItems)
+                gm().takeEntity(e);
             else
-                ui.appendTextLn(Meterman.getSystemBundle().getPassage("max-inventory-reached"));
+                ui().appendTextLn(Meterman.getSystemBundle().getPassage("max-inventory-reached"));
             return true;
-        } else if (action.equals(getTakeOffAction())) {
-            gm.setWorn(e, false);
+        case TAKE_OFF_ACTION:
+            gm().setWorn(e, false);
             return true;
-        } else if (action.equals(getWearAction())) {
-            gm.setWorn(e, true);
+        case WEAR_ACTION:
+            gm().setWorn(e, true);
             return true;
-        } else if (action.equals(getUnequipAction())) {
-            gm.setEquipped(e, false);
+        case UNEQUIP_ACTION:
+            gm().setEquipped(e, false);
             return true;
-        } else if (action.equals(getEquipAction())) {
-            gm.setEquipped(e, true);
+        case EQUIP_ACTION:
+            gm().setEquipped(e, true);
             return true;
-        } else {
+        default:
             return false;
         }
     }
@@ -150,16 +152,20 @@ public class BasicWorldManager implements GameActionListener, EntityActionsProce
     public boolean postAction(String action, Entity e, boolean actionHandled) {
         boolean suppressMessage = false;
         if (!actionHandled) {
-            TextBundle b = Meterman.getSystemBundle();
-            b.putSubstitution("defName", GameUtils.defName(e));
-            if (action.equals(getPushAction())) {
-                ui.appendTextLn(b.getPassage("push-action-no-effect"));
-                suppressMessage = true;
-            } else if (action.equals(getPullAction())) {
-                ui.appendTextLn(b.getPassage("pull-action-no-effect"));
-                suppressMessage = true;
+            String passage;
+            switch (Utils.getCanonicalActionName(action)) {
+            case PUSH_ACTION:
+                passage = "push-action-no-effect";
+                break;
+            case PULL_ACTION:
+                passage = "pull-action-no-effect";
+                break;
+            default:
+                return false;
             }
-            b.removeSubstitution("defName");
+            ui().appendTextLn(Meterman.getSystemBundle().getPassage(passage,
+                Collections.singletonMap("defName", GameUtils.defName(e))));
+            suppressMessage = true;
         }
         return suppressMessage;
     }
@@ -167,6 +173,6 @@ public class BasicWorldManager implements GameActionListener, EntityActionsProce
 
     public void turn() {
         if (updateStatusBar)
-            ui.setStatusLabel(UIConstants.RIGHT_LABEL, "Turns: " + (gm.getNumTurns() + 1));
+            ui().setStatusLabel(UIConstants.RIGHT_LABEL, "Turns: " + (gm().getNumTurns() + 1));
     }
 }
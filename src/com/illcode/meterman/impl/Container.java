@@ -3,8 +3,10 @@ package com.illcode.meterman.impl;
 import com.illcode.meterman.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static com.illcode.meterman.Meterman.gm;
 import static com.illcode.meterman.Meterman.ui;
@@ -20,7 +22,7 @@ import static com.illcode.meterman.impl.BasicActions.*;
  * one level deep--a light source in a container inside another container will not propagate light all the way
  * into the room.
  */
-public class Container extends BaseEntity
+public class Container extends BaseEntity implements EntityHolder
 {
     /** The preposition that will be used when putting something "in/on/etc." this container.
      *  Should generally be in lowercase. */
@@ -30,13 +32,14 @@ public class Container extends BaseEntity
      *  Should generally be in lowercase. */
     protected String outPrep;
 
-    protected List<Entity> contents; // The items we contain.
+    protected EntityList contents; // The items we contain.
     protected boolean locked;
     protected Entity key;
     protected List<String> actions;
     protected LinkedList<ContainerListener> containerListeners;
 
-    private TextBundle bundle;
+    // Not persisted, so that saves and undo snapshots don't carry a copy of the game bundle
+    private transient TextBundle bundle;
 
 
     public Container() {
@@ -46,17 +49,22 @@ public class Container extends BaseEntity
         super.init();
         inPrep = "(in)";
         outPrep = "(out)";
-        contents = new ArrayList<>(8);
+        contents = new EntityList(this);
         actions = new ArrayList<>(6);
         containerListeners = new LinkedList<>();
-        bundle = Meterman.getSystemBundle();
+    }
+
+    private TextBundle getBundle() {
+        if (bundle == null)
+            bundle = Meterman.getSystemBundle();
+        return bundle;
     }
 
     public String getDescription() {
         if (!locked)
             return description;
         else
-            return description + " " + bundle.getPassage("container-locked-message");
+            return description + " " + getBundle().getPassage("container-locked-message");
     }
 
     public void setRoom(Room room) {
@@ -70,9 +78,22 @@ public class Container extends BaseEntity
     }
 
     public void setKey(Entity key) {
-        this.key = key;
+        if (key != this.key) {
+            ChangeJournal j = ChangeJournal.active();
+            if (j != null)
+                j.record(new ChangeJournal.Swap() {
+                    private Entity otherKey = Container.this.key;
+
+                    protected void swap() {
+                        Entity k = Container.this.key;
+                        Container.this.key = otherKey;
+                        otherKey = k;
+                    }
+                });
+            this.key = key;
+        }
         if (key == null)
-            locked = false;
+            setLocked(false);
     }
 
     public boolean isLocked() {
@@ -80,13 +101,32 @@ public class Container extends BaseEntity
     }
 
     public void setLocked(boolean locked) {
+        if (locked == this.locked)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Swap() {
+                protected void swap() {
+                    Container.this.locked = !Container.this.locked;
+                }
+            });
         this.locked = locked;
+        EntityList.lightChanged();
     }
 
     public List<Entity> getContents() {
         return contents;
     }
 
+    public EntityList getHeldEntities() {
+        return contents;
+    }
+
+    /** Returns true if the container is unlocked, and so light sources in it light up the room. */
+    public boolean letsLightOut() {
+        return !locked;
+    }
+
     public List<String> getActions() {
         actions.clear();
         if (locked) {
@@ -102,49 +142,54 @@ public class Container extends BaseEntity
     }
 
     public boolean processAction(String action) {
-        try {
-            bundle.putSubstitution("defName", GameUtils.defName(this));
-            bundle.putSubstitution("inPrep", inPrep);
-            if (action.equals(getLockAction()) || action.equals(getUnlockAction())) {  // LOCK/UNLOCK
-                // note that in these cases we already know that key != null
-                if (!Meterman.gm.isInInventory(key)) {
-                    ui.appendTextLn(bundle.getPassage("container-no-key-message"));
-                } else {
-                    locked = !locked;
-                    gm.entityChanged(this);
-                }
-                return true;
-            } else if (action.equals(getContainerExamineAction())) {  // EXAMINE ITEMS
-                if (contents.isEmpty()) {
-                    ui.appendTextLn(fmt("\n> %s %s %s", getContainerExamineAction(), inPrep, getName()).toUpperCase());
-                    ui.appendTextLn(bundle.getPassage("container-no-contents-examine-message"));
-                } else {
-                    Entity item = ui.showListDialog(getName(), bundle.getPassage("container-examine-message"), contents, true);
-                    if (item != null) {
-                        ui.appendTextLn(fmt("\n> %s %s", getExamineAction(), item.getName()).toUpperCase());
-                        ui.appendTextLn(item.getDescription());
-                    }
+        TextBundle bundle = getBundle();  // shared with other containers, so we don't put our substitutions in it
+        Map<String,String> subs = new HashMap<>(4);
+        subs.put("defName", GameUtils.defName(this));
+        subs.put("inPrep", inPrep);
+        switch (Utils.getCanonicalActionName(action)) {
+        case LOCK_ACTION:
+        case UNLOCK_ACTION:
+            // note that in these cases we already know that key != null
+            if (!Meterman.gm().isInInventory(key)) {
+                ui().appendTextLn(bundle.getPassage("container-no-key-message", subs));
+            } else {
+                setLocked(!locked);
+                gm().entityChanged(this);
+            }
+            return true;
+        case CONTAINER_EXAMINE_ACTION:
+            if (contents.isEmpty()) {
+                ui().appendTextLn(fmt("\n> %s %s %s", getContainerExamineAction(), inPrep, getName()).toUpperCase());
+                ui().appendTextLn(bundle.getPassage("container-no-contents-examine-message", subs));
+            } else {
+                Entity item = ui().showListDialog(getName(), bundle.getPassage("container-examine-message", subs), contents, true);
+                if (item != null) {
+                    ui().appendTextLn(fmt("\n> %s %s", getExamineAction(), item.getName()).toUpperCase());
+                    ui().appendTextLn(item.getDescription());
                 }
-                return true;
-            } else if (action.equals(getContainerPutAction(inPrep))) {  // PUT IN
+            }
+            return true;
+        default:
+            // the put and take actions are named for the container's prepositions
+            if (action.equals(getContainerPutAction(inPrep))) {  // PUT IN
                 List<Entity> takeables = new ArrayList<>();
                 GameUtils.getCurrentTakeableEntities(takeables);
                 if (checkAttribute(Attributes.TAKEABLE))
                     takeables.remove(this);
                 if (takeables.isEmpty()) {
-                    ui.appendTextLn(fmt("\n> %s %s", getContainerPutAction(inPrep), getName()).toUpperCase());
-                    ui.appendTextLn(bundle.getPassage("container-no-contents-put-message"));
+                    ui().appendTextLn(fmt("\n> %s %s", getContainerPutAction(inPrep), getName()).toUpperCase());
+                    ui().appendTextLn(bundle.getPassage("container-no-contents-put-message", subs));
                 } else {
-                    Entity item = ui.showListDialog(getName(), bundle.getPassage("container-put-message"), takeables, true);
+                    Entity item = ui().showListDialog(getName(), bundle.getPassage("container-put-message", subs), takeables, true);
                     if (item != null) {
                         if (!fireContentsChange(item, true, true)) {  // if we're not blocked
-                            ui.appendTextLn(fmt("\n> %s %s %s %s",
+                            ui().appendTextLn(fmt("\n> %s %s %s %s",
                                 getPutAction(), item.getName(), inPrep, getName()).toUpperCase());
-                            Room currentRoom = gm.getCurrentRoom();
-                            gm.moveEntity(item, currentRoom);  // pull it out of inventory, if it's there
-                            currentRoom.getRoomEntities().remove(item);  // whisk it out of of the room
-                            gm.roomChanged(currentRoom);
-                            contents.add(item);  // and now it's in here!
+                            Room currentRoom = gm().getCurrentRoom();
+                            gm().moveEntity(item, currentRoom);  // pull it out of inventory, if it's there
+                            ChangeJournal.remove(currentRoom.getRoomEntities(), item);  // whisk it out of of the room
+                            gm().roomChanged(currentRoom);
+                            ChangeJournal.add(contents, item);  // and now it's in here!
                             fireContentsChange(item, true, false);
                         }
                     }
@@ -154,16 +199,16 @@ public class Container extends BaseEntity
                 List<Entity> takeables = new ArrayList<>();
                 GameUtils.filterByAttribute(contents, Attributes.TAKEABLE, true, takeables);
                 if (takeables.isEmpty()) {
-                    ui.appendTextLn(fmt("\n> %s %s", getContainerTakeAction(outPrep), getName()).toUpperCase());
-                    ui.appendTextLn(bundle.getPassage("container-no-contents-take-message"));
+                    ui().appendTextLn(fmt("\n> %s %s", getContainerTakeAction(outPrep), getName()).toUpperCase());
+                    ui().appendTextLn(bundle.getPassage("container-no-contents-take-message", subs));
                 } else {
-                    Entity item = ui.showListDialog(getName(), bundle.getPassage("container-take-message"), takeables, true);
+                    Entity item = ui().showListDialog(getName(), bundle.getPassage("container-take-message", subs), takeables, true);
                     if (item != null) {
                         if (!fireContentsChange(item, false, true)) {  // if we're not blocked
-                            ui.appendTextLn(fmt("\n> %s %s %s %s",
+                            ui().appendTextLn(fmt("\n> %s %s %s %s",
                                 getTakeAction(), item.getName(), outPrep, getName()).toUpperCase());
-                            contents.remove(item);
-                            gm.takeEntity(item);
+                            ChangeJournal.remove(contents, item);
+                            gm().takeEntity(item);
                             fireContentsChange(item, false, false);
                         }
                     }
@@ -172,9 +217,6 @@ public class Container extends BaseEntity
             } else {
                 return false;
             }
-        } finally {
-            bundle.removeSubstitution("defName");
-            bundle.removeSubstitution("inPrep");
         }
     }
 
@@ -194,12 +236,12 @@ public class Container extends BaseEntity
      */
     public void addContainerListener(ContainerListener l) {
         if (!containerListeners.contains(l))
-            containerListeners.addFirst(l);
+            ChangeJournal.add(containerListeners, 0, l);
     }
 
     /** Remove a ContainerListener. */
     public void removeContainerListener(ContainerListener l) {
-        containerListeners.remove(l);
+        ChangeJournal.remove(containerListeners, l);
     }
 
     private boolean fireContentsChange(Entity e, boolean isAdded, boolean beforeEntityMove) {
@@ -9,13 +9,15 @@ import com.illcode.meterman.event.TurnListener;
 import java.util.Collections;
 import java.util.List;
 
-import static com.illcode.meterman.Attributes.LIGHTSOURCE;
 import static com.illcode.meterman.Attributes.DARK;
 
 /**
  * A Room that handles {@link Attributes#DARK darkness} by returning a different name,
  * exit name, and description if the room is dark and there is no light source. It
  * will also conceal any entities in it if dark.
+ * <p/>
+ * Whether the room is dark is found from the light counts the room's and the player's
+ * {@link com.illcode.meterman.EntityList EntityList}s keep, and so takes constant time.
  */
 public class DarkRoom extends BaseRoom implements TurnListener
 {
@@ -66,22 +68,12 @@ public class DarkRoom extends BaseRoom implements TurnListener
         // If we're not naturally dark, then it's definitely not dark
         if (!checkAttribute(DARK))
             return false;
-        // Otherwise we'll see if something in the room or that the player is carrying is a light source
-        for (Entity e : entities) {
-            if (e.checkAttribute(LIGHTSOURCE)) {
-                return false;
-            } else if (e instanceof Container) {
-                // See Container class javadoc
-                Container c = (Container) e;
-                if (!c.isLocked())
-                    for (Entity ce : c.getContents())
-                        if (ce.checkAttribute(LIGHTSOURCE))
-                            return false;
-            }
-        }
-        for (Entity e : Meterman.gm.getPlayer().inventory)
-            if (e.checkAttribute(LIGHTSOURCE))
-                return false;
+        // Otherwise we'll see if something in the room, or in an unlocked container in the room (see
+        // Container class javadoc), or that the player is carrying is a light source
+        if (entities.getLightSourceCount() > 0 || entities.getLitHolderCount() > 0)
+            return false;
+        if (Meterman.gm().getPlayer().inventory.getLightSourceCount() > 0)
+            return false;
         // DARKNESS! Charley Murphy!
         return true;
     }
@@ -90,12 +82,12 @@ public class DarkRoom extends BaseRoom implements TurnListener
         boolean nowDark = isDark();
         if (wasDark != nowDark) {
             wasDark = nowDark;
-            Meterman.gm.roomChanged(this);
+            Meterman.gm().roomChanged(this);
         }
     }
 
     public void entered(Room fromRoom) {
-        Meterman.gm.addTurnListener(this);
+        Meterman.gm().addTurnListener(this);
         wasDark = isDark();
         super.entered(fromRoom);
     }
@@ -103,7 +95,7 @@ public class DarkRoom extends BaseRoom implements TurnListener
     public boolean exiting(Room toRoom) {
         boolean blocked = super.exiting(toRoom);
         if (!blocked)
-            Meterman.gm.removeTurnListener(this);
+            Meterman.gm().removeTurnListener(this);
         return blocked;
     }
 }
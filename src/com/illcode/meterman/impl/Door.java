@@ -1,7 +1,10 @@
 package com.illcode.meterman.impl;
 
+import com.illcode.meterman.ChangeJournal;
 import com.illcode.meterman.Entity;
 import com.illcode.meterman.Meterman;
+import com.illcode.meterman.Room;
+import com.illcode.meterman.Utils;
 import com.illcode.meterman.ui.UIConstants;
 import org.apache.commons.lang3.ArrayUtils;
 
@@ -51,8 +54,19 @@ public class Door extends BaseEntity
 
     /** Set the two rooms connected by this door. */
     public void setRooms(BaseRoom room1, BaseRoom room2) {
+        exitsChanged();
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new PairChange(rooms) {
+                protected void swap() {
+                    exitsChanged();  // for the rooms we're leaving, then those we're joining
+                    super.swap();
+                    exitsChanged();
+                }
+            });
         rooms[0] = room1;
         rooms[1] = room2;
+        exitsChanged();
     }
 
     /** Get the first or second room {@code (roomNo == 0 or 1)}*/
@@ -67,12 +81,26 @@ public class Door extends BaseEntity
      * @param pos2 exit position in second room
      */
     public void setPositions(int pos1, int pos2) {
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Swap() {
+                private int otherPos1 = positions[0], otherPos2 = positions[1];
+
+                protected void swap() {
+                    int p1 = positions[0], p2 = positions[1];
+                    positions[0] = otherPos1;
+                    positions[1] = otherPos2;
+                    otherPos1 = p1;
+                    otherPos2 = p2;
+                }
+            });
         positions[0] = pos1;
         positions[1] = pos2;
     }
 
     /** Sets the description of the door to be shown in the first and second room. */
     public void setDescriptions(String description1, String description2) {
+        journalPair(descriptions);
         descriptions[0] = description1;
         descriptions[1] = description2;
     }
@@ -80,6 +108,7 @@ public class Door extends BaseEntity
     /** Sets the messages shown in the first and second room when the door is locked.
      *  These messages are shown in addition to the description. */
     public void setLockedMessages(String msg1, String msg2) {
+        journalPair(lockedMessages);
         lockedMessages[0] = msg1;
         lockedMessages[1] = msg2;
     }
@@ -87,11 +116,13 @@ public class Door extends BaseEntity
     /** Sets the messages shown in the first and second room when the door is unlocked.
      *  These messages are shown in addition to the description. */
     public void setUnlockedMessages(String msg1, String msg2) {
+        journalPair(unlockedMessages);
         unlockedMessages[0] = msg1;
         unlockedMessages[1] = msg2;
     }
 
     public void setOpenMessages(String msg1, String msg2) {
+        journalPair(openMessages);
         openMessages[0] = msg1;
         openMessages[1] = msg2;
     }
@@ -99,6 +130,7 @@ public class Door extends BaseEntity
     /** Sets the message shown when the player attempts to lock or unlock the door without
      *  holding the key, in room 1 and 2 respectively. */
     public void setNoKeyMessages(String msg1, String msg2) {
+        journalPair(noKeyMessages);
         noKeyMessages[0] = msg1;
         noKeyMessages[1] = msg2;
     }
@@ -117,9 +149,17 @@ public class Door extends BaseEntity
      * @param key key entity, or null if no key is required
      */
     public void setKey(Entity key) {
-        this.key = key;
-        if (key == null)
+        if (key != this.key) {
+            ChangeJournal j = ChangeJournal.active();
+            if (j != null)
+                j.record(new KeyChange(this.key));
+            this.key = key;
+        }
+        if (key == null && locked) {
+            journalState();
             locked = false;
+            exitsChanged();
+        }
     }
 
     /** Returns true if the door is locked. */
@@ -129,9 +169,11 @@ public class Door extends BaseEntity
 
     /** Set whether the door is locked. */
     public void setLocked(boolean locked) {
+        journalState();
         this.locked = locked;
         if (locked)
             open = false;  // a locked door is necessarily closed
+        exitsChanged();
     }
 
     public boolean isOpen() {
@@ -139,13 +181,15 @@ public class Door extends BaseEntity
     }
 
     public void setOpen(boolean open) {
+        journalState();
         this.open = open;
         if (open)
             locked = false;  // you cannot have an open, locked door
+        exitsChanged();
     }
 
     public String getDescription() {
-        int idx = ArrayUtils.indexOf(rooms, Meterman.gm.getCurrentRoom());
+        int idx = ArrayUtils.indexOf(rooms, Meterman.gm().getCurrentRoom());
         if (idx == -1) {
             return "A door broken by the implementor.";
         } else {
@@ -160,8 +204,11 @@ public class Door extends BaseEntity
 
     public List<String> getActions() {
         actions.clear();
-        if (key == null)
+        if (key == null && locked) {
+            journalState();
             locked = false;
+            exitsChanged();
+        }
         if (locked) {
             actions.add(getUnlockAction());
         } else { // okay, we're unlocked
@@ -177,19 +224,25 @@ public class Door extends BaseEntity
     }
 
     public boolean processAction(String action) {
-        int idx = ArrayUtils.indexOf(rooms, Meterman.gm.getCurrentRoom());
+        int idx = ArrayUtils.indexOf(rooms, Meterman.gm().getCurrentRoom());
         if (idx == -1)
             return false;
-        if (action.equals(getLockAction()) || action.equals(getUnlockAction())) {
+        switch (Utils.getCanonicalActionName(action)) {
+        case LOCK_ACTION:
+        case UNLOCK_ACTION:
             // note that in these cases we already know that key != null
-            if (!Meterman.gm.isInInventory(key)) {
-                Meterman.ui.appendTextLn(noKeyMessages[idx]);
+            if (!Meterman.gm().isInInventory(key)) {
+                Meterman.ui().appendTextLn(noKeyMessages[idx]);
             } else {
+                journalState();
                 locked = !locked;
-                gm.entityChanged(this);
+                exitsChanged();
+                gm().entityChanged(this);
             }
             return true;
-        } else if (action.equals(getOpenAction()) || action.equals(getCloseAction())) {
+        case OPEN_ACTION:
+        case CLOSE_ACTION:
+            journalState();
             open = !open;
             if (open) {
                 rooms[0].exits[positions[0]] = rooms[1];
@@ -200,12 +253,115 @@ public class Door extends BaseEntity
                     rooms[i].exitLabels[positions[i]] = null;
                 }
             }
-            gm.entityChanged(this);
-            Meterman.gm.roomChanged(rooms[0]);
-            Meterman.gm.roomChanged(rooms[1]);
+            exitsChanged();
+            gm().entityChanged(this);
+            Meterman.gm().roomChanged(rooms[0]);
+            Meterman.gm().roomChanged(rooms[1]);
             return true;
-        } else {
+        default:
             return false;
         }
     }
+
+    /**
+     * Records the current state of this door, and of the exits it controls, in the active
+     * {@link ChangeJournal}. Should be called before the state is changed.
+     */
+    protected void journalState() {
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new StateChange());
+    }
+
+    /** Records the two elements of one of our per-room arrays in the active {@link ChangeJournal}. */
+    private void journalPair(Object[] pair) {
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new PairChange(pair));
+    }
+
+    /** Tells our rooms that the way through us has changed; see {@link BaseRoom#exitsChanged()}. */
+    protected void exitsChanged() {
+        for (BaseRoom r : rooms)
+            if (r != null)
+                r.exitsChanged();
+    }
+
+    /** Journals a change of {@link #key}. */
+    private final class KeyChange extends ChangeJournal.Swap
+    {
+        private Entity otherKey;
+
+        KeyChange(Entity otherKey) {
+            this.otherKey = otherKey;
+        }
+
+        protected void swap() {
+            Entity k = key;
+            key = otherKey;
+            otherKey = k;
+        }
+    }
+
+    /** Swaps the elements of a per-room array with those previously recorded. */
+    private static class PairChange extends ChangeJournal.Swap
+    {
+        private final Object[] pair;
+        private Object other0, other1;
+
+        PairChange(Object[] pair) {
+            this.pair = pair;
+            other0 = pair[0];
+            other1 = pair[1];
+        }
+
+        protected void swap() {
+            Object o0 = pair[0], o1 = pair[1];
+            pair[0] = other0;
+            pair[1] = other1;
+            other0 = o0;
+            other1 = o1;
+        }
+    }
+
+    /** Swaps the lock, open, and exit state of the door with a previously recorded state. */
+    private final class StateChange extends ChangeJournal.Swap
+    {
+        private boolean savedLocked, savedOpen;
+        private Room[] savedExits;
+        private String[] savedExitLabels;
+
+        StateChange() {
+            savedLocked = locked;
+            savedOpen = open;
+            savedExits = new Room[2];
+            savedExitLabels = new String[2];
+            for (int i = 0; i < 2; i++) {
+                if (rooms[i] != null && positions[i] != -1) {
+                    savedExits[i] = rooms[i].exits[positions[i]];
+                    savedExitLabels[i] = rooms[i].exitLabels[positions[i]];
+                }
+            }
+        }
+
+        protected void swap() {
+            boolean b = locked;
+            locked = savedLocked;
+            savedLocked = b;
+            b = open;
+            open = savedOpen;
+            savedOpen = b;
+            for (int i = 0; i < 2; i++) {
+                if (rooms[i] != null && positions[i] != -1) {
+                    Room r = rooms[i].exits[positions[i]];
+                    rooms[i].exits[positions[i]] = savedExits[i];
+                    savedExits[i] = r;
+                    String s = rooms[i].exitLabels[positions[i]];
+                    rooms[i].exitLabels[positions[i]] = savedExitLabels[i];
+                    savedExitLabels[i] = s;
+                }
+            }
+            exitsChanged();
+        }
+    }
 }
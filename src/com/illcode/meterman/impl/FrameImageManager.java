@@ -46,11 +46,11 @@ public class FrameImageManager implements PlayerMovementListener
     }
 
     public void register() {
-        Meterman.gm.addPlayerMovementListener(this);
+        Meterman.gm().addPlayerMovementListener(this);
     }
 
     public void deregister() {
-        Meterman.gm.removePlayerMovementListener(this);
+        Meterman.gm().removePlayerMovementListener(this);
     }
 
 
@@ -139,16 +139,37 @@ public class FrameImageManager implements PlayerMovementListener
      * A good place to use it is in {@code Game.start()}.
      */
     public void update() {
-        setImageForRoom(Meterman.gm.getCurrentRoom());
+        setImageForRoom(Meterman.gm().getCurrentRoom());
     }
 
     private void setImageForRoom(Room r) {
-        String imageName;
+        Meterman.ui().setFrameImage(imageNameFor(r));
+        // so that moving to a neighbouring room doesn't wait on its image being decoded
+        for (int pos = 0; pos < UIConstants.NUM_EXIT_BUTTONS; pos++) {
+            String imageName = exitImageName(r, pos);
+            if (imageName != null)
+                Meterman.ui().prefetchImage(imageName);
+        }
+    }
+
+    // Returns the image name of the room an exit leads to, or null if there is no exit. A room that hasn't
+    // been loaded yet (see WorldBuilder.setLazyLoading()) is named by its ID, and isn't loaded to find it.
+    private String exitImageName(Room r, int pos) {
+        if (!(r instanceof BaseRoom))
+            return r.getExit(pos) != null ? imageNameFor(r.getExit(pos)) : null;
+        BaseRoom br = (BaseRoom) r;
+        if (br.exits[pos] != null)
+            return imageNameFor(br.exits[pos]);
+        if (br.lazyExits != null && br.lazyExits[pos] != null)
+            return getRoomImageName(br.lazyExits[pos]);
+        return null;
+    }
+
+    private String imageNameFor(Room r) {
         if (r instanceof BaseRoom)
-            imageName = getRoomImageName(((BaseRoom) r).id);
+            return getRoomImageName(((BaseRoom) r).id);
         else
-            imageName = defaultImageName;
-        Meterman.ui.setFrameImage(imageName);
+            return defaultImageName;
     }
 
     /** Implement PlayerMovementListener to change the frame image as the player moves rooms. */
@@ -0,0 +1,57 @@
+package com.illcode.meterman.impl;
+
+import com.illcode.meterman.Room;
+
+/**
+ * The cost of moving from one room to another, for the weighted searches of a {@link Pathfinder}.
+ * <p/>
+ * This base class charges a fixed cost for each move, more for a move through a closed door that must be
+ * opened first, and more again for a move into a {@link DarkRoom} that is dark. Subclasses can charge
+ * whatever they like by overriding {@link #cost(Room, Room, boolean)}, and can speed up searches for a
+ * particular destination by overriding {@link #estimate(Room, Room)}.
+ */
+public class PathCost
+{
+    /** A PathCost in which every move costs 1, so that the cheapest path is the shortest. */
+    public static final PathCost UNIT = new PathCost(1, 0, 0);
+
+    protected final int moveCost, doorCost, darkCost;
+
+    /**
+     * Create a new PathCost.
+     * @param moveCost cost of moving from a room to its neighbor
+     * @param doorCost extra cost of a move through a closed door
+     * @param darkCost extra cost of a move into a dark room
+     */
+    public PathCost(int moveCost, int doorCost, int darkCost) {
+        this.moveCost = moveCost;
+        this.doorCost = doorCost;
+        this.darkCost = darkCost;
+    }
+
+    /**
+     * Returns the cost of moving from a room to a neighboring room.
+     * @param from room being left
+     * @param to room being entered
+     * @param throughDoor true if the move is through a closed (but unlocked) door
+     * @return the cost, which must be zero or more, or a negative number if the move is not allowed
+     */
+    public int cost(Room from, Room to, boolean throughDoor) {
+        int c = moveCost;
+        if (throughDoor)
+            c += doorCost;
+        if (darkCost != 0 && to instanceof DarkRoom && ((DarkRoom) to).isDark())
+            c += darkCost;
+        return c;
+    }
+
+    /**
+     * Returns an estimate of the cost of the cheapest path from a room to the destination of a search.
+     * The estimate must never be more than the actual cost, nor drop by more than the cost of a move from
+     * one room to the next. A good estimate lets the search look at fewer rooms; the default of zero
+     * is always safe.
+     */
+    public int estimate(Room from, Room destination) {
+        return 0;
+    }
+}
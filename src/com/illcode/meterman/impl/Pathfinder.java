@@ -1,22 +1,89 @@
 package com.illcode.meterman.impl;
 
-import com.illcode.meterman.Entity;
-import com.illcode.meterman.Room;
+import com.illcode.meterman.*;
 import com.illcode.meterman.ui.UIConstants;
 
 import java.util.*;
 
 /**
  * Finds the shortest path between two rooms, if one exists, taking into account unlocked {@link Door}S.
+ * It can also find the cheapest path, given a {@link PathCost} for each move, from a room to another, or
+ * from any of several rooms to the nearest room that meets some condition, and tell which rooms can be
+ * reached within a given cost.
+ * <p/>
+ * A Pathfinder indexes the rooms it comes across, giving each an integer ID and keeping the IDs of its
+ * neighbors, and keeps the breadth-first search trees of recent searches. A search from a room that was
+ * searched from before continues where that one stopped, if it needs to go any further, so that repeated
+ * searches from the same room take time proportional to the length of the path found. A Pathfinder should
+ * thus be kept and reused, rather than created for each search.
+ * <p/>
+ * The index learns of changes to the exits of a {@link BaseRoom} through {@link BaseRoom#exitsChanged()};
+ * only the neighbors of the changed rooms are gathered again, and only the search trees that reached
+ * those rooms are discarded. Rooms that are not BaseRooms are assumed to change at any time, and are
+ * looked at afresh in each search.
  */
 public class Pathfinder
 {
-    private Queue<PathNode> openQueue;
-    private HashSet<PathNode> closedSet;
+    /** The maximum number of search trees kept. */
+    private static final int MAX_TREES = 64;
+
+    private static final int[] NO_NEIGHBORS = new int[0];
+
+    private WorldState world;  // the world whose rooms we have indexed
+    private IdentityHashMap<Room,Integer> ids;
+    private Room[] rooms;      // rooms by ID
+    private int[][] neighbors; // the IDs of the neighbors of each room, or null if they need to be gathered
+    private long[] versions;   // the exit version of each room when its neighbors were gathered
+    private int numRooms;
+    private long exitVersion;  // the latest exit version when we last checked for changes
+
+    private int[] exitCounts;  // the number of each room's neighbors that are reached by exits, not doors
+
+    private LinkedHashMap<Integer,Search> trees;  // search trees by starting room ID
+    private int[] gathered;  // reused by gatherNeighbors()
+    private int gatheredExits;
+
+    // The state of weighted searches, reused from one to the next: a room's cost and parent are
+    // current only if its reached stamp is the stamp of the search, and it has been settled if its
+    // settled stamp is. The heap holds (estimated total cost << 32 | room ID) entries.
+    private int[] costs, parentIds, reachedStamps, settledStamps;
+    private int stamp;
+    private long[] heap;
+    private int heapSize;
+    private int lastCost;
 
     public Pathfinder() {
-        openQueue = new LinkedList<>();
-        closedSet = new HashSet<>();
+        trees = new LinkedHashMap<Integer,Search>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer,Search> eldest) {
+                return size() > MAX_TREES;
+            }
+        };
+        clear();
+    }
+
+    /**
+     * Discards the index and search trees. This is done automatically when the game's world state is replaced,
+     * as when a game is loaded; a Pathfinder that is used outside of a game should be cleared if its rooms
+     * are no longer in use.
+     */
+    public void clear() {
+        world = null;
+        ids = new IdentityHashMap<>();
+        rooms = new Room[64];
+        neighbors = new int[64][];
+        versions = new long[64];
+        exitCounts = new int[64];
+        costs = new int[64];
+        parentIds = new int[64];
+        reachedStamps = new int[64];
+        settledStamps = new int[64];
+        stamp = 0;
+        heap = new long[64];
+        lastCost = -1;
+        numRooms = 0;
+        exitVersion = BaseRoom.latestExitVersion();
+        trees.clear();
+        gathered = new int[UIConstants.NUM_EXIT_BUTTONS];
     }
 
     /**
@@ -30,77 +97,381 @@ public class Pathfinder
      *          the start tile, or null if no path found.
      */
     public List<Room> findPath(Room start, Room destination) {
-        openQueue.add(new PathNode(start, null));
-        Set<PathNode> neighbors = new HashSet<>();
-        try {
-            while(!openQueue.isEmpty()) {
-                PathNode currentNode = openQueue.remove();
-                if (currentNode.room == destination)
-                    return constructPath(currentNode);
-                closedSet.add(currentNode);
-                neighbors.clear();
-                gatherNeighbors(currentNode, neighbors);
-                for (PathNode neighbor : neighbors) {
-                    if (!openQueue.contains(neighbor) && !closedSet.contains(neighbor))
-                        openQueue.add(neighbor);
+        checkWorld();
+        checkExitVersions();
+        int startId = getId(start);
+        int destId = getId(destination);
+        Search search = trees.get(startId);
+        if (search == null) {
+            search = new Search(startId);
+            trees.put(startId, search);
+        }
+        boolean found = search.reach(destId);
+        if (!search.trusted)
+            trees.remove(startId);  // it may be out of date by the next search
+        if (!found)
+            return null;  // no path found
+        LinkedList<Room> path = new LinkedList<>();
+        for (int id = destId; id != startId; id = search.parents[id])
+            path.addFirst(rooms[id]);
+        return path;
+    }
+
+    /**
+     * Finds the cheapest path between two rooms, using the A* algorithm.
+     * @param start room from which to start pathfinding
+     * @param destination room to which we're attempting to find a path
+     * @param cost the cost of each move
+     * @return a list of rooms that is the path from start to goal, not including
+     *          the start room, or null if no path found. The cost of the path is then
+     *          given by {@link #getLastCost()}.
+     */
+    public List<Room> findCheapestPath(Room start, Room destination, PathCost cost) {
+        checkWorld();
+        checkExitVersions();
+        int id = weightedSearch(Collections.singletonList(start), destination, null, Integer.MAX_VALUE, cost, null);
+        return id == -1 ? null : constructPath(id, false);
+    }
+
+    /**
+     * Finds the cheapest path from a room to the nearest room accepted by a filter, using Dijkstra's algorithm.
+     * @param start room from which to start pathfinding
+     * @param target filter accepting the rooms to which we'd like to find a path
+     * @param cost the cost of each move
+     * @return a list of rooms that is the path from start to the nearest accepted room, not including
+     *          the start room (so that it is empty if the start room is accepted), or null if no path found.
+     *          The cost of the path is then given by {@link #getLastCost()}.
+     * @see #roomsContaining(int)
+     */
+    public List<Room> findNearest(Room start, RoomFilter target, PathCost cost) {
+        checkWorld();
+        checkExitVersions();
+        int id = weightedSearch(Collections.singletonList(start), null, target, Integer.MAX_VALUE, cost, null);
+        return id == -1 ? null : constructPath(id, false);
+    }
+
+    /**
+     * Finds the cheapest path from any of several rooms to the nearest room accepted by a filter, using
+     * Dijkstra's algorithm.
+     * @param starts rooms from which to start pathfinding
+     * @param target filter accepting the rooms to which we'd like to find a path
+     * @param cost the cost of each move
+     * @return a list of rooms that is the path from one of the start rooms to the nearest accepted room,
+     *          <em>including</em> that start room, or null if no path found. The cost of the path
+     *          is then given by {@link #getLastCost()}.
+     */
+    public List<Room> findNearest(Collection<? extends Room> starts, RoomFilter target, PathCost cost) {
+        checkWorld();
+        checkExitVersions();
+        int id = weightedSearch(starts, null, target, Integer.MAX_VALUE, cost, null);
+        return id == -1 ? null : constructPath(id, true);
+    }
+
+    /**
+     * Returns the rooms that can be reached from a room within a given cost.
+     * @param start room from which to start
+     * @param maxCost the greatest cost of the path to a room returned
+     * @param cost the cost of each move
+     * @return the rooms reached, including the start room, in order of the cost of reaching them
+     */
+    public List<Room> getReachableRooms(Room start, int maxCost, PathCost cost) {
+        checkWorld();
+        checkExitVersions();
+        List<Room> reachable = new ArrayList<>();
+        weightedSearch(Collections.singletonList(start), null, null, maxCost, cost, reachable);
+        return reachable;
+    }
+
+    /** Returns the cost of the path found by the last weighted search, or -1 if none was found. */
+    public int getLastCost() {
+        return lastCost;
+    }
+
+    /** Decides whether a room is a target of {@link #findNearest(Room, RoomFilter, PathCost)}. */
+    public interface RoomFilter
+    {
+        boolean accept(Room room);
+    }
+
+    /** Returns a RoomFilter that accepts rooms in which lies an entity with a given attribute. */
+    public static RoomFilter roomsContaining(final int attribute) {
+        return new RoomFilter() {
+            public boolean accept(Room room) {
+                List<Entity> entities = room instanceof EntityHolder ?
+                    ((EntityHolder) room).getHeldEntities() : room.getRoomEntities();
+                for (Entity e : entities)
+                    if (e.checkAttribute(attribute))
+                        return true;
+                return false;
+            }
+        };
+    }
+
+    // Searches from the start rooms, cheapest room first, until the destination or a room accepted by
+    // the target filter is settled, or nothing within maxCost is left. Returns the ID of the room found,
+    // or -1. The rooms settled are added to settled, if it isn't null.
+    private int weightedSearch(Collection<? extends Room> starts, Room destination, RoomFilter target,
+                               int maxCost, PathCost cost, List<Room> settled) {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(reachedStamps, 0);
+            Arrays.fill(settledStamps, 0);
+            stamp = 1;
+        }
+        heapSize = 0;
+        lastCost = -1;
+        int destId = destination != null ? getId(destination) : -1;
+        for (Room start : starts) {
+            int id = getId(start);
+            reachedStamps[id] = stamp;
+            costs[id] = 0;
+            parentIds[id] = id;
+            push(destination != null ? estimate(cost, start, destination) : 0, id);
+        }
+        while (heapSize > 0) {
+            int id = (int) pop();
+            if (settledStamps[id] == stamp)
+                continue;  // a stale entry, for a room since reached more cheaply
+            int g = costs[id];
+            if (g > maxCost)
+                break;
+            settledStamps[id] = stamp;
+            Room room = rooms[id];
+            if (settled != null)
+                settled.add(room);
+            if (id == destId || (target != null && target.accept(room))) {
+                lastCost = g;
+                return id;
+            }
+            int[] n = getNeighbors(id);
+            int exits = exitCounts[id];
+            for (int i = 0; i < n.length; i++) {
+                int nid = n[i];
+                if (settledStamps[nid] == stamp)
+                    continue;
+                int c = cost.cost(room, rooms[nid], i >= exits);
+                if (c < 0)
+                    continue;
+                int ng = g + c < 0 ? Integer.MAX_VALUE : g + c;
+                if (reachedStamps[nid] != stamp || ng < costs[nid]) {
+                    reachedStamps[nid] = stamp;
+                    costs[nid] = ng;
+                    parentIds[nid] = id;
+                    int f = ng;
+                    if (destination != null) {
+                        f += estimate(cost, rooms[nid], destination);
+                        if (f < 0)
+                            f = Integer.MAX_VALUE;
+                    }
+                    push(f, nid);
                 }
             }
-            return null;  // no path found
-        } finally {
-            openQueue.clear();
-            closedSet.clear();
         }
+        return -1;
+    }
+
+    private static int estimate(PathCost cost, Room from, Room destination) {
+        return Math.max(0, cost.estimate(from, destination));
+    }
+
+    // Follows the parents of a weighted search back from a room to where the search started
+    private List<Room> constructPath(int id, boolean includeStart) {
+        LinkedList<Room> path = new LinkedList<>();
+        while (parentIds[id] != id) {
+            path.addFirst(rooms[id]);
+            id = parentIds[id];
+        }
+        if (includeStart)
+            path.addFirst(rooms[id]);
+        return path;
+    }
+
+    private void push(int priority, int id) {
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        long entry = ((long) priority << 32) | id;
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    // Removes the entry with the lowest priority from the heap, and returns it
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child])
+                child++;
+            if (last <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
     }
 
-    private void gatherNeighbors(PathNode currentNode, Set<PathNode> neighbors) {
+    // Returns the IDs of a room's neighbors, gathering them if needed.
+    private int[] getNeighbors(int id) {
+        int[] n = neighbors[id];
+        if (n == null || !(rooms[id] instanceof BaseRoom)) {
+            Room room = rooms[id];
+            versions[id] = room instanceof BaseRoom ? ((BaseRoom) room).getExitVersion() : 0;
+            n = gatherNeighbors(room);
+            neighbors[id] = n;
+            exitCounts[id] = gatheredExits;
+        }
+        return n;
+    }
+
+    private int[] gatherNeighbors(Room currentRoom) {
+        int count = 0;
         // First add all the normal exit neighbors of the room
-        Room currentRoom = currentNode.room;
         for (int direction = 0; direction < UIConstants.NUM_EXIT_BUTTONS; direction++) {
             Room r = currentRoom.getExit(direction);
             if (r != null)
-                neighbors.add(new PathNode(r, currentNode));
+                count = addNeighbor(count, getId(r));
         }
-        // Then check for closed, unlocked doors.
-        for (Entity e : currentRoom.getRoomEntities()) {
+        gatheredExits = count;
+        // Then check for closed, unlocked doors. We look at all the entities of the room, and
+        // not only those shown, so that a dark room doesn't hide its doors.
+        List<Entity> entities = currentRoom instanceof EntityHolder ?
+            ((EntityHolder) currentRoom).getHeldEntities() : currentRoom.getRoomEntities();
+        for (Entity e : entities) {
             if (e instanceof Door) {
                 Door d = (Door) e;
                 if (!d.isOpen() && !d.isLocked()) {
                     Room r1 = d.getRoom(0);
                     Room r2 = d.getRoom(1);
-                    if (r1 == currentRoom)
-                        neighbors.add(new PathNode(r2, currentNode));
-                    else if (r2 == currentRoom)
-                        neighbors.add(new PathNode(r1, currentNode));
+                    if (r1 == currentRoom && r2 != null)
+                        count = addNeighbor(count, getId(r2));
+                    else if (r2 == currentRoom && r1 != null)
+                        count = addNeighbor(count, getId(r1));
                 }
             }
         }
+        return count == 0 ? NO_NEIGHBORS : Arrays.copyOf(gathered, count);
     }
 
-    private List<Room> constructPath(PathNode node) {
-        LinkedList<Room> path = new LinkedList<>();
-        while (node.parent != null) {
-            path.addFirst(node.room);
-            node = node.parent;
+    // Adds a neighbor to those gathered so far, if it isn't already there, and returns the new count
+    private int addNeighbor(int count, int id) {
+        for (int i = 0; i < count; i++)
+            if (gathered[i] == id)
+                return count;
+        if (count == gathered.length)
+            gathered = Arrays.copyOf(gathered, count * 2);
+        gathered[count] = id;
+        return count + 1;
+    }
+
+    // Returns the ID of a room, indexing it if it's new to us
+    private int getId(Room room) {
+        Integer id = ids.get(room);
+        if (id != null)
+            return id;
+        if (numRooms == rooms.length) {
+            int capacity = rooms.length * 2;
+            rooms = Arrays.copyOf(rooms, capacity);
+            neighbors = Arrays.copyOf(neighbors, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            exitCounts = Arrays.copyOf(exitCounts, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+            parentIds = Arrays.copyOf(parentIds, capacity);
+            reachedStamps = Arrays.copyOf(reachedStamps, capacity);
+            settledStamps = Arrays.copyOf(settledStamps, capacity);
+        }
+        rooms[numRooms] = room;
+        ids.put(room, numRooms);
+        return numRooms++;
+    }
+
+    // Starts afresh if the game's world state has been replaced since we last looked
+    private void checkWorld() {
+        MetermanSession session = MetermanSession.current();
+        GameManager gm = session != null ? session.getGameManager() : null;
+        WorldState ws = gm != null ? gm.getWorldState() : null;
+        if (ws != world) {
+            if (world != null)
+                clear();
+            world = ws;
         }
-        return path;
     }
 
-    private static class PathNode
+    /**
+     * A breadth-first search from a room, which goes only as far as needed to reach the rooms asked for,
+     * and can be continued to reach others.
+     */
+    private final class Search
     {
-        Room room;
-        PathNode parent;
+        // The ID of the room from which each room was reached, or -1 if not reached.
+        // The starting room is its own parent.
+        int[] parents;
+        int[] queue;     // queue[head, tail) are the rooms reached whose neighbors we've yet to look at
+        int head, tail;
+        boolean trusted;  // false if we've come across a room that isn't a BaseRoom
+
+        Search(int startId) {
+            parents = new int[Math.max(numRooms, 16)];
+            Arrays.fill(parents, -1);
+            parents[startId] = startId;
+            queue = new int[16];
+            queue[tail++] = startId;
+            trusted = true;
+        }
 
-        private PathNode(Room room, PathNode parent) {
-            this.room = room;
-            this.parent = parent;
+        boolean reached(int id) {
+            return id < parents.length && parents[id] != -1;
         }
 
-        public boolean equals(Object obj) {
-            return room.equals(obj);
+        // Continues the search until a room is reached, or there is nowhere left to go.
+        boolean reach(int destId) {
+            while (!reached(destId) && head < tail) {
+                int id = queue[head++];
+                if (!(rooms[id] instanceof BaseRoom))
+                    trusted = false;
+                int[] n = getNeighbors(id);
+                if (parents.length < numRooms) {  // getNeighbors() indexed new rooms
+                    int oldLength = parents.length;
+                    parents = Arrays.copyOf(parents, Math.max(numRooms, oldLength * 2));
+                    Arrays.fill(parents, oldLength, parents.length, -1);
+                }
+                for (int neighbor : n) {
+                    if (parents[neighbor] == -1) {
+                        parents[neighbor] = id;
+                        if (tail == queue.length)
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                        queue[tail++] = neighbor;
+                    }
+                }
+            }
+            return reached(destId);
         }
+    }
 
-        public int hashCode() {
-            return room.hashCode();
+    // Marks the rooms whose exits have changed as needing their neighbors gathered again,
+    // and discards the search trees that reached any of them.
+    private void checkExitVersions() {
+        long latest = BaseRoom.latestExitVersion();
+        if (latest == exitVersion)
+            return;
+        for (int id = 0; id < numRooms; id++) {
+            Room room = rooms[id];
+            if (neighbors[id] != null && room instanceof BaseRoom &&
+                    ((BaseRoom) room).getExitVersion() > versions[id]) {
+                neighbors[id] = null;
+                for (Iterator<Search> it = trees.values().iterator(); it.hasNext(); )
+                    if (it.next().reached(id))
+                        it.remove();
+            }
         }
+        exitVersion = latest;
     }
 }
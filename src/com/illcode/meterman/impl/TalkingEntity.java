@@ -1,5 +1,6 @@
 package com.illcode.meterman.impl;
 
+import com.illcode.meterman.ChangeJournal;
 import com.illcode.meterman.Utils;
 
 import java.util.ArrayList;
@@ -72,27 +73,45 @@ public class TalkingEntity extends BaseEntity
         return lastTopicDiscussed;
     }
 
+    // Sets lastTopicDiscussed, journaling the change
+    private void setLastTopicDiscussed(TalkTopic tt) {
+        if (tt == lastTopicDiscussed)
+            return;
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.record(new ChangeJournal.Swap() {
+                private TalkTopic otherTopic = lastTopicDiscussed;
+
+                protected void swap() {
+                    TalkTopic t = lastTopicDiscussed;
+                    lastTopicDiscussed = otherTopic;
+                    otherTopic = t;
+                }
+            });
+        lastTopicDiscussed = tt;
+    }
+
     /**
      * Processes the Talk action. Kept in a separate method so listeners and delegates can call it directly.
      * @return the {@link TalkTopic} selected (may be null)
      */
     public TalkTopic processTalkAction() {
         if (currentTopics.isEmpty()) {
-            ui.appendNewline();
-            ui.appendTextLn(noTopicsText);
+            ui().appendNewline();
+            ui().appendTextLn(noTopicsText);
             return null;
         } else {
-            TalkTopic tt = ui.showListDialog(getName(), dialogText, currentTopics, true);
+            TalkTopic tt = ui().showListDialog(getName(), dialogText, currentTopics, true);
             if (tt != null) {
-                ui.appendNewline();
-                ui.appendTextLn(tt.text);
+                ui().appendNewline();
+                ui().appendTextLn(tt.text);
                 for (TalkTopic topic : tt.addTopics)
                     if (!currentTopics.contains(topic))
-                        currentTopics.add(topic);
+                        ChangeJournal.add(currentTopics, topic);
                 for (TalkTopic topic : tt.removeTopics)
-                    currentTopics.remove(topic);
+                    ChangeJournal.remove(currentTopics, topic);
             }
-            lastTopicDiscussed = tt;
+            setLastTopicDiscussed(tt);
             return tt;
         }
     }
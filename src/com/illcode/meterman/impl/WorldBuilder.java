@@ -2,9 +2,14 @@ package com.illcode.meterman.impl;
 
 import com.eclipsesource.json.*;
 import com.illcode.meterman.*;
+import com.illcode.meterman.event.TurnListener;
 import com.illcode.meterman.ui.UIConstants;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
@@ -26,13 +31,26 @@ import static com.illcode.meterman.Utils.logger;
  * </ol>
  * In this case, only delegates and managers will need to be manually wired together in a Game's
  * {@code getInitialWorldState()} method.
+ * <p/>
+ * With {@link #setParallelLoading(boolean) parallel loading} enabled, {@code loadRooms()} and
+ * {@code loadEntities()} parse and construct the listed rooms and entities on several threads. Only types
+ * that don't refer to other entities are loaded this way (see {@link #isParallelEntityType(String)});
+ * doors and containers, whose keys must be resolved, are loaded afterwards on the calling thread, as the
+ * results of the parallel loading are put into the builder in list order.
+ * <p/>
+ * With {@link #setLazyLoading(boolean) lazy loading} enabled, the "mass effect" methods only note the rooms
+ * and entities that their passages list, and each room is loaded the first time it is needed: when
+ * {@link #getRoom(String)} is called for it, or an exit leading to it is followed. An entity is loaded along
+ * with the room or container it is placed in. Rooms and entities that the player hasn't come near then take
+ * neither time to load nor room in memory or in saved games, and a room that is {@link #unloadRoom(String)
+ * unloaded} again when the player has moved on takes none again.
  */
 public class WorldBuilder
 {
     public static final String WORLDBUILDER_KEY = "com.illcode.meterman.impl.WorldBuilder";
 
     protected WorldState worldState;
-    protected TextBundle bundle;
+    protected transient TextBundle bundle;  // see getBundle()
 
     protected Map<String,BaseEntity> entityIdMap;
     protected Map<String,BaseRoom> roomIdMap;
@@ -40,8 +58,26 @@ public class WorldBuilder
     // For use with retrieveMultiTextOrDefault()
     protected String[] retrievedMultiStrings;
 
-    private static Pattern escapedNewlinesPattern;  // see foldEscapedNewlines()
+    private static final Pattern escapedNewlinesPattern = Pattern.compile("\\\\\\n\\s*");  // see foldEscapedNewlines()
+
+    // The rooms and entities put by a parallel loading task, which are put into our maps afterwards,
+    // in list order, so that the maps come out exactly as if they had been loaded serially.
+    private static final ThreadLocal<StagedPuts> stagedPuts = new ThreadLocal<>();
+
+    private static ForkJoinPool loadingPool;  // shared by all WorldBuilders; see getLoadingPool()
 
+    private transient boolean parallelLoading;
+
+    // The definition passages noted in lazy loading mode, in order, each prefixed by its kind and a colon.
+    // The index made from them isn't saved, but made again from the bundle when needed.
+    private List<String> lazyPassages;
+    private Map<String,Long> pristineRooms;  // fingerprints of lazily loaded rooms, as loaded; see fingerprint()
+    private transient boolean lazyLoading;
+    private transient LazyIndex lazyIndex;  // see lazyIndex()
+
+    // The kinds of definition passage in lazyPassages
+    private static final String ROOM_LIST = "rooms", ENTITY_LIST = "entities", CONNECTIONS = "connections",
+                                PLACEMENTS = "placements", CONTENTS = "contents";
 
     // Zero-arg constructor for deserialization
     public WorldBuilder() {
@@ -66,12 +102,16 @@ public class WorldBuilder
     }
 
     /**
-     * Return an entity loaded by or put into this WorldBuilder.
+     * Return an entity loaded by or put into this WorldBuilder. If the entity was listed while
+     * {@link #setLazyLoading(boolean) lazy loading} and hasn't yet been loaded, it is loaded now.
      * @param entityId unique entity id
      * @return BaseEntity with id = entityId
      */
     public BaseEntity getEntity(String entityId) {
-        return entityIdMap.get(entityId);
+        BaseEntity e = entityIdMap.get(entityId);
+        if (e == null && lazyPassages != null)
+            e = loadEntityLazily(entityId);
+        return e;
     }
 
     /**
@@ -79,7 +119,11 @@ public class WorldBuilder
      * @param e BaseEntity to put in
      */
     public void putEntity(BaseEntity e) {
-        entityIdMap.put(e.id, e);
+        StagedPuts staged = stagedPuts.get();
+        if (staged != null && staged.builder == this)
+            staged.items.add(e);
+        else
+            entityIdMap.put(e.id, e);
     }
 
     /**
@@ -91,12 +135,16 @@ public class WorldBuilder
     }
 
     /**
-     * Return a room loaded by or put into this WorldBuilder.
+     * Return a room loaded by or put into this WorldBuilder. If the room was listed while
+     * {@link #setLazyLoading(boolean) lazy loading} and hasn't yet been loaded, it is loaded now.
      * @param roomId unique room id
      * @return BaseRoom with id = roomId
      */
     public BaseRoom getRoom(String roomId) {
-        return roomIdMap.get(roomId);
+        BaseRoom r = roomIdMap.get(roomId);
+        if (r == null && lazyPassages != null)
+            r = loadRoomLazily(roomId);
+        return r;
     }
 
     /**
@@ -104,7 +152,11 @@ public class WorldBuilder
      * @param r BaseRoom to put in
      */
     public void putRoom(BaseRoom r) {
-        roomIdMap.put(r.id, r);
+        StagedPuts staged = stagedPuts.get();
+        if (staged != null && staged.builder == this)
+            staged.items.add(r);
+        else
+            roomIdMap.put(r.id, r);
     }
 
     /**
@@ -119,7 +171,8 @@ public class WorldBuilder
      * Returns a map from an entity ID to the corresponding BaseEntity.
      * <p/>
      * The map only has entries for those entities loaded by the WorldBuilder or
-     * manually inserted via {@link #putEntity(BaseEntity)}.
+     * manually inserted via {@link #putEntity(BaseEntity)}; when loading lazily, those not
+     * yet loaded are not in it.
      * @return entity-id map
      */
     public Map<String,BaseEntity> getEntityIdMap() {
@@ -130,13 +183,312 @@ public class WorldBuilder
      * Returns a map from a room ID to the corresponding BaseRoom
      * <p/>
      * The map only has entries for those rooms loaded by the WorldBuilder or
-     * manually inserted via {@link #putRoom(BaseRoom)}.
+     * manually inserted via {@link #putRoom(BaseRoom)}; when loading lazily, those not
+     * yet loaded are not in it.
      * @return room-id map
      */
     public Map<String,BaseRoom> getRoomIdMap() {
         return roomIdMap;
     }
 
+    /**
+     * Returns the bundle from which rooms and entities are loaded. The bundle isn't saved along with
+     * the WorldBuilder; one restored from a saved game or undo snapshot uses the game bundle
+     * of the current session.
+     * @return the bundle given when this WorldBuilder was constructed, or the game bundle
+     * @see Meterman#setGameBundle(TextBundle)
+     */
+    public TextBundle getBundle() {
+        if (bundle == null)
+            bundle = Meterman.getSystemBundle();
+        return bundle;
+    }
+
+    /**
+     * Sets whether {@link #loadRooms(String)} and {@link #loadEntities(String)} load the rooms and entities
+     * they list in parallel, using a pool of threads shared by all WorldBuilders. This pays off for worlds
+     * with many hundreds of rooms and entities, on machines with several processors.
+     * <p/>
+     * The bundle passages of the rooms and entities are then read on several threads at once, so the bundle
+     * must not be modified while they are loaded, and subclasses that {@link #loadEntityType(String, String)
+     * load types} of their own must either make them safe to load concurrently or exclude them with
+     * {@link #isParallelEntityType(String)} and {@link #isParallelRoomType(String)}.
+     */
+    public void setParallelLoading(boolean parallelLoading) {
+        this.parallelLoading = parallelLoading;
+    }
+
+    public boolean isParallelLoading() {
+        return parallelLoading;
+    }
+
+    /**
+     * Sets whether the "mass effect" methods called hereafter load the rooms and entities they list only when
+     * they are first needed. Lazy loading pays off for worlds of many thousands of rooms, most of which the
+     * player will see little of, or late.
+     * <p/>
+     * When lazy loading, a room is loaded, along with the entities placed in it and the contents of its
+     * containers, when {@link #getRoom(String)} is called for it, or when an exit leading to it is followed
+     * with {@link Room#getExit(int)}; the rooms it leads to are loaded only when their exits are followed in
+     * turn, except that rooms joined by a door are loaded together, as are a locked door or container and its
+     * key. {@link #getEntity(String)} loads an entity along with the room or container it is placed in.
+     * Loading isn't recorded in the {@link ChangeJournal}, and isn't undone. A {@link Pathfinder} follows exits
+     * like anything else, and so loads the rooms it searches.
+     * <p/>
+     * For the rooms and entities it lists to be loaded lazily,
+     * <ul>
+     *     <li>each passage must define a room or entity whose ID is the name of the passage;</li>
+     *     <li>the builder must be {@link #saveTo(Map) saved} in the world data, and loaded rooms are best
+     *         looked up through it, rather than kept in fields;</li>
+     *     <li>delegates and the like should be set on rooms and entities as they are loaded, by a subclass
+     *         that overrides {@link #roomLoaded(BaseRoom)} and {@link #entityLoaded(BaseEntity)}. Since the
+     *         builder is saved with the world, this should be a named class, and not an anonymous one.</li>
+     * </ul>
+     * The {@link #loadRooms(String)}, {@link #loadEntities(String)}, {@link #loadRoomConnections(String)},
+     * {@link #loadEntityPlacements(String)}, and {@link #loadContainerContents(String)} calls that make up
+     * the world should all be made before any room is loaded, which {@link #loadPlayerState(String)} does.
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * Unloads a room that was loaded lazily, with the entities placed in it, if nothing about them has
+     * changed since; they are then loaded again, from the bundle, if they are needed again. Exits of
+     * other rooms that lead to the room will once again load it when followed.
+     * <p/>
+     * A room is not unloaded if it is the player's room, if the room, or any of its entities, has changed
+     * since it was loaded (see {@link #fingerprint(BaseRoom)}), if it holds a door, or if one of its
+     * entities is the key to a lock loaded elsewhere. Any references to the room or its entities kept
+     * outside of the world model (in a game's own fields, or a FrameImageManager, say) must be dropped by
+     * the caller. If {@link GameManager#setJournaledUndo(boolean) journaled undo} is in use, the turns before
+     * the room was unloaded can no longer be undone.
+     * @param roomId ID of the room
+     * @return true if the room was unloaded
+     */
+    public boolean unloadRoom(String roomId) {
+        BaseRoom r = roomIdMap.get(roomId);
+        Long loadedFingerprint = pristineRooms != null ? pristineRooms.get(roomId) : null;
+        if (r == null || loadedFingerprint == null || loadedFingerprint == UNSTABLE ||
+                r == worldState.player.currentRoom || loadedFingerprint != fingerprint(r))
+            return false;
+        Set<BaseEntity> held = Collections.newSetFromMap(new IdentityHashMap<BaseEntity,Boolean>());
+        if (!collectUnloadable(r.entities, held))
+            return false;
+        for (BaseEntity e : entityIdMap.values()) {
+            if (held.contains(e))
+                continue;
+            Entity key = e instanceof Door ? ((Door) e).getKey() : e instanceof Container ? ((Container) e).key : null;
+            if (key != null && held.contains(key))
+                return false;
+        }
+        GameManager gm = Meterman.gm();
+        if (gm.isJournaledUndo())
+            gm.getChangeJournal().stop();  // whose changes may refer to the objects we drop
+        // Exits that lead to the room go back to loading it when followed
+        for (BaseRoom other : roomIdMap.values()) {
+            if (other == r)
+                continue;
+            boolean changed = false;
+            for (int pos = 0; pos < other.exits.length; pos++) {
+                if (other.exits[pos] == r) {
+                    other.exits[pos] = null;
+                    setLazyExit(other, pos, roomId);
+                    changed = true;
+                }
+            }
+            if (changed)
+                other.exitsChanged();
+        }
+        for (BaseEntity e : held)
+            entityIdMap.remove(e.id);
+        roomIdMap.remove(roomId);
+        pristineRooms.remove(roomId);
+        if (r instanceof TurnListener)
+            gm.removeTurnListener((TurnListener) r);  // in case a game has left it registered
+        return true;
+    }
+
+    // Adds the entities in a list, and those in their containers, to a set, returning false if one can't be
+    // unloaded along with the list's holder.
+    private boolean collectUnloadable(EntityList entities, Set<BaseEntity> held) {
+        for (Entity e : entities) {
+            if (!(e instanceof BaseEntity) || e instanceof Door)
+                return false;
+            held.add((BaseEntity) e);
+            if (e instanceof Container && !collectUnloadable(((Container) e).contents, held))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called when a room is loaded lazily (see {@link #setLazyLoading(boolean)}), after its entities
+     * have been placed in it, and the rooms it is joined to by doors have been loaded. Subclasses may
+     * override this method to set delegates and such on the room; the base implementation does nothing.
+     * @param r the room
+     */
+    protected void roomLoaded(BaseRoom r) {
+    }
+
+    /**
+     * Called when an entity is loaded lazily (see {@link #setLazyLoading(boolean)}), after a container's
+     * contents have been put in it, but before the entity is placed in its room. Subclasses may
+     * override this method to set delegates and such on the entity; the base implementation does nothing.
+     * @param e the entity
+     */
+    protected void entityLoaded(BaseEntity e) {
+    }
+
+    /**
+     * Returns a fingerprint of the state of a room and the entities in it, by which {@link #unloadRoom(String)}
+     * tells whether it has changed since it was loaded. Fingerprints are kept in saved games, so they are made
+     * (by {@link #hash(long, Object...)}) only of values that are the same in every run of the program; if the
+     * room holds a value that isn't, the fingerprint is {@link #UNSTABLE}, and the room isn't unloaded.
+     * <p/>
+     * The base implementation covers the fields of the engine's room and entity classes; subclasses that load
+     * room or entity types with state of their own should override it, or {@link #fingerprint(BaseEntity)},
+     * chaining up to the superclass implementation.
+     * @param r the room
+     * @return fingerprint
+     */
+    protected long fingerprint(BaseRoom r) {
+        long h = hash(17, r.id, r.name, r.exitName, r.description, r.attributes, r.properties,
+                      r.delegate != null ? r.delegate.getClass() : null);
+        for (int pos = 0; pos < r.exits.length; pos++) {
+            Room to = r.exits[pos];
+            String toId = to instanceof BaseRoom ? ((BaseRoom) to).id : r.lazyExits != null ? r.lazyExits[pos] : null;
+            h = hash(h, toId, r.exitLabels[pos]);
+        }
+        for (Entity e : r.entities)
+            h = hash(h, e instanceof BaseEntity ? fingerprint((BaseEntity) e) : e);
+        return h;
+    }
+
+    /**
+     * Returns a fingerprint of the state of an entity, and the contents of a container.
+     * @param e the entity
+     * @return fingerprint
+     * @see #fingerprint(BaseRoom)
+     */
+    protected long fingerprint(BaseEntity e) {
+        long h = hash(19, e.id, e.name, e.indefiniteArticle, e.listName, e.description, e.imageName, e.attributes,
+                      e.properties, e.room instanceof BaseRoom ? ((BaseRoom) e.room).id : null,
+                      e.delegate != null ? e.delegate.getClass() : null);
+        if (e instanceof Container) {
+            Container c = (Container) e;
+            h = hash(h, c.inPrep, c.outPrep, c.locked, c.key instanceof BaseEntity ? ((BaseEntity) c.key).id : null);
+            for (Entity ce : c.contents)
+                h = hash(h, ce instanceof BaseEntity ? fingerprint((BaseEntity) ce) : ce);
+        } else if (e instanceof Door) {
+            Door d = (Door) e;
+            h = hash(h, d.open, d.locked);
+        } else if (e instanceof TalkingEntity) {
+            for (TalkTopic t : ((TalkingEntity) e).currentTopics)
+                h = hash(h, t != null ? t.key : null);
+        }
+        return h;
+    }
+
+    /**
+     * Combines the values of some objects into a 64-bit hash. Only values that hash the same in every run are
+     * combined: strings, numbers, booleans, characters, enums, classes (by name), BitSets, rooms and entities
+     * of the engine's classes (by ID), and lists, sets, maps, and arrays of these. Any other value, or a hash
+     * of {@code UNSTABLE}, makes the result {@link #UNSTABLE}.
+     * @param h the hash to combine the values into
+     * @param objects values, which may be null
+     * @return combined hash
+     */
+    protected static long hash(long h, Object... objects) {
+        for (Object o : objects) {
+            if (h == UNSTABLE)
+                break;
+            long v = valueHash(o);
+            h = v == UNSTABLE ? UNSTABLE : mix(h, v);
+        }
+        return h;
+    }
+
+    /** The fingerprint of a room that holds a value which can't be hashed the same way in every run. */
+    protected static final long UNSTABLE = Long.MIN_VALUE;
+
+    // Hashes a value by its contents, or returns UNSTABLE if it has no hash that is the same in every run
+    private static long valueHash(Object o) {
+        if (o == null)
+            return 0;
+        if (o instanceof String) {
+            String s = (String) o;
+            long h = 0xCBF29CE484222325L;  // FNV-1a
+            for (int i = 0; i < s.length(); i++)
+                h = (h ^ s.charAt(i)) * 0x100000001B3L;
+            return mix(h, s.length());
+        }
+        if (o instanceof Long && (Long) o == UNSTABLE)
+            return UNSTABLE;  // as from a fingerprint of an unstable entity
+        if (o instanceof Double || o instanceof Float)
+            return Double.doubleToLongBits(((Number) o).doubleValue());
+        if (o instanceof BigInteger || o instanceof BigDecimal)
+            return valueHash(o.toString());
+        if (o instanceof Number)
+            return ((Number) o).longValue();
+        if (o instanceof Boolean)
+            return (Boolean) o ? 1 : 2;
+        if (o instanceof Character)
+            return (Character) o;
+        if (o instanceof Enum)
+            return mix(valueHash(((Enum<?>) o).getDeclaringClass().getName()), valueHash(((Enum<?>) o).name()));
+        if (o instanceof Class)
+            return valueHash(((Class<?>) o).getName());
+        if (o instanceof BitSet) {
+            long h = 23;
+            for (long word : ((BitSet) o).toLongArray())
+                h = mix(h, word);
+            return h;
+        }
+        if (o instanceof BaseEntity)
+            return mix(29, valueHash(((BaseEntity) o).id));
+        if (o instanceof BaseRoom)
+            return mix(31, valueHash(((BaseRoom) o).id));
+        if (o instanceof List || o instanceof Object[]) {
+            long h = 37;
+            for (Object e : o instanceof List ? (List<?>) o : Arrays.asList((Object[]) o)) {
+                long v = valueHash(e);
+                if (v == UNSTABLE)
+                    return UNSTABLE;
+                h = mix(h, v);
+            }
+            return h;
+        }
+        if (o instanceof Set || o instanceof Map) {
+            // Summed, so that the hash doesn't depend on the order of iteration, which can change on loading
+            long h = 0;
+            for (Object e : o instanceof Set ? (Set<?>) o : ((Map<?,?>) o).entrySet()) {
+                long v;
+                if (e instanceof Map.Entry) {
+                    long k = valueHash(((Map.Entry<?,?>) e).getKey());
+                    v = valueHash(((Map.Entry<?,?>) e).getValue());
+                    v = k == UNSTABLE || v == UNSTABLE ? UNSTABLE : mix(k, v);
+                } else {
+                    v = valueHash(e);
+                }
+                if (v == UNSTABLE)
+                    return UNSTABLE;
+                h += mix(41, v);
+            }
+            return mix(o instanceof Set ? 43 : 47, h);
+        }
+        return UNSTABLE;
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
     /**
      * Load and return a BaseEntity from JSON data in the bundle
      * @param passageName name of the passage under which the JSON data is to be found
@@ -179,7 +531,7 @@ public class WorldBuilder
      * @see #getEntityAttributeVal(String)
      */
     public JsonObject readEntityDataFromBundle(BaseEntity e, String passageName) {
-        String json = foldEscapedNewlines(bundle.getPassage(passageName));
+        String json = foldEscapedNewlines(getBundle().getPassage(passageName));
         try {
             JsonObject o = Json.parse(json).asObject();
             e.id = getJsonString(o.get("id"), passageName);
@@ -289,7 +641,7 @@ public class WorldBuilder
      */
     public Map<String,TalkTopic> loadTopicMap(String passageName) {
         Map<String,TalkTopic> topicMap = new HashMap<>();
-        String json = foldEscapedNewlines(bundle.getPassage(passageName));
+        String json = foldEscapedNewlines(getBundle().getPassage(passageName));
         try {
             JsonObject topicMapObj = Json.parse(json).asObject();
             // On the first pass we just gather up the keys, labels, and text, and put
@@ -518,7 +870,7 @@ public class WorldBuilder
      * @see #getRoomAttributeVal(String)
      */
     public JsonObject readRoomDataFromBundle(BaseRoom r, String passageName) {
-        String json = foldEscapedNewlines(bundle.getPassage(passageName));
+        String json = foldEscapedNewlines(getBundle().getPassage(passageName));
         try {
             JsonObject o = Json.parse(json).asObject();
             r.id = getJsonString(o.get("id"), passageName);
@@ -613,6 +965,8 @@ public class WorldBuilder
         r1.exitLabels[pos1] = label1;
         r2.exits[pos2] = r1;
         r2.exitLabels[pos2] = label2;
+        setLazyExit(r1, pos1, null);
+        setLazyExit(r2, pos2, null);
     }
 
     /**
@@ -637,6 +991,7 @@ public class WorldBuilder
         BaseRoom r2 = getRoom(roomId2);
         r1.exits[pos1] = r2;
         r1.exitLabels[pos1] = label;
+        setLazyExit(r1, pos1, null);
     }
 
     /**
@@ -658,6 +1013,8 @@ public class WorldBuilder
         // Exit labels don't work with rooms that are connected by a door
         r1.exitLabels[pos1] = null;
         r2.exitLabels[pos2] = null;
+        setLazyExit(r1, pos1, null);
+        setLazyExit(r2, pos2, null);
         if (d.isLocked()) {
             r1.exits[pos1] = null;
             r2.exits[pos2] = null;
@@ -704,20 +1061,7 @@ public class WorldBuilder
      * @see #loadRoomType(String, String)
      */
     public void loadRooms(String passageName) {
-        String json = bundle.getPassage(passageName);
-        try {
-            JsonArray passageList = Json.parse(json).asArray();
-            for (JsonValue v : passageList) {
-                String p = v.asString();
-                int idx = p.indexOf(':');
-                if (idx == -1)
-                    loadRoomType(p, "");
-                else
-                    loadRoomType(p.substring(0, idx), p.substring(idx + 1));
-            }
-        } catch (ParseException|UnsupportedOperationException ex) {
-            logger.log(Level.WARNING, "JSON error, loadRooms()", ex);
-        }
+        loadList(passageName, false);
     }
 
     /**
@@ -745,22 +1089,77 @@ public class WorldBuilder
      * @see #loadEntityType(String, String)
      */
     public void loadEntities(String passageName) {
-        String json = bundle.getPassage(passageName);
+        loadList(passageName, true);
+    }
+
+    // Loads the entities or rooms listed in a passage, for loadEntities() and loadRooms()
+    private void loadList(String passageName, boolean entities) {
+        if (lazyLoading) {
+            indexLazily(entities ? ENTITY_LIST : ROOM_LIST, passageName);
+            return;
+        }
+        String[][] list = parseList(passageName, entities);
+        if (list == null)
+            return;
+        String[] names = list[0], types = list[1];
+        if (parallelLoading && names.length > 1) {
+            List<?>[] staged = new List<?>[names.length];
+            getBundle();  // so it's reattached here, and not by each loading thread
+            getLoadingPool().invoke(new LoadTask(MetermanSession.current(), entities, names, types, staged, 0, names.length));
+            // Now, in list order, we put what was loaded in parallel and load the rest, just as if
+            // everything had been loaded serially.
+            for (int i = 0; i < names.length; i++) {
+                if (staged[i] == null) {
+                    loadType(entities, names[i], types[i]);
+                    continue;
+                }
+                for (Object o : staged[i]) {
+                    if (o instanceof BaseEntity)
+                        putEntity((BaseEntity) o);
+                    else
+                        putRoom((BaseRoom) o);
+                }
+            }
+        } else {
+            for (int i = 0; i < names.length; i++)
+                loadType(entities, names[i], types[i]);
+        }
+    }
+
+    // Returns the passage names listed in a passage, and their type suffixes, or null on an error
+    private String[][] parseList(String passageName, boolean entities) {
+        String json = getBundle().getPassage(passageName);
         try {
             JsonArray passageList = Json.parse(json).asArray();
-            for (JsonValue v : passageList) {
-                String p = v.asString();
+            int n = passageList.size();
+            String[] names = new String[n];
+            String[] types = new String[n];
+            for (int i = 0; i < n; i++) {
+                String p = passageList.get(i).asString();
                 int idx = p.indexOf(':');
-                if (idx == -1)
-                    loadEntityType(p, "");
-                else
-                    loadEntityType(p.substring(0, idx), p.substring(idx + 1));
+                names[i] = idx == -1 ? p : p.substring(0, idx);
+                types[i] = idx == -1 ? "" : p.substring(idx + 1);
             }
+            return new String[][] {names, types};
         } catch (ParseException|UnsupportedOperationException ex) {
-            logger.log(Level.WARNING, "JSON error, loadEntities()", ex);
+            logger.log(Level.WARNING, entities ? "JSON error, loadEntities()" : "JSON error, loadRooms()", ex);
+            return null;
         }
     }
 
+    private void loadType(boolean entity, String passageName, String typeStr) {
+        if (entity)
+            loadEntityType(passageName, typeStr);
+        else
+            loadRoomType(passageName, typeStr);
+    }
+
+    private static synchronized ForkJoinPool getLoadingPool() {
+        if (loadingPool == null)
+            loadingPool = new ForkJoinPool();
+        return loadingPool;
+    }
+
     /**
      * Places entities into rooms based on a JSON definition given in a passage bundle.
      * A definition entry looks like this:
@@ -776,21 +1175,12 @@ public class WorldBuilder
      * @param passageName
      */
     public void loadEntityPlacements(String passageName) {
-        String json = bundle.getPassage(passageName);
-        try {
-            JsonArray placementList = Json.parse(json).asArray();
-            for (JsonValue v : placementList) {
-                JsonArray arr = v.asArray();
-                int n = arr.size();
-                String roomId = arr.get(0).asString();
-                String[] entityIds = new String[n-1];
-                for (int i = 1; i < n; i++)
-                    entityIds[i-1] = arr.get(i).asString();
-                putEntitiesInRoom(roomId, entityIds);
-            }
-        } catch (ParseException|UnsupportedOperationException|IndexOutOfBoundsException ex) {
-            logger.log(Level.WARNING, "JSON error, loadEntityPlacements()", ex);
+        if (lazyLoading) {
+            indexLazily(PLACEMENTS, passageName);
+            return;
         }
+        for (String[] ids : parseIdLists(passageName, "loadEntityPlacements()"))
+            putEntitiesInRoom(ids[0], Arrays.copyOfRange(ids, 1, ids.length));
     }
 
     /**
@@ -806,26 +1196,46 @@ public class WorldBuilder
      * @param passageName
      */
     public void loadContainerContents(String passageName) {
-        String json = bundle.getPassage(passageName);
+        if (lazyLoading) {
+            indexLazily(CONTENTS, passageName);
+            return;
+        }
         try {
-            JsonArray contentsList = Json.parse(json).asArray();
-            for (JsonValue v : contentsList) {
-                JsonArray arr = v.asArray();
-                int n = arr.size();
-                Container c = (Container) getEntity(arr.get(0).asString());
-                for (int i = 1; i < n; i++) {
-                    Entity e = getEntity(arr.get(i).asString());
+            for (String[] ids : parseIdLists(passageName, "loadContainerContents()")) {
+                Container c = (Container) getEntity(ids[0]);
+                for (int i = 1; i < ids.length; i++) {
+                    Entity e = getEntity(ids[i]);
                     if (e != null && !c.contents.contains(e))
                         c.contents.add(e);
                 }
             }
-        } catch (ParseException | UnsupportedOperationException | IndexOutOfBoundsException ex) {
-            logger.log(Level.WARNING, "JSON error, loadContainerContents()", ex);
         } catch (ClassCastException ex) {
             logger.log(Level.WARNING, "Invalid containerId, loadContainerContents()", ex);
         }
     }
 
+    // Returns the lists of IDs, each headed by the ID of the room or container they are put in, given in a
+    // definition passage of loadEntityPlacements() or loadContainerContents(); on an error, returns those
+    // lists that came before it.
+    private List<String[]> parseIdLists(String passageName, String method) {
+        List<String[]> lists = new ArrayList<>();
+        String json = getBundle().getPassage(passageName);
+        try {
+            JsonArray listList = Json.parse(json).asArray();
+            for (JsonValue v : listList) {
+                JsonArray arr = v.asArray();
+                String[] ids = new String[arr.size()];
+                ids[0] = arr.get(0).asString();
+                for (int i = 1; i < ids.length; i++)
+                    ids[i] = arr.get(i).asString();
+                lists.add(ids);
+            }
+        } catch (ParseException|UnsupportedOperationException|IndexOutOfBoundsException ex) {
+            logger.log(Level.WARNING, "JSON error, " + method, ex);
+        }
+        return lists;
+    }
+
     /**
      * Loads a room-connection defintion from JSON in a bundle passage, and connects the rooms
      * given in the defintion. A defintion entry looks like this:
@@ -864,52 +1274,61 @@ public class WorldBuilder
      * @param passageName name of the passage under which the JSON definition is to be found
      */
     public void loadRoomConnections(String passageName) {
-        String json = bundle.getPassage(passageName);
+        if (lazyLoading) {
+            indexLazily(CONNECTIONS, passageName);
+            return;
+        }
+        try {
+            for (Connection c : parseRoomConnections(passageName)) {
+                if (c.oneWay)
+                    connectRoomsOneWay(c.roomId1, c.pos1, c.exitLabel1, c.roomId2);
+                else if (c.doorId == null)
+                    connectRooms(c.roomId1, c.pos1, c.exitLabel1, c.roomId2, c.pos2, c.exitLabel2);
+                else
+                    connectRoomsWithDoor(c.doorId, c.roomId1, c.pos1, c.roomId2, c.pos2);
+            }
+        } catch (IndexOutOfBoundsException ex) {  // from an invalid position
+            logger.log(Level.WARNING, "JSON error, loadRoomConnections()", ex);
+        }
+    }
+
+    // Returns the connections given in a room-connection definition; on an error, returns those that came before it
+    private List<Connection> parseRoomConnections(String passageName) {
+        List<Connection> connections = new ArrayList<>();
+        String json = getBundle().getPassage(passageName);
         try {
             JsonArray connectionList = Json.parse(json).asArray();
             for (JsonValue connectionVal : connectionList) {
-                String roomId1, roomId2;
-                int pos1 = -1, pos2 = -1;
-                String exitLabel1 = null, exitLabel2 = null;
-                String doorId = null;
-                boolean oneWay;
-
+                Connection c = new Connection();
                 JsonObject connectionObj = connectionVal.asObject();
                 JsonValue v;
                 JsonArray arr;
                 arr = connectionObj.get("rooms").asArray();
-                roomId1 = arr.get(0).asString();
-                roomId2 = arr.get(1).asString();
+                c.roomId1 = arr.get(0).asString();
+                c.roomId2 = arr.get(1).asString();
                 arr = connectionObj.get("positions").asArray();
-                oneWay = arr.size() == 1;
-                pos1 = UIConstants.buttonTextToPosition(arr.get(0).asString());
-                if (!oneWay)
-                    pos2 = UIConstants.buttonTextToPosition(arr.get(1).asString());
+                c.oneWay = arr.size() == 1;
+                c.pos1 = UIConstants.buttonTextToPosition(arr.get(0).asString());
+                if (!c.oneWay)
+                    c.pos2 = UIConstants.buttonTextToPosition(arr.get(1).asString());
                 v = connectionObj.get("exitLabels");
                 if (v != null) {
                     arr = v.asArray();
-                    exitLabel1 = arr.get(0).asString();
+                    c.exitLabel1 = arr.get(0).asString();
                     if (arr.size() == 2)
-                        exitLabel2 = arr.get(1).asString();
+                        c.exitLabel2 = arr.get(1).asString();
                 }
-                if (!oneWay) {
+                if (!c.oneWay) {
                     v = connectionObj.get("door");
                     if (v != null)
-                        doorId = v.asString();
-                }
-                // Now we do the actual connection.
-                if (oneWay) {
-                    connectRoomsOneWay(roomId1, pos1, exitLabel1, roomId2);
-                } else {
-                    if (doorId == null)
-                        connectRooms(roomId1, pos1, exitLabel1, roomId2, pos2, exitLabel2);
-                    else
-                        connectRoomsWithDoor(doorId, roomId1, pos1, roomId2, pos2);
+                        c.doorId = v.asString();
                 }
+                connections.add(c);
             }
         } catch (ParseException|UnsupportedOperationException|IndexOutOfBoundsException ex) {
             logger.log(Level.WARNING, "JSON error, loadRoomConnections()", ex);
         }
+        return connections;
     }
 
     /**
@@ -927,7 +1346,7 @@ public class WorldBuilder
      * @param passageName name of the passage under which the JSON definition is to be found
      */
     public void loadPlayerState(String passageName) {
-        String json = bundle.getPassage(passageName);
+        String json = getBundle().getPassage(passageName);
         try {
             JsonObject o = Json.parse(json).asObject();
             Player player = worldState.player;
@@ -1008,6 +1427,36 @@ public class WorldBuilder
         }
     }
 
+    /**
+     * Returns true if entities of the given type may be loaded in parallel with others, when
+     * {@link #setParallelLoading(boolean) parallel loading} is enabled. That is the case for types whose
+     * loading refers to no other entity, and has no effects beyond constructing the entity and
+     * {@link #putEntity(BaseEntity) putting} it.
+     * <p/>
+     * Subclasses of WorldBuilder that provide new entity types should override this method (chaining up to
+     * the superclass implementation) to return false for types that do not meet these conditions.
+     * @param typeStr a string indicating what type of entity to load (ex. "door").
+     */
+    protected boolean isParallelEntityType(String typeStr) {
+        switch (typeStr.toLowerCase()) {
+        case "door":
+        case "container":
+            return false;  // these look up their key entities
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if rooms of the given type may be loaded in parallel with others, when
+     * {@link #setParallelLoading(boolean) parallel loading} is enabled.
+     * @param typeStr a string indicating what type of room to load (ex. "dark").
+     * @see #isParallelEntityType(String)
+     */
+    protected boolean isParallelRoomType(String typeStr) {
+        return true;
+    }
+
     /**
      * Called by {@link #loadRooms} to load a BaseRoom or subclass from a passage.
      * <p/>
@@ -1034,8 +1483,6 @@ public class WorldBuilder
      * @return text with escaped newlines folded
      */
     protected String foldEscapedNewlines(String s) {
-        if (escapedNewlinesPattern == null)
-            escapedNewlinesPattern = Pattern.compile("\\\\\\n\\s*");
         return escapedNewlinesPattern.matcher(s).replaceAll("");
     }
 
@@ -1051,7 +1498,7 @@ public class WorldBuilder
     protected String retrieveTextOrDefault(JsonObject o, String name, String defaultPassageName) {
         JsonValue v = o.get(name);
         if (v == null)
-            return bundle.getPassage(defaultPassageName);
+            return getBundle().getPassage(defaultPassageName);
         else
             return getJsonString(v);
     }
@@ -1086,7 +1533,7 @@ public class WorldBuilder
             Arrays.fill(retrievedMultiStrings, null);
         JsonValue v = o.get(name);
         if (v == null || !v.isArray()) {
-            Arrays.fill(retrievedMultiStrings, 0, numStrings, bundle.getPassage(defaultPassageName));
+            Arrays.fill(retrievedMultiStrings, 0, numStrings, getBundle().getPassage(defaultPassageName));
         } else {
             JsonArray arr = v.asArray();
             if (arr.size() == 0) {
@@ -1123,7 +1570,7 @@ public class WorldBuilder
             if (s.isEmpty())
                 return defaultString;
             else
-                return bundle.getPassage(s);
+                return getBundle().getPassage(s);
         } else {
             return s;
         }
@@ -1138,4 +1585,288 @@ public class WorldBuilder
         else
             return v.asString();
     }
+
+    //region -- Lazy loading --
+
+    // Notes a definition passage when lazy loading, and indexes it
+    private void indexLazily(String kind, String passageName) {
+        LazyIndex index = lazyIndex();
+        if (lazyPassages == null) {
+            lazyPassages = new ArrayList<>();
+            pristineRooms = new HashMap<>();
+        }
+        lazyPassages.add(kind + ':' + passageName);
+        indexPassage(index, kind, passageName);
+    }
+
+    // Returns the index of the passages noted by indexLazily(), making it if need be, as after the
+    // builder has been deserialized.
+    private LazyIndex lazyIndex() {
+        if (lazyIndex == null) {
+            lazyIndex = new LazyIndex();
+            if (lazyPassages != null) {
+                for (String s : lazyPassages) {
+                    int idx = s.indexOf(':');
+                    indexPassage(lazyIndex, s.substring(0, idx), s.substring(idx + 1));
+                }
+            }
+        }
+        return lazyIndex;
+    }
+
+    private void indexPassage(LazyIndex index, String kind, String passageName) {
+        switch (kind) {
+        case ROOM_LIST:
+        case ENTITY_LIST:
+            String[][] list = parseList(passageName, kind.equals(ENTITY_LIST));
+            if (list != null) {
+                Map<String,String> types = kind.equals(ENTITY_LIST) ? index.entityTypes : index.roomTypes;
+                for (int i = 0; i < list[0].length; i++)
+                    types.put(list[0][i], list[1][i]);
+            }
+            break;
+        case CONNECTIONS:
+            for (Connection c : parseRoomConnections(passageName)) {
+                addToIndex(index.connections, c.roomId1, c);
+                if (!c.roomId2.equals(c.roomId1))
+                    addToIndex(index.connections, c.roomId2, c);
+            }
+            break;
+        case PLACEMENTS:
+        case CONTENTS:
+            boolean placements = kind.equals(PLACEMENTS);
+            Map<String,List<String>> held = placements ? index.roomEntities : index.containerContents;
+            Map<String,String> holders = placements ? index.entityRooms : index.entityContainers;
+            for (String[] ids : parseIdLists(passageName, placements ? "loadEntityPlacements()" : "loadContainerContents()")) {
+                for (int i = 1; i < ids.length; i++) {
+                    addToIndex(held, ids[0], ids[i]);
+                    holders.put(ids[i], ids[0]);
+                }
+            }
+            break;
+        }
+    }
+
+    private static <T> void addToIndex(Map<String,List<T>> map, String key, T value) {
+        List<T> l = map.get(key);
+        if (l == null) {
+            l = new ArrayList<>(4);
+            map.put(key, l);
+        }
+        l.add(value);
+    }
+
+    // Loads a room listed when lazy loading, with its entities and its connections to other rooms
+    private BaseRoom loadRoomLazily(String roomId) {
+        LazyIndex index = lazyIndex();
+        String type = index.roomTypes.get(roomId);
+        if (type == null)
+            return null;
+        ChangeJournal j = ChangeJournal.active();  // loading isn't a change to be undone
+        if (j != null)
+            j.suspend();
+        try {
+            loadRoomType(roomId, type);
+            BaseRoom r = roomIdMap.get(roomId);
+            if (r == null) {
+                logger.warning("WorldBuilder: passage " + roomId + " doesn't define a room with that ID");
+                index.roomTypes.remove(roomId);
+                return null;
+            }
+            List<Connection> connections = index.connections.get(roomId);
+            if (connections != null)
+                for (Connection c : connections)
+                    connectLazily(r, c);
+            List<String> entityIds = index.roomEntities.get(roomId);
+            if (entityIds != null) {
+                for (String id : entityIds) {
+                    if (entityIdMap.containsKey(id))
+                        continue;  // it was loaded, and so placed, already
+                    BaseEntity e = loadEntityLazily(id);
+                    if (e != null && !r.entities.contains(e)) {
+                        r.entities.add(e);
+                        e.setRoom(r);
+                    }
+                }
+            }
+            roomLoaded(r);
+            pristineRooms.put(roomId, fingerprint(r));
+            return r;
+        } finally {
+            if (j != null)
+                j.resume();
+        }
+    }
+
+    // Makes the exit of a room just loaded that a connection gives it, loading a room joined to it by a door
+    private void connectLazily(BaseRoom r, Connection c) {
+        boolean first = c.roomId1.equals(r.id);
+        if (c.doorId != null) {
+            Entity d = getEntity(c.doorId);
+            // Loading the other room connects the door, if the other room wasn't already loaded
+            BaseRoom other = getRoom(first ? c.roomId2 : c.roomId1);
+            if (d instanceof Door && other != null && !r.entities.contains(d))
+                connectRoomsWithDoor(c.doorId, c.roomId1, c.pos1, c.roomId2, c.pos2);
+            return;
+        }
+        if (!first && c.oneWay)
+            return;  // which leads to this room, from the other
+        int pos = first ? c.pos1 : c.pos2;
+        String toId = first ? c.roomId2 : c.roomId1;
+        r.exitLabels[pos] = first ? c.exitLabel1 : c.exitLabel2;
+        BaseRoom to = roomIdMap.get(toId);
+        if (to != null)
+            r.exits[pos] = to;
+        else
+            setLazyExit(r, pos, toId);
+    }
+
+    // Sets, or clears, the ID of the room not yet loaded to which an exit leads
+    private void setLazyExit(BaseRoom r, int pos, String roomId) {
+        if (r.lazyExits == null) {
+            if (roomId == null)
+                return;
+            r.lazyExits = new String[r.exits.length];
+        }
+        r.lazyExits[pos] = roomId;
+        r.exitLoader = this;
+    }
+
+    /** Called by {@link BaseRoom#getExit(int)} to load the room to which an exit leads. */
+    Room loadExit(BaseRoom r, int pos) {
+        BaseRoom to = getRoom(r.lazyExits[pos]);
+        r.exits[pos] = to;
+        r.lazyExits[pos] = null;
+        return to;
+    }
+
+    // Loads an entity listed when lazy loading, along with the room or container it is placed in if they
+    // aren't loaded, and the contents of a container.
+    private BaseEntity loadEntityLazily(String entityId) {
+        LazyIndex index = lazyIndex();
+        String type = index.entityTypes.get(entityId);
+        if (type == null)
+            return null;
+        String roomId = index.entityRooms.get(entityId);
+        if (roomId != null && !roomIdMap.containsKey(roomId) && getRoom(roomId) != null)
+            return entityIdMap.get(entityId);
+        String containerId = index.entityContainers.get(entityId);
+        if (containerId != null && !entityIdMap.containsKey(containerId) && getEntity(containerId) != null)
+            return entityIdMap.get(entityId);
+        ChangeJournal j = ChangeJournal.active();
+        if (j != null)
+            j.suspend();
+        try {
+            loadEntityType(entityId, type);
+            BaseEntity e = entityIdMap.get(entityId);
+            if (e == null) {
+                logger.warning("WorldBuilder: passage " + entityId + " doesn't define an entity with that ID");
+                index.entityTypes.remove(entityId);
+                return null;
+            }
+            List<String> contentIds = index.containerContents.get(entityId);
+            if (contentIds != null && e instanceof Container) {
+                Container c = (Container) e;
+                for (String id : contentIds) {
+                    if (entityIdMap.containsKey(id))
+                        continue;
+                    BaseEntity ce = loadEntityLazily(id);
+                    if (ce != null && !c.contents.contains(ce))
+                        c.contents.add(ce);
+                }
+            }
+            entityLoaded(e);
+            return e;
+        } finally {
+            if (j != null)
+                j.resume();
+        }
+    }
+
+    /** A connection between rooms, as given in a room-connection definition. */
+    private static final class Connection
+    {
+        String roomId1, roomId2;
+        int pos1, pos2;
+        boolean oneWay;
+        String exitLabel1, exitLabel2;
+        String doorId;
+    }
+
+    /** What a lazily loading builder knows of the rooms and entities it lists, from their definition passages. */
+    private static final class LazyIndex
+    {
+        final Map<String,String> roomTypes = new HashMap<>();    // room ID to type suffix
+        final Map<String,String> entityTypes = new HashMap<>();  // entity ID to type suffix
+        final Map<String,List<Connection>> connections = new HashMap<>();  // by the ID of either room
+        final Map<String,List<String>> roomEntities = new HashMap<>();       // room ID to entity IDs
+        final Map<String,List<String>> containerContents = new HashMap<>();  // container ID to entity IDs
+        final Map<String,String> entityRooms = new HashMap<>();       // entity ID to room ID
+        final Map<String,String> entityContainers = new HashMap<>();  // entity ID to container ID
+    }
+
+    //endregion
+
+    private static final class StagedPuts
+    {
+        final WorldBuilder builder;
+        final List<Object> items;
+
+        StagedPuts(WorldBuilder builder) {
+            this.builder = builder;
+            items = new ArrayList<>(2);
+        }
+    }
+
+    /** Loads a range of the passages of a room or entity list, splitting it among the pool's threads. */
+    @SuppressWarnings("serial")  // ForkJoinTask is Serializable, but our tasks are never serialized
+    private final class LoadTask extends RecursiveAction
+    {
+        private static final int THRESHOLD = 8;  // passages loaded by a task without further splitting
+
+        private final MetermanSession session;
+        private final boolean entities;
+        private final String[] names, types;
+        private final List<?>[] staged;
+        private final int lo, hi;
+
+        LoadTask(MetermanSession session, boolean entities, String[] names, String[] types,
+                 List<?>[] staged, int lo, int hi) {
+            this.session = session;
+            this.entities = entities;
+            this.names = names;
+            this.types = types;
+            this.staged = staged;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new LoadTask(session, entities, names, types, staged, lo, mid),
+                          new LoadTask(session, entities, names, types, staged, mid, hi));
+                return;
+            }
+            // Entities and rooms record their changes in the journal of the session's game
+            MetermanSession previous = session != null ? session.bind() : null;
+            try {
+                for (int i = lo; i < hi; i++) {
+                    if (!(entities ? isParallelEntityType(types[i]) : isParallelRoomType(types[i])))
+                        continue;
+                    StagedPuts puts = new StagedPuts(WorldBuilder.this);
+                    stagedPuts.set(puts);
+                    try {
+                        loadType(entities, names[i], types[i]);
+                    } finally {
+                        stagedPuts.remove();
+                    }
+                    staged[i] = puts.items;
+                }
+            } finally {
+                if (session != null)
+                    MetermanSession.restore(previous);
+            }
+        }
+    }
 }
@@ -47,6 +47,7 @@ public interface MetermanUI
 
     /**
      * Load an image into the UI. JPEG and PNG (with bitmask transparency) are supported.
+     * The UI may put off decoding the image until it is first shown or prefetched.
      * @param name name by which the image will be referred to in the {@code setXXXImage()} methods.
      * @param p path of the image file.
      */
@@ -61,6 +62,12 @@ public interface MetermanUI
     /** Unload all images from the UI. */
     void unloadAllImages();
 
+    /**
+     * Hints that an image is likely to be shown soon, so that the UI can decode it ahead of time.
+     * @param imageName name of the image, as chosen in {@link #loadImage(String, Path)}
+     */
+    void prefetchImage(String imageName);
+
     /**
      * Sets the image displayed in the main UI frame. The recommended size for
      * frame images is 150x400 pixels, or an integer fraction of that, in which
@@ -154,6 +161,15 @@ public interface MetermanUI
      */
     void refreshRoomEntity(Entity e);
 
+    /**
+     * Replaces the entities in the list of entities in the current room, with the same effect as
+     * {@link #clearRoomEntities()} followed by {@link #addRoomEntity(Entity)} for each entity, but updating
+     * the list all at once. If the list is unchanged, implementations may leave it be, but must still
+     * clear the selection if a room entity is selected, as clearing the list would.
+     * @param entities entities to list, in order; the list is not kept by the UI
+     */
+    void setRoomEntities(List<Entity> entities);
+
     /**
      * Clears the list displaying Entities in the player's inventory.
      */
@@ -181,6 +197,16 @@ public interface MetermanUI
      */
     void refreshInventoryEntity(Entity e, String modifiers);
 
+    /**
+     * Replaces the entities in the list of entities in the player's inventory, with the same effect as
+     * {@link #clearInventoryEntities()} followed by {@link #addInventoryEntity(Entity, String)} for each
+     * entity, but updating the list all at once.
+     * @param entities entities to list, in order; the list is not kept by the UI
+     * @param modifiers the modifiers of each entity, as passed to {@link #addInventoryEntity(Entity, String)}
+     * @see #setRoomEntities(List)
+     */
+    void setInventoryEntities(List<Entity> entities, List<String> modifiers);
+
     /**
      * Cause a given entity to be selected in the UI, if it is present in the room
      * or inventory lists.
@@ -223,6 +249,13 @@ public interface MetermanUI
      */
     void removeAction(String actionLabel);
 
+    /**
+     * Replaces the actions in the action button list, with the same effect as {@link #clearActions()}
+     * followed by {@link #addAction(String)} for each action, but updating the buttons all at once.
+     * @param actionLabels actions to show, in order; the list is not kept by the UI
+     */
+    void setActions(List<String> actionLabels);
+
     /**
      * Sets one of the three status bar labels.
      * @param labelPosition one of {@link UIConstants#LEFT_LABEL},
@@ -0,0 +1,336 @@
+package com.illcode.meterman.ui.headless;
+
+import com.illcode.meterman.Entity;
+import com.illcode.meterman.Meterman;
+import com.illcode.meterman.ui.MetermanUI;
+import com.illcode.meterman.ui.UIConstants;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A MetermanUI that displays nothing, but keeps the state a real UI would show (text, room and inventory lists,
+ * exits, actions) in memory, so that a game can be driven and inspected programmatically.
+ * <p/>
+ * Because there is no user to answer dialogs, responses for list and prompt dialogs are taken, in order,
+ * from a queue filled by {@link #queueDialogResponse(String)}. A list dialog with no queued response is
+ * cancelled (or, if it has no cancel button, answered with its first item), and a prompt dialog returns
+ * its initial text. Text dialogs are appended to the output.
+ * <p/>
+ * So that text can be examined even after a game has cleared the screen, {@link #clearText()} does not
+ * discard the output; {@link #clearOutput()} does.
+ */
+public class HeadlessUI implements MetermanUI
+{
+    private StringBuilder output;
+    private String gameName, roomName, objectName, objectText;
+    private String frameImage, entityImage;
+    private List<Entity> roomEntities, inventoryEntities;
+    private Entity selectedEntity;
+    private String[] exitLabels;
+    private List<String> actions;
+    private String[] statusLabels;
+    private LinkedList<String> dialogResponses;
+
+    public HeadlessUI() {
+        output = new StringBuilder(8192);
+        roomEntities = new ArrayList<>();
+        inventoryEntities = new ArrayList<>();
+        exitLabels = new String[UIConstants.NUM_EXIT_BUTTONS];
+        actions = new ArrayList<>(16);
+        statusLabels = new String[3];
+        dialogResponses = new LinkedList<>();
+    }
+
+    public void init() {
+        frameImage = UIConstants.NO_IMAGE;
+        entityImage = UIConstants.NO_IMAGE;
+    }
+
+    public void dispose() {
+        output.setLength(0);
+        roomEntities.clear();
+        inventoryEntities.clear();
+        actions.clear();
+        dialogResponses.clear();
+    }
+
+    /** There is no event loop to run; returns true so that the caller shuts down if it wishes. */
+    public boolean run() {
+        return true;
+    }
+
+    //region -- Headless-specific methods --
+
+    /** Returns the text that has been appended since the last {@link #clearOutput()}. */
+    public CharSequence getOutput() {
+        return output;
+    }
+
+    /** Discards the text that has been appended so far. */
+    public void clearOutput() {
+        output.setLength(0);
+    }
+
+    /**
+     * Queues a response to be used by the next list or prompt dialog shown. For a list dialog, the
+     * response should be the name of the item to choose.
+     */
+    public void queueDialogResponse(String response) {
+        dialogResponses.add(response);
+    }
+
+    public String getGameName() {
+        return gameName;
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public String getObjectText() {
+        return objectText;
+    }
+
+    /** Returns the entities currently listed as being in the room. */
+    public List<Entity> getRoomEntities() {
+        return roomEntities;
+    }
+
+    /** Returns the entities currently listed in the player inventory. */
+    public List<Entity> getInventoryEntities() {
+        return inventoryEntities;
+    }
+
+    /** Returns the entity currently selected in the room or inventory list, or null if none. */
+    public Entity getSelectedEntity() {
+        return selectedEntity;
+    }
+
+    /**
+     * Returns the label of an exit button.
+     * @param buttonPos button position (ex. {@link UIConstants#NW_BUTTON})
+     * @return label, or null if the button is hidden
+     */
+    public String getExitLabel(int buttonPos) {
+        return exitLabels[buttonPos];
+    }
+
+    /** Returns the actions currently available for the selected entity. */
+    public List<String> getActions() {
+        return actions;
+    }
+
+    public String getStatusLabel(int labelPosition) {
+        return statusLabels[labelPosition];
+    }
+
+    /**
+     * Selects an entity in the room or inventory list, as if the user had clicked on it.
+     * @param e entity to select
+     * @return true if the entity is listed, and thus could be selected
+     */
+    public boolean userSelectEntity(Entity e) {
+        if (!roomEntities.contains(e) && !inventoryEntities.contains(e))
+            return false;
+        selectEntity(e);
+        return true;
+    }
+
+    //endregion
+
+    // Called when a game is opened or closed, at which point nothing is selected
+    public void setGameName(String name) {
+        gameName = name;
+        selectedEntity = null;
+    }
+
+    public void openURL(String url) {
+    }
+
+    public void loadImage(String name, Path p) {
+    }
+
+    public void unloadImage(String name) {
+    }
+
+    public void prefetchImage(String imageName) {
+    }
+
+    public void unloadAllImages() {
+        frameImage = UIConstants.NO_IMAGE;
+        entityImage = UIConstants.NO_IMAGE;
+    }
+
+    public void setFrameImage(String imageName) {
+        frameImage = imageName;
+    }
+
+    public String getFrameImage() {
+        return frameImage;
+    }
+
+    public void setEntityImage(String imageName) {
+        entityImage = imageName;
+    }
+
+    public String getEntityImage() {
+        return entityImage;
+    }
+
+    public void setRoomName(String name) {
+        roomName = name;
+    }
+
+    public void clearText() {
+    }
+
+    public void appendText(String text) {
+        output.append(text);
+    }
+
+    public void appendNewline() {
+        output.append('\n');
+    }
+
+    public void appendTextLn(String text) {
+        output.append(text).append('\n');
+    }
+
+    public void setObjectName(String name) {
+        objectName = name;
+    }
+
+    public void setObjectText(String text) {
+        objectText = text;
+    }
+
+    // Like the list models of a Swing UI, removing the selected entity from a list deselects it.
+    public void clearRoomEntities() {
+        boolean deselect = selectedEntity != null && roomEntities.contains(selectedEntity);
+        roomEntities.clear();
+        if (deselect)
+            selectionChanged(null);
+    }
+
+    public void addRoomEntity(Entity e) {
+        roomEntities.add(e);
+    }
+
+    public void removeRoomEntity(Entity e) {
+        if (roomEntities.remove(e) && e == selectedEntity)
+            selectionChanged(null);
+    }
+
+    public void refreshRoomEntity(Entity e) {
+    }
+
+    public void setRoomEntities(List<Entity> entities) {
+        clearRoomEntities();
+        roomEntities.addAll(entities);
+    }
+
+    public void clearInventoryEntities() {
+        boolean deselect = selectedEntity != null && inventoryEntities.contains(selectedEntity);
+        inventoryEntities.clear();
+        if (deselect)
+            selectionChanged(null);
+    }
+
+    public void addInventoryEntity(Entity e, String modifiers) {
+        inventoryEntities.add(e);
+    }
+
+    public void removeInventoryEntity(Entity e) {
+        if (inventoryEntities.remove(e) && e == selectedEntity)
+            selectionChanged(null);
+    }
+
+    public void refreshInventoryEntity(Entity e, String modifiers) {
+    }
+
+    public void setInventoryEntities(List<Entity> entities, List<String> modifiers) {
+        clearInventoryEntities();
+        inventoryEntities.addAll(entities);
+    }
+
+    public void selectEntity(Entity e) {
+        if (e != selectedEntity && (roomEntities.contains(e) || inventoryEntities.contains(e)))
+            selectionChanged(e);
+    }
+
+    public void clearEntitySelection() {
+        if (selectedEntity != null)
+            selectionChanged(null);
+    }
+
+    private void selectionChanged(Entity e) {
+        selectedEntity = e;
+        Meterman.gm().entitySelected(e);
+    }
+
+    public void clearExits() {
+        Arrays.fill(exitLabels, null);
+    }
+
+    public void setExitLabel(int buttonPos, String label) {
+        exitLabels[buttonPos] = label;
+    }
+
+    public void clearActions() {
+        actions.clear();
+    }
+
+    public void addAction(String actionLabel) {
+        actions.add(actionLabel);
+    }
+
+    public void removeAction(String actionLabel) {
+        actions.remove(actionLabel);
+    }
+
+    public void setActions(List<String> actionLabels) {
+        actions.clear();
+        actions.addAll(actionLabels);
+    }
+
+    public void setStatusLabel(int labelPosition, String label) {
+        statusLabels[labelPosition] = label;
+    }
+
+    public void showTextDialog(String header, String text, String buttonLabel) {
+        output.append(text).append('\n');
+    }
+
+    public String showPromptDialog(String header, String text, String prompt, String initialText) {
+        return dialogResponses.isEmpty() ? initialText : dialogResponses.removeFirst();
+    }
+
+    public <T> T showListDialog(String header, String text, List<T> items, boolean showCancelButton) {
+        if (dialogResponses.isEmpty())
+            return showCancelButton || items.isEmpty() ? null : items.get(0);
+        String response = dialogResponses.removeFirst();
+        for (T item : items)
+            if (item.toString().equalsIgnoreCase(response))
+                return item;
+        return null;
+    }
+
+    public void showImageDialog(String header, String imageName, int scale, String text, String buttonLabel) {
+        if (text != null)
+            output.append(text).append('\n');
+    }
+
+    public void showWaitDialog(String message) {
+    }
+
+    public void hideWaitDialog() {
+    }
+}
@@ -0,0 +1,73 @@
+package com.illcode.meterman.ui.headless;
+
+import com.illcode.meterman.ui.SoundManager;
+
+import java.nio.file.Path;
+
+/**
+ * A SoundManager that loads and plays nothing, for use where there is no audio device,
+ * or no audio is wanted.
+ */
+public class NullSoundManager implements SoundManager
+{
+    private boolean musicEnabled, soundEnabled;
+
+    public void init() {
+    }
+
+    public void dispose() {
+    }
+
+    public void clearAudio() {
+    }
+
+    public void setGlobalVolume(double volume) {
+    }
+
+    public void setMusicEnabled(boolean enabled) {
+        musicEnabled = enabled;
+    }
+
+    public boolean isMusicEnabled() {
+        return musicEnabled;
+    }
+
+    public void loadMusic(String name, Path p) {
+    }
+
+    public void playMusic(String name, boolean loop, double volume) {
+    }
+
+    public void stopMusic(String name) {
+    }
+
+    public void pauseAllMusic() {
+    }
+
+    public void resumeAllMusic() {
+    }
+
+    public void setSoundEnabled(boolean enabled) {
+        soundEnabled = enabled;
+    }
+
+    public boolean isSoundEnabled() {
+        return soundEnabled;
+    }
+
+    public void unloadMusic(String name) {
+    }
+
+    public void loadSound(String name, Path p) {
+    }
+
+    public void playSound(String name, double volume) {
+    }
+
+    public void unloadSound(String name) {
+    }
+
+    public boolean finishedProcessing() {
+        return true;
+    }
+}
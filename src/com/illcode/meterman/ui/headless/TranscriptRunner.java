@@ -0,0 +1,274 @@
+package com.illcode.meterman.ui.headless;
+
+import com.illcode.meterman.*;
+import com.illcode.meterman.ui.UIConstants;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * Replays scripted playthroughs ("transcripts") of games using a {@link HeadlessUI}, without any display
+ * or audio, as fast as the game manager can process them.
+ * <p/>
+ * A transcript is a text file with one command per line; blank lines and lines beginning with '#' are ignored.
+ * The commands are:
+ * <pre>
+ *     game &lt;name&gt;       start a new game, by its name as found in the glue files
+ *     look, wait          the Look and Wait buttons
+ *     go &lt;exit label&gt;    click the exit button with the given label
+ *     select &lt;entity&gt;    select an entity, by name, in the room or inventory list
+ *     act &lt;action&gt;      perform an action on the selected entity
+ *     choose &lt;response&gt;  queue a response for the next list or prompt dialog
+ *     undo, redo          the Undo and Redo menu items
+ *     expect &lt;text&gt;     fail unless the text shown by the previous command contains the given text
+ * </pre>
+ * Names, labels, and actions are matched ignoring case. When a command cannot be carried out, or an
+ * expectation is not met, the playthrough fails and the rest of it is skipped.
+ * <p/>
+ * Usage: {@code TranscriptRunner [-config <prefs path>] [-n <repetitions>] [-j <threads>] [-v] <transcript>...}
+ * <br/>
+ * With {@code -j}, the repetitions of each transcript are divided among the given number of threads, each
+ * playing in its own {@link MetermanSession}. With {@code -v}, the game text of each playthrough is printed.
+ * The exit status is nonzero if any playthrough failed.
+ */
+public final class TranscriptRunner
+{
+    private MetermanSession session;
+    private HeadlessUI ui;
+    private int turns, failures;
+    private int outputMark;  // length of the output before the last command was run
+
+    private TranscriptRunner() {
+        ui = new HeadlessUI();
+        session = new MetermanSession(ui, new NullSoundManager());
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path prefsPath = Paths.get("config/meterman.properties");
+        int repetitions = 1, threads = 1;
+        boolean verbose = false;
+        List<Path> transcripts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-config":
+                prefsPath = Paths.get(args[++i]);
+                break;
+            case "-n":
+                repetitions = Math.max(1, Utils.parseInt(args[++i], 1));
+                break;
+            case "-j":
+                threads = Math.max(1, Utils.parseInt(args[++i], 1));
+                break;
+            case "-v":
+                verbose = true;
+                break;
+            default:
+                transcripts.add(Paths.get(args[i]));
+                break;
+            }
+        }
+        if (transcripts.isEmpty()) {
+            System.err.println("Usage: TranscriptRunner [-config <prefs path>] [-n <repetitions>] [-j <threads>] [-v] <transcript>...");
+            System.exit(2);
+        }
+
+        if (!Meterman.loadSystem(prefsPath))
+            System.exit(2);
+        TranscriptRunner[] runners = new TranscriptRunner[threads];
+        for (int i = 0; i < threads; i++) {
+            runners[i] = new TranscriptRunner();
+            if (!runners[i].session.init())
+                System.exit(2);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int totalFailures = 0;
+        for (Path p : transcripts) {
+            List<String> commands = loadTranscript(p);
+            if (commands == null) {
+                totalFailures++;
+                continue;
+            }
+            long startTime = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++)
+                futures.add(executor.submit(runners[i].playTask(p, commands, i, threads, repetitions, verbose)));
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException|ExecutionException ex) {
+                    logger.log(Level.WARNING, "TranscriptRunner.main()", ex);
+                    totalFailures++;
+                }
+            }
+            double seconds = (System.nanoTime() - startTime) / 1.0e9;
+            int turns = 0, failures = 0;
+            for (TranscriptRunner runner : runners) {
+                turns += runner.turns;
+                failures += runner.failures;
+            }
+            System.out.println(Utils.fmt("%s: %d playthroughs, %d turns in %.3f s (%.0f turns/s), %d failed",
+                p, repetitions, turns, seconds, turns / seconds, failures));
+            totalFailures += failures;
+        }
+        executor.shutdown();
+
+        for (TranscriptRunner runner : runners)
+            runner.session.dispose();
+        Utils.dispose();
+        System.exit(totalFailures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Returns a task that plays a transcript repeatedly in this runner's session, from playthrough
+     * {@code first} up to {@code repetitions}, taking every {@code step}th playthrough.
+     */
+    private Runnable playTask(final Path p, final List<String> commands, final int first, final int step,
+                              final int repetitions, final boolean verbose) {
+        turns = 0;
+        failures = 0;
+        return new Runnable() {
+            public void run() {
+                MetermanSession previous = session.bind();
+                try {
+                    for (int n = first; n < repetitions; n += step) {
+                        String error = play(commands);
+                        if (error != null) {
+                            failures++;
+                            System.out.println(Utils.fmt("%s (playthrough %d): %s", p, n + 1, error));
+                        }
+                        if (verbose)
+                            System.out.println(ui.getOutput());
+                    }
+                } finally {
+                    MetermanSession.restore(previous);
+                }
+            }
+        };
+    }
+
+    // Returns the commands in a transcript, or null if it could not be read
+    private static List<String> loadTranscript(Path p) {
+        List<String> commands = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    commands.add(line);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "TranscriptRunner.loadTranscript()", ex);
+            System.out.println(p + ": " + ex.getMessage());
+            return null;
+        }
+        return commands;
+    }
+
+    /**
+     * Plays through a list of transcript commands.
+     * @return null if successful, or a message describing the failure
+     */
+    private String play(List<String> commands) {
+        GameManager gm = session.getGameManager();
+        for (String line : commands) {
+            int idx = line.indexOf(' ');
+            String command = idx == -1 ? line : line.substring(0, idx);
+            String arg = idx == -1 ? "" : line.substring(idx + 1).trim();
+            if (command.equals("expect")) {
+                if (ui.getOutput().toString().indexOf(arg, outputMark) == -1)
+                    return "expected \"" + arg + "\"";
+                continue;
+            }
+            outputMark = ui.getOutput().length();
+            switch (command) {
+            case "game":
+                Game game = GamesList.getGameNames().contains(arg) ? GamesList.getGame(arg) : null;
+                if (game == null)
+                    return "no such game: " + arg;
+                ui.clearOutput();
+                outputMark = 0;
+                gm.newGame(game);
+                break;
+            case "look":
+                gm.lookCommand();
+                turns++;
+                break;
+            case "wait":
+                gm.waitCommand();
+                turns++;
+                break;
+            case "go":
+                int pos = findExit(arg);
+                if (pos == -1)
+                    return "no exit \"" + arg + "\" in " + ui.getRoomName();
+                gm.exitSelected(pos);
+                turns++;
+                break;
+            case "select":
+                Entity e = findEntity(arg);
+                if (e == null || !ui.userSelectEntity(e))
+                    return "no entity \"" + arg + "\" in " + ui.getRoomName();
+                break;
+            case "act":
+                String action = findAction(arg);
+                if (action == null)
+                    return "no action \"" + arg + "\" for " + ui.getObjectName();
+                gm.entityActionSelected(action);
+                turns++;
+                break;
+            case "choose":
+                ui.queueDialogResponse(arg);
+                break;
+            case "undo":
+                gm.undo();
+                break;
+            case "redo":
+                gm.redo();
+                break;
+            default:
+                return "unknown command: " + line;
+            }
+        }
+        return null;
+    }
+
+    private int findExit(String label) {
+        for (int pos = 0; pos < UIConstants.NUM_EXIT_BUTTONS; pos++)
+            if (label.equalsIgnoreCase(ui.getExitLabel(pos)))
+                return pos;
+        return -1;
+    }
+
+    private Entity findEntity(String name) {
+        for (Entity e : ui.getRoomEntities())
+            if (name.equalsIgnoreCase(e.getName()) || name.equalsIgnoreCase(e.getListName()))
+                return e;
+        for (Entity e : ui.getInventoryEntities())
+            if (name.equalsIgnoreCase(e.getName()) || name.equalsIgnoreCase(e.getListName()))
+                return e;
+        return null;
+    }
+
+    private String findAction(String action) {
+        if (ui.getSelectedEntity() == null)
+            return null;
+        for (String a : ui.getActions())
+            if (a.equalsIgnoreCase(action))
+                return a;
+        return null;
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * A UI and sound implementation that display nothing, and a runner that uses them to replay
+ * scripted playthroughs without a display.
+ */
+package com.illcode.meterman.ui.headless;
@@ -0,0 +1,242 @@
+package com.illcode.meterman.ui.swingui;
+
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * Loads the images of a {@link SwingUI} on a pair of background threads, and keeps the decoded images in a
+ * least-recently-used cache bounded by their size in memory.
+ * <p/>
+ * An image is registered by name with {@link #register(String, Path)}, which only records its path; the image
+ * is decoded when it is first asked for, or when {@link #prefetch(String) prefetched}. An image evicted from the
+ * cache is decoded again the next time it is needed.
+ * <p/>
+ * All methods may be called from any thread; callbacks are run on the event dispatch thread.
+ */
+final class ImageManager
+{
+    /** Called on the event dispatch thread when an image asked for by {@link #load} has been decoded. */
+    interface Callback
+    {
+        /**
+         * @param name name of the image
+         * @param image the image, or null if it couldn't be loaded
+         */
+        void imageLoaded(String name, BufferedImage image);
+    }
+
+    private final long maxBytes;
+    private final ExecutorService executor;
+
+    private final Map<String,Path> paths;
+    private final LinkedHashMap<String,BufferedImage> cache;  // in access order
+    private final Map<String,LoadTask> pending;
+    private long cacheBytes;
+
+    /**
+     * Create an image manager.
+     * @param maxBytes the memory the decoded images may use; the image most recently used is kept
+     *          even if it alone is larger
+     */
+    ImageManager(long maxBytes) {
+        this.maxBytes = maxBytes;
+        paths = new HashMap<>();
+        cache = new LinkedHashMap<>(32, 0.75f, true);
+        pending = new HashMap<>();
+        executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Meterman image loader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Registers the path of an image, if no image is registered under the name already. */
+    synchronized void register(String name, Path p) {
+        if (!paths.containsKey(name))
+            paths.put(name, p);
+    }
+
+    /** Forgets an image, and discards it if it has been decoded. */
+    synchronized void unregister(String name) {
+        paths.remove(name);
+        discard(name);
+    }
+
+    /** Forgets all images. */
+    synchronized void clear() {
+        paths.clear();
+        for (LoadTask task : pending.values())
+            task.cancel(false);
+        pending.clear();
+        for (BufferedImage img : cache.values())
+            img.flush();
+        cache.clear();
+        cacheBytes = 0;
+    }
+
+    private void discard(String name) {
+        LoadTask task = pending.remove(name);
+        if (task != null)
+            task.cancel(false);
+        BufferedImage img = cache.remove(name);
+        if (img != null) {
+            cacheBytes -= sizeOf(img);
+            img.flush();
+        }
+    }
+
+    /** Returns an image if it has been decoded, or null if it hasn't (or isn't registered). */
+    synchronized BufferedImage getIfLoaded(String name) {
+        return cache.get(name);
+    }
+
+    /**
+     * Returns an image, waiting for it to be decoded if need be.
+     * @return the image, or null if it isn't registered or couldn't be loaded
+     */
+    BufferedImage get(String name) {
+        LoadTask task;
+        synchronized (this) {
+            BufferedImage img = cache.get(name);
+            if (img != null)
+                return img;
+            task = submit(name);
+        }
+        if (task == null)
+            return null;
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException|CancellationException ex) {
+            // logged by the task, or the image was unregistered
+        }
+        return null;
+    }
+
+    /**
+     * Has an image decoded in the background, and calls {@code callback} with it when it is. If the image has been
+     * decoded already, the callback is called at once (on the calling thread), and this method returns true.
+     * @return true if the image had been decoded
+     */
+    boolean load(String name, Callback callback) {
+        BufferedImage img;
+        synchronized (this) {
+            img = cache.get(name);
+            if (img == null) {
+                LoadTask task = submit(name);
+                if (task != null) {
+                    task.callbacks.add(callback);
+                    return false;
+                }
+            }
+        }
+        callback.imageLoaded(name, img);
+        return img != null;
+    }
+
+    /** Has an image decoded in the background, if it hasn't been, so that it is ready when needed. */
+    synchronized void prefetch(String name) {
+        if (!cache.containsKey(name))
+            submit(name);
+    }
+
+    // Returns the task loading an image, starting it if need be, or null if the image isn't registered.
+    private LoadTask submit(String name) {
+        LoadTask task = pending.get(name);
+        if (task == null) {
+            Path p = paths.get(name);
+            if (p == null)
+                return null;
+            task = new LoadTask(name, p);
+            pending.put(name, task);
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    // Called by a task once its image is decoded.
+    private void loaded(LoadTask task, final BufferedImage img) {
+        final List<Callback> callbacks;
+        synchronized (this) {
+            if (pending.get(task.name) != task)
+                return;  // unregistered while we were decoding it
+            pending.remove(task.name);
+            if (img != null) {
+                cache.put(task.name, img);
+                cacheBytes += sizeOf(img);
+                evict();
+            }
+            callbacks = task.callbacks;
+        }
+        if (callbacks.isEmpty())
+            return;
+        final String name = task.name;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                for (Callback c : callbacks)
+                    c.imageLoaded(name, img);
+            }
+        });
+    }
+
+    // Drops the least recently used images until the cache is within bounds, keeping at least one.
+    private void evict() {
+        Iterator<BufferedImage> iter = cache.values().iterator();
+        while (cacheBytes > maxBytes && cache.size() > 1) {
+            BufferedImage img = iter.next();
+            iter.remove();
+            cacheBytes -= sizeOf(img);  // not flushed, since it may still be on screen
+        }
+    }
+
+    /** Stops the loader threads. */
+    void shutdown() {
+        clear();
+        executor.shutdownNow();
+    }
+
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer db = img.getRaster().getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+    }
+
+    private final class LoadTask extends FutureTask<BufferedImage>
+    {
+        final String name;
+        final List<Callback> callbacks;  // guarded by the ImageManager
+
+        LoadTask(String name, final Path p) {
+            super(new Callable<BufferedImage>() {
+                public BufferedImage call() {
+                    return GuiUtils.loadBitmaskImage(p);
+                }
+            });
+            this.name = name;
+            callbacks = new ArrayList<>(2);
+        }
+
+        protected void done() {
+            if (isCancelled())
+                return;
+            BufferedImage img = null;
+            try {
+                img = get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                logger.log(Level.WARNING, "ImageManager.LoadTask.done()", ex.getCause());
+            }
+            loaded(this, img);
+        }
+    }
+}
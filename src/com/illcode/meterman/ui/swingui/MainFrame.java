@@ -40,7 +40,7 @@ class MainFrame implements ActionListener, ListSelectionListener
 
     JFrame frame;
     JMenu gameMenu, settingsMenu, helpMenu;
-    JMenuItem newMenuItem, saveMenuItem, saveAsMenuItem, loadMenuItem, undoMenuItem,
+    JMenuItem newMenuItem, saveMenuItem, saveAsMenuItem, loadMenuItem, undoMenuItem, redoMenuItem,
         quitMenuItem, aboutMenuItem, webSiteMenuItem, onlineManualMenuItem, scrollbackMenuItem;
     JCheckBoxMenuItem alwaysLookCheckBoxMenuItem, musicCheckBoxMenuItem, soundCheckBoxMenuItem,
         enableUndoCheckBoxMenuItem, promptToQuitCheckBoxMenuItem;
@@ -57,8 +57,12 @@ class MainFrame implements ActionListener, ListSelectionListener
     JFileChooser fc;
     File lastSaveFile;
 
+    ProfilerOverlay profilerOverlay;  // created when first shown
+
     DefaultListModel<String> roomListModel, inventoryListModel;
 
+    ScaledImageCache scaledImages;  // for the frame image component, and the image dialog
+
     private BufferedImage frameImage, entityImage;
     private List<String> actions;
 
@@ -80,6 +84,7 @@ class MainFrame implements ActionListener, ListSelectionListener
             saveAsMenuItem = cr.getMenuItem("saveAsMenuItem");
             loadMenuItem = cr.getMenuItem("loadMenuItem");
             undoMenuItem = cr.getMenuItem("undoMenuItem");
+            redoMenuItem = cr.getMenuItem("redoMenuItem");
             quitMenuItem = cr.getMenuItem("quitMenuItem");
             aboutMenuItem = cr.getMenuItem("aboutMenuItem");
             webSiteMenuItem = cr.getMenuItem("webSiteMenuItem");
@@ -113,6 +118,7 @@ class MainFrame implements ActionListener, ListSelectionListener
             lookButton.setText(SystemActions.getLookAction());
             waitButton.setText(SystemActions.getWaitAction());
 
+            scaledImages = new ScaledImageCache();
             imageComponent = new FrameImageComponent();
             imagePanel.add(imageComponent);
 
@@ -126,7 +132,7 @@ class MainFrame implements ActionListener, ListSelectionListener
 
             for (AbstractButton b : new AbstractButton[] {newMenuItem, saveMenuItem, saveAsMenuItem, loadMenuItem,
                 quitMenuItem, aboutMenuItem, alwaysLookCheckBoxMenuItem, musicCheckBoxMenuItem, soundCheckBoxMenuItem,
-                enableUndoCheckBoxMenuItem, promptToQuitCheckBoxMenuItem, webSiteMenuItem, scrollbackMenuItem, undoMenuItem,
+                enableUndoCheckBoxMenuItem, promptToQuitCheckBoxMenuItem, webSiteMenuItem, scrollbackMenuItem, undoMenuItem, redoMenuItem,
                 onlineManualMenuItem, lookButton, waitButton})
                 b.addActionListener(this);
             for (JButton b : exitButtons)
@@ -151,9 +157,12 @@ class MainFrame implements ActionListener, ListSelectionListener
     }
 
     void dispose() {
+        if (profilerOverlay != null)
+            profilerOverlay.dispose();
         GuiUtils.saveBoundsToPref(frame, "main-window-size");
         frameImage = null;
         entityImage = null;
+        scaledImages.clear();
         setVisible(false);
         frame.dispose();
     }
@@ -190,11 +199,11 @@ class MainFrame implements ActionListener, ListSelectionListener
 
         inputMap.put(SELECT_ROOM_ENTITY_KEYSTROKE, "selectRoomEntity");
         actionMap.put("selectRoomEntity",
-            new SelectItemAction(roomList, roomListModel, "Select an object in the room", "Object:"));
+            new SelectItemAction(roomList, "Select an object in the room", "Object:"));
 
         inputMap.put(SELECT_INVENTORY_ENTITY_KEYSTROKE, "selectInventoryEntity");
         actionMap.put("selectInventoryEntity",
-            new SelectItemAction(inventoryList, inventoryListModel, "Select an item in your inventory", "Item:"));
+            new SelectItemAction(inventoryList, "Select an item in your inventory", "Item:"));
 
         inputMap.put(SELECT_ACTION_KEYSTROKE, "selectAction");
         actionMap.put("selectAction",
@@ -214,12 +223,45 @@ class MainFrame implements ActionListener, ListSelectionListener
     }
 
     private void debugTriggered() {
-        Game g = Meterman.gm.getGame();
-        if (g != null) {
+        if (Meterman.gm().getGame() != null) {
             String command = ui.showPromptDialog("Debug Command",
                 "What is your debug command, oh Implementer?", "Command", "");
-            g.debugCommand(command);
+            if (command == null || !profileCommand(command))
+                Meterman.gm().debugCommand(command);
+        }
+    }
+
+    // "profile" toggles the profiler overlay, "profile reset" discards the statistics gathered so far,
+    // and "profile off" closes the overlay and stops profiling. Returns false if the command is none of
+    // these, and so is the game's.
+    private boolean profileCommand(String command) {
+        String[] words = command.trim().split("\\s+");
+        if (!words[0].equals("profile") || words.length > 2)
+            return false;
+        String arg = words.length == 2 ? words[1] : "";
+        GameManager gm = Meterman.gm();
+        switch (arg) {
+        case "reset":
+            if (gm.getProfiler() != null)
+                gm.getProfiler().reset();
+            break;
+        case "off":
+            if (profilerOverlay != null)
+                profilerOverlay.hide();
+            gm.setProfiling(false);
+            break;
+        case "":
+            if (profilerOverlay == null)
+                profilerOverlay = new ProfilerOverlay(frame);
+            if (profilerOverlay.isShowing())
+                profilerOverlay.hide();
+            else
+                profilerOverlay.show();
+            break;
+        default:
+            return false;
         }
+        return true;
     }
 
     void setFrameImage(BufferedImage image) {
@@ -278,29 +320,56 @@ class MainFrame implements ActionListener, ListSelectionListener
     }
 
     public void removeAction(String actionLabel) {
-        if (actions.remove(actionLabel)) {
-            clearActions();
-            for (String a : actions)
-                addAction(a);
+        if (actions.contains(actionLabel)) {
+            List<String> l = new ArrayList<>(actions);
+            l.remove(actionLabel);
+            setActions(l);
         }
     }
 
+    // Shows a list of actions, touching only the buttons whose actions have changed, and replacing the
+    // combo box model all at once, rather than item by item.
+    void setActions(List<String> actionLabels) {
+        if (actions.equals(actionLabels))
+            return;
+        actions.clear();
+        for (String a : actionLabels)
+            if (!actions.contains(a))
+                actions.add(a);
+        int n = actions.size();
+        for (int i = 0; i < NUM_ACTION_BUTTONS; i++) {
+            JButton b = actionButtons[i];
+            if (i < n) {
+                b.setText(actions.get(i));
+                b.setVisible(true);
+            } else {
+                b.setVisible(false);
+            }
+        }
+        DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>();
+        model.addElement("More...");
+        for (int i = NUM_ACTION_BUTTONS; i < n; i++)
+            model.addElement(actions.get(i));
+        moreActionCombo.setModel(model);
+        moreActionCombo.setVisible(n > NUM_ACTION_BUTTONS);
+    }
+
     public void actionPerformed(ActionEvent e) {
         Object source = e.getSource();
         int buttonIdx;
 
         if (source == lookButton) {
-            Meterman.gm.lookCommand();
+            Meterman.gm().lookCommand();
         } else if (source == waitButton) {
-            Meterman.gm.waitCommand();
+            Meterman.gm().waitCommand();
         } else if ((buttonIdx = ArrayUtils.indexOf(exitButtons, source)) != -1) {
-            Meterman.gm.exitSelected(buttonIdx);
+            Meterman.gm().exitSelected(buttonIdx);
         } else if ((buttonIdx = ArrayUtils.indexOf(actionButtons, source)) != -1) {
-            Meterman.gm.entityActionSelected(actionButtons[buttonIdx].getText());
+            Meterman.gm().entityActionSelected(actionButtons[buttonIdx].getText());
         } else if (source == moreActionCombo) {
             int idx = moreActionCombo.getSelectedIndex();
             if (idx > 0)   // index 0 is "More..."
-                Meterman.gm.entityActionSelected(moreActionCombo.getItemAt(idx));
+                Meterman.gm().entityActionSelected(moreActionCombo.getItemAt(idx));
         } else if (source == newMenuItem) {
             String gameName = Utils.getPref("single-game-name");
             if (gameName == null) {
@@ -311,27 +380,29 @@ class MainFrame implements ActionListener, ListSelectionListener
                 ui.listDialog.list.removeListSelectionListener(this);
             }
             if (gameName != null)
-                Meterman.gm.newGame(GamesList.getGame(gameName));
+                Meterman.gm().newGame(GamesList.getGame(gameName));
         } else if (source == loadMenuItem) {
             int r = fc.showOpenDialog(frame);
             if (r == JFileChooser.APPROVE_OPTION) {
                 File f = fc.getSelectedFile();
                 try (InputStream in = new FileInputStream(f)) {
-                    Meterman.gm.loadGameState(in);
+                    Meterman.gm().loadGameState(in);
                 } catch (Exception ex) {
                     logger.log(Level.WARNING, "MainFrame loadMenuItem", ex);
                     ui.showTextDialog("Load Error", ex.getMessage(), "OK");
                 }
             }
         } else if (source == undoMenuItem) {
-            Meterman.gm.undo();
+            Meterman.gm().undo();
+        } else if (source == redoMenuItem) {
+            Meterman.gm().redo();
         } else if (source == saveMenuItem) {
             if (lastSaveFile == null) {
                 saveAsMenuItem.doClick();
                 return;
             }
             try (OutputStream out = new FileOutputStream(lastSaveFile)) {
-                Meterman.gm.saveGameState(out);
+                Meterman.gm().saveGameState(out);
             } catch (Exception ex) {
                 logger.log(Level.WARNING, "MainFrame saveMenuItem", ex);
                 ui.showTextDialog("Save Error", ex.getMessage(), "OK");
@@ -346,21 +417,22 @@ class MainFrame implements ActionListener, ListSelectionListener
             close();
         } else if (source == musicCheckBoxMenuItem) {
             boolean enabled = musicCheckBoxMenuItem.isSelected();
-            Meterman.sound.setMusicEnabled(enabled);
+            Meterman.sound().setMusicEnabled(enabled);
             Utils.setPref("music-enabled", Boolean.toString(enabled));
         } else if (source == soundCheckBoxMenuItem) {
             boolean enabled = soundCheckBoxMenuItem.isSelected();
-            Meterman.sound.setSoundEnabled(enabled);
+            Meterman.sound().setSoundEnabled(enabled);
             Utils.setPref("sound-enabled", Boolean.toString(enabled));
         } else if (source == alwaysLookCheckBoxMenuItem) {
             boolean alwaysLook = alwaysLookCheckBoxMenuItem.isSelected();
-            Meterman.gm.setAlwaysLook(alwaysLook);
+            Meterman.gm().setAlwaysLook(alwaysLook);
             Utils.setPref("always-look", Boolean.toString(alwaysLook));
         } else if (source == enableUndoCheckBoxMenuItem) {
             boolean undoEnabled = enableUndoCheckBoxMenuItem.isSelected();
-            Meterman.gm.setUndoEnabled(undoEnabled);
+            Meterman.gm().setUndoEnabled(undoEnabled);
             Utils.setPref("undo-enabled", Boolean.toString(undoEnabled));
             undoMenuItem.setEnabled(undoEnabled);
+            redoMenuItem.setEnabled(undoEnabled);
         } else if (source == promptToQuitCheckBoxMenuItem) {
             Utils.setPref("prompt-to-quit", Boolean.toString(promptToQuitCheckBoxMenuItem.isSelected()));
         } else if (source == scrollbackMenuItem) {
@@ -377,13 +449,13 @@ class MainFrame implements ActionListener, ListSelectionListener
         } else if (source == onlineManualMenuItem) {
             ui.openURL("https://jessepav.github.io/meterman/manual.html");
         } else if (source == aboutMenuItem) {
-            Meterman.gm.aboutMenuClicked();
+            Meterman.gm().aboutMenuClicked();
         }
     }
 
     private void close() {
         if (Utils.booleanPref("prompt-to-quit", true)) {
-            if (Meterman.gm.getGame() != null &&
+            if (Meterman.gm().getGame() != null &&
                 JOptionPane.showConfirmDialog(frame, "Quit Meterman?", "Quit",
                     JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION)
                 return;  // don't quit
@@ -418,10 +490,10 @@ class MainFrame implements ActionListener, ListSelectionListener
     }
 
     public void startup() {
-        soundCheckBoxMenuItem.setSelected(Meterman.sound.isSoundEnabled());
-        musicCheckBoxMenuItem.setSelected(Meterman.sound.isMusicEnabled());
-        alwaysLookCheckBoxMenuItem.setSelected(Meterman.gm.isAlwaysLook());
-        enableUndoCheckBoxMenuItem.setSelected(Meterman.gm.isUndoEnabled());
+        soundCheckBoxMenuItem.setSelected(Meterman.sound().isSoundEnabled());
+        musicCheckBoxMenuItem.setSelected(Meterman.sound().isMusicEnabled());
+        alwaysLookCheckBoxMenuItem.setSelected(Meterman.gm().isAlwaysLook());
+        enableUndoCheckBoxMenuItem.setSelected(Meterman.gm().isUndoEnabled());
         promptToQuitCheckBoxMenuItem.setSelected(Utils.booleanPref("prompt-to-quit", true));
 
         ui.clearActions();
@@ -449,12 +521,18 @@ class MainFrame implements ActionListener, ListSelectionListener
                 close();
                 break initGame;
             }
-        } while (Meterman.gm.getGame() == null);
+        } while (Meterman.gm().getGame() == null);
     }
 
     private class FrameImageComponent extends JComponent {
         protected void paintComponent(Graphics g) {
             Graphics2D g2d = (Graphics2D) g;
+            // On a high-DPI display, we draw images pre-scaled to device pixels as well
+            int deviceScale = ScaledImageCache.deviceScale(g2d.getTransform());
+            if (deviceScale != 1) {
+                g2d = (Graphics2D) g2d.create();
+                g2d.scale(1.0 / deviceScale, 1.0 / deviceScale);
+            }
             int cw = getWidth();
             int ch = getHeight();
             int x, y, width, height;
@@ -466,7 +544,7 @@ class MainFrame implements ActionListener, ListSelectionListener
                 height = ih * scale;
                 x = Math.max(0, (cw - width) / 2);
                 y = Math.max(0, (ch - height) / 2);
-                g2d.drawImage(frameImage, x, y, width, height, null);
+                g2d.drawImage(scaledImages.get(frameImage, scale * deviceScale), x * deviceScale, y * deviceScale, null);
             }
             if (entityImage != null) {
                 int iw = entityImage.getWidth();
@@ -476,8 +554,10 @@ class MainFrame implements ActionListener, ListSelectionListener
                 width = iw * scale;
                 height = ih * scale;
                 x = Math.max(0, (cw - width) / 2);
-                g2d.drawImage(entityImage, x, y, width, height, null);
+                g2d.drawImage(scaledImages.get(entityImage, scale * deviceScale), x * deviceScale, y * deviceScale, null);
             }
+            if (g2d != g)
+                g2d.dispose();
         }
     }
 
@@ -506,15 +586,12 @@ class MainFrame implements ActionListener, ListSelectionListener
     // Used in interacting with the SelectItemDialog
     private class SelectItemAction extends AbstractAction
     {
-        private JList<String> entityList;
-        private DefaultListModel<String> entityListModel;
+        private JList<String> entityList;  // whose model is replaced as the list changes; see SwingUI.setRoomEntities()
         private List<String> actionsList;
         private String header, prompt;
 
-        private SelectItemAction(JList<String> entityList, DefaultListModel<String> entityListModel,
-                                 String header, String prompt) {
+        private SelectItemAction(JList<String> entityList, String header, String prompt) {
             this.entityList = entityList;
-            this.entityListModel = entityListModel;
             this.header = header;
             this.prompt = prompt;
         }
@@ -526,18 +603,19 @@ class MainFrame implements ActionListener, ListSelectionListener
         }
 
         public void actionPerformed(ActionEvent e) {
-            if (entityListModel != null && !entityListModel.isEmpty()) {
-                int n = entityListModel.size();
+            if (entityList != null && entityList.getModel().getSize() != 0) {
+                ListModel<String> entityListModel = entityList.getModel();
+                int n = entityListModel.getSize();
                 List<String> l = new ArrayList<>(n);
                 for (int i = 0; i < n; i++)
-                    l.add(entityListModel.get(i));
+                    l.add(entityListModel.getElementAt(i));
                 int idx = ui.selectItemDialog.showSelectItemDialog(header, prompt, l, entityList.getSelectedIndex());
                 if (idx != -1)
                     entityList.setSelectedIndex(idx);
             } else if (actionsList != null && !actionsList.isEmpty()) {
                 int idx = ui.selectItemDialog.showSelectItemDialog(header, prompt, actionsList, -1);
                 if (idx != -1)
-                    Meterman.gm.entityActionSelected(actionsList.get(idx));
+                    Meterman.gm().entityActionSelected(actionsList.get(idx));
             }
         }
     }
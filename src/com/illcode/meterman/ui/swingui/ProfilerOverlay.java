@@ -0,0 +1,84 @@
+package com.illcode.meterman.ui.swingui;
+
+import com.illcode.meterman.GameManager;
+import com.illcode.meterman.Meterman;
+import com.illcode.meterman.TurnProfiler;
+
+import javax.swing.*;
+import java.awt.Font;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * A small window, kept over the main frame, that shows the statistics of the game manager's
+ * {@link TurnProfiler}, refreshed twice a second. It is opened and closed by the "profile" debug command.
+ */
+class ProfilerOverlay implements ActionListener
+{
+    private static final int REFRESH_INTERVAL = 500;  // ms
+
+    Window owner;
+
+    JDialog dialog;
+    JTextArea textArea;
+    Timer timer;
+
+    ProfilerOverlay(Window owner) {
+        this.owner = owner;
+        dialog = new JDialog(owner, "Turn Profiler", JDialog.ModalityType.MODELESS);
+        dialog.setFocusableWindowState(false);  // so that the main frame keeps its keyboard focus
+        textArea = new JTextArea(24, 100);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        dialog.add(new JScrollPane(textArea));
+        dialog.pack();
+        GuiUtils.setBoundsFromPrefs(dialog, "profiler-window-size");
+        dialog.setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                hide();
+            }
+        });
+        timer = new Timer(REFRESH_INTERVAL, this);
+    }
+
+    boolean isShowing() {
+        return dialog.isVisible();
+    }
+
+    /** Shows the overlay, turning on profiling if it is off. */
+    void show() {
+        GameManager gm = Meterman.gm();
+        if (gm.getProfiler() == null)
+            gm.setProfiling(true);
+        refresh();
+        dialog.setVisible(true);
+        timer.start();
+    }
+
+    void hide() {
+        timer.stop();
+        dialog.setVisible(false);
+    }
+
+    private void refresh() {
+        TurnProfiler profiler = Meterman.gm().getProfiler();
+        String text = profiler != null ? profiler.getReport() : "(Profiling is off.)";
+        if (!text.equals(textArea.getText()))
+            textArea.setText(text);
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == timer)
+            refresh();
+    }
+
+    void dispose() {
+        timer.stop();
+        GuiUtils.saveBoundsToPref(dialog, "profiler-window-size");
+        dialog.dispose();
+    }
+}
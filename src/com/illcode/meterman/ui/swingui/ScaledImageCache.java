@@ -0,0 +1,105 @@
+package com.illcode.meterman.ui.swingui;
+
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps copies of images scaled up by integer factors, in the format of the screen, so that drawing one
+ * is a plain blit rather than a scaling (and perhaps converting) one. Java2D caches such images in video
+ * memory itself once they have been drawn a few times.
+ * <p/>
+ * Images are keyed by identity and scale; the least recently used are evicted once there are more than
+ * {@link #MAX_ENTRIES}. The cache is to be used only on the event dispatch thread.
+ */
+final class ScaledImageCache
+{
+    /** The number of scaled images kept: enough for the frame image, the entity image, and an image dialog,
+     *  each at a couple of scales. */
+    static final int MAX_ENTRIES = 8;
+
+    private final Map<Key,BufferedImage> cache;
+
+    ScaledImageCache() {
+        cache = new LinkedHashMap<Key,BufferedImage>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key,BufferedImage> eldest) {
+                if (size() <= MAX_ENTRIES)
+                    return false;
+                if (eldest.getValue() != eldest.getKey().image)
+                    eldest.getValue().flush();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns an image scaled by a given factor, in the format of the screen.
+     * @param img source image
+     * @param scale the factor {@code (>= 1)} by which to scale the image
+     * @return the scaled image, which is {@code img} itself if it needs neither scaling nor converting
+     */
+    BufferedImage get(BufferedImage img, int scale) {
+        if (scale < 1)
+            scale = 1;
+        Key key = new Key(img, scale);
+        BufferedImage scaled = cache.get(key);
+        if (scaled == null) {
+            if (scale == 1 && isCompatible(img))
+                scaled = img;
+            else
+                scaled = GuiUtils.getSubImage(img, 0, 0, img.getWidth(), img.getHeight(), scale);
+            cache.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    /** Discards the scaled images. */
+    void clear() {
+        for (Map.Entry<Key,BufferedImage> entry : cache.entrySet())
+            if (entry.getValue() != entry.getKey().image)
+                entry.getValue().flush();
+        cache.clear();
+    }
+
+    private static boolean isCompatible(BufferedImage img) {
+        int transparency = img.getTransparency();
+        return (transparency == Transparency.OPAQUE || transparency == Transparency.BITMASK) &&
+            img.getColorModel().equals(GuiUtils.graphicsConfiguration.getColorModel(transparency));
+    }
+
+    /**
+     * Returns the integer factor by which a transform scales to device pixels, as it does on a high-DPI
+     * display, or 1 if it doesn't scale by a whole number.
+     */
+    static int deviceScale(AffineTransform at) {
+        double sx = at.getScaleX(), sy = at.getScaleY();
+        int scale = (int) Math.round(sx);
+        if (scale > 1 && sx == scale && sy == scale && at.getShearX() == 0 && at.getShearY() == 0)
+            return scale;
+        return 1;
+    }
+
+    private static final class Key
+    {
+        final BufferedImage image;
+        final int scale;
+
+        Key(BufferedImage image, int scale) {
+            this.image = image;
+            this.scale = scale;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return k.image == image && k.scale == scale;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(image) * 31 + scale;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.illcode.meterman.ui.swingui;
+
+import kuusisto.tinysound.Music;
+import kuusisto.tinysound.TinySound;
+import kuusisto.tinysound.internal.Mixer;
+import kuusisto.tinysound.internal.MusicReference;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+import static com.illcode.meterman.Utils.logger;
+
+/**
+ * A TinySound {@link Music} that decodes its file (OGG/Vorbis, through the Vorbis SPI and JOrbis, or anything else
+ * javax.sound can read) as it plays, rather than all at once when loaded. Decoded audio goes into a ring buffer of
+ * about a second and a half, which the sound thread tops up with {@link #fill()} and TinySound's mixer thread
+ * drains; so a track takes the same memory however long it is, and loading it only reads its header.
+ * <p/>
+ * The methods of the Music interface, and {@link #fill()}, are to be called on the sound thread. If the mixer
+ * runs dry, as when the sound thread is busy loading a large sound, the music drops out until it is refilled.
+ */
+final class StreamingMusic implements Music
+{
+    private static final int RING_SIZE = 1 << 18;  // bytes, of 16-bit stereo frames
+    private static final int FRAME_SIZE = 4;
+    private static final int CHUNK_SIZE = 8192;    // bytes decoded at a time
+
+    private static Field mixerField;
+
+    private final Path path;
+    private final Mixer mixer;
+    private final Reference reference;
+
+    private AudioInputStream in;
+    private int channels;
+    private byte[] chunk;
+
+    // The ring buffer is written by the sound thread and read by the mixer thread; resetting it is done while
+    // holding the mixer's lock, which the mixer holds as it reads.
+    private byte[] ring;
+    private volatile long writePos, readPos;   // in bytes, since the last reset
+    private volatile boolean playing, loop, ended;
+    private volatile double volume, pan;
+    private volatile long loopFrame;
+    private long position;   // bytes played since the start of the track; used only by the mixer thread
+
+    private StreamingMusic(Path path, Mixer mixer) {
+        this.path = path;
+        this.mixer = mixer;
+        volume = 1.0;
+        reference = new Reference();
+    }
+
+    /**
+     * Opens a music file for streaming.
+     * @param p path of the music file
+     * @return the music, registered with TinySound's mixer, or null if it can't be streamed (if it isn't
+     *          in TinySound's sample rate, say), in which case it should be loaded with TinySound
+     */
+    static StreamingMusic open(Path p) {
+        Mixer mixer = getMixer();
+        if (mixer == null)
+            return null;
+        StreamingMusic music = new StreamingMusic(p, mixer);
+        try {
+            music.openStream();
+        } catch (IOException|UnsupportedAudioFileException|IllegalArgumentException ex) {
+            logger.log(Level.FINE, "StreamingMusic.open()", ex);
+            return null;
+        }
+        mixer.registerMusicReference(music.reference);
+        return music;
+    }
+
+    // TinySound doesn't let other Music implementations at its mixer, so we reach in for it.
+    private static Mixer getMixer() {
+        try {
+            if (mixerField == null) {
+                Field f = TinySound.class.getDeclaredField("mixer");
+                f.setAccessible(true);
+                mixerField = f;
+            }
+            return (Mixer) mixerField.get(null);
+        } catch (ReflectiveOperationException|SecurityException|ClassCastException ex) {
+            logger.log(Level.WARNING, "StreamingMusic.getMixer()", ex);
+            return null;
+        }
+    }
+
+    // (Re)opens the decoded stream at the start of the track.
+    private void openStream() throws IOException, UnsupportedAudioFileException {
+        closeStream();
+        AudioInputStream encoded = AudioSystem.getAudioInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        AudioFormat format = encoded.getFormat();
+        channels = format.getChannels();
+        if ((channels != 1 && channels != 2) || format.getSampleRate() != TinySound.FORMAT.getSampleRate()) {
+            encoded.close();
+            throw new UnsupportedAudioFileException(path + ": " + format);
+        }
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                                          channels, channels * 2, format.getSampleRate(), false);
+        in = AudioSystem.getAudioInputStream(pcm, encoded);
+    }
+
+    private void closeStream() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                logger.log(Level.FINE, "StreamingMusic.closeStream()", ex);
+            }
+            in = null;
+        }
+    }
+
+    // Reopens the track and discards the ring buffer, skipping ahead to a given frame.
+    private void reset(long frame) {
+        synchronized (mixer) {
+            try {
+                openStream();
+                skipFrames(frame);
+            } catch (IOException|UnsupportedAudioFileException ex) {
+                logger.log(Level.WARNING, "StreamingMusic.reset()", ex);
+                closeStream();
+            }
+            readPos = writePos = 0;
+            position = frame * FRAME_SIZE;
+            ended = in == null;
+        }
+    }
+
+    private void skipFrames(long frames) throws IOException {
+        long bytes = frames * channels * 2;
+        byte[] buf = new byte[CHUNK_SIZE];
+        while (bytes > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, bytes));
+            if (n == -1)
+                break;
+            bytes -= n;
+        }
+    }
+
+    /** Decodes as much of the track as there is room for in the ring buffer, if it's playing. */
+    void fill() {
+        if (!playing || ended || ring == null)
+            return;
+        int frameBytes = channels * 2;
+        int maxBytes = CHUNK_SIZE / FRAME_SIZE * frameBytes;
+        while (RING_SIZE - (writePos - readPos) >= CHUNK_SIZE) {
+            int n;
+            try {
+                n = in.read(chunk, 0, maxBytes);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "StreamingMusic.fill()", ex);
+                n = -1;
+            }
+            if (n == -1) {
+                if (!loop) {
+                    ended = true;
+                    return;
+                }
+                try {  // carry on from the loop position, after what's buffered
+                    openStream();
+                    skipFrames(loopFrame);
+                } catch (IOException|UnsupportedAudioFileException ex) {
+                    logger.log(Level.WARNING, "StreamingMusic.fill()", ex);
+                    ended = true;
+                    return;
+                }
+                continue;
+            }
+            n -= n % frameBytes;
+            long w = writePos;
+            if (channels == 2) {
+                for (int i = 0; i < n; i++)
+                    ring[(int) (w + i) & (RING_SIZE - 1)] = chunk[i];
+                w += n;
+            } else {   // copy mono samples to both channels
+                for (int i = 0; i < n; i += 2) {
+                    int idx = (int) w & (RING_SIZE - 1);
+                    ring[idx] = ring[idx + 2] = chunk[i];
+                    ring[idx + 1] = ring[idx + 3] = chunk[i + 1];
+                    w += FRAME_SIZE;
+                }
+            }
+            writePos = w;  // publishes the frames to the mixer thread
+        }
+    }
+
+    public void play(boolean loop) {
+        play(loop, volume, pan);
+    }
+
+    public void play(boolean loop, double volume) {
+        play(loop, volume, pan);
+    }
+
+    public void play(boolean loop, double volume, double pan) {
+        setLoop(loop);
+        setVolume(volume);
+        setPan(pan);
+        if (ring == null) {
+            ring = new byte[RING_SIZE];
+            chunk = new byte[CHUNK_SIZE];
+        }
+        if (ended)
+            reset(0);
+        playing = true;
+        fill();  // before the mixer gets to it
+    }
+
+    public void stop() {
+        playing = false;
+        rewind();
+    }
+
+    public void pause() {
+        playing = false;
+    }
+
+    public void resume() {
+        if (!ended) {
+            playing = true;
+            fill();
+        }
+    }
+
+    public void rewind() {
+        reset(0);
+    }
+
+    public void rewindToLoopPosition() {
+        reset(loopFrame);
+    }
+
+    public boolean playing() {
+        return playing;
+    }
+
+    public boolean done() {
+        return reference.done();
+    }
+
+    public boolean loop() {
+        return loop;
+    }
+
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public int getLoopPositionByFrame() {
+        return (int) loopFrame;
+    }
+
+    public double getLoopPositionBySeconds() {
+        return loopFrame / (double) TinySound.FORMAT.getFrameRate();
+    }
+
+    public void setLoopPositionByFrame(int frameIndex) {
+        loopFrame = Math.max(0, frameIndex);
+    }
+
+    public void setLoopPositionBySeconds(double seconds) {
+        setLoopPositionByFrame((int) Math.round(seconds * TinySound.FORMAT.getFrameRate()));
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public void setVolume(double volume) {
+        this.volume = Math.max(0.0, volume);
+    }
+
+    public double getPan() {
+        return pan;
+    }
+
+    public void setPan(double pan) {
+        this.pan = Math.max(-1.0, Math.min(1.0, pan));
+    }
+
+    public void unload() {
+        playing = false;
+        mixer.unRegisterMusicReference(reference);
+        reference.dispose();
+    }
+
+    // What TinySound's mixer sees of us; called on the mixer thread, holding the mixer's lock.
+    private final class Reference implements MusicReference
+    {
+        public boolean getPlaying() {
+            return playing;
+        }
+
+        public boolean getLoop() {
+            return loop;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getLoopPosition() {
+            return loopFrame * FRAME_SIZE;
+        }
+
+        public double getVolume() {
+            return volume;
+        }
+
+        public double getPan() {
+            return pan;
+        }
+
+        public void setPlaying(boolean playing) {
+            StreamingMusic.this.playing = playing;
+        }
+
+        public void setLoop(boolean loop) {
+            StreamingMusic.this.loop = loop;
+        }
+
+        public void setPosition(long position) {
+            // seeking is done through rewind() and rewindToLoopPosition()
+        }
+
+        public void setLoopPosition(long loopPosition) {
+            loopFrame = loopPosition / FRAME_SIZE;
+        }
+
+        public void setVolume(double volume) {
+            StreamingMusic.this.setVolume(volume);
+        }
+
+        public void setPan(double pan) {
+            StreamingMusic.this.setPan(pan);
+        }
+
+        public long bytesAvailable() {
+            long n = ring == null ? 0 : writePos - readPos;
+            if (n == 0 && ended)
+                playing = false;  // played to the end
+            return n;
+        }
+
+        public boolean done() {
+            return ended && !playing && writePos == readPos;
+        }
+
+        public void skipBytes(long num) {
+            long n = Math.min(num - num % FRAME_SIZE, bytesAvailable());
+            readPos += n;
+            position += n;
+        }
+
+        // The ring holds little-endian samples, whatever the mixer asks for, as do TinySound's own musics.
+        public void nextTwoBytes(int[] data, boolean bigEndian) {
+            int i = (int) readPos & (RING_SIZE - 1);
+            byte[] r = ring;
+            data[0] = (r[i + 1] << 8) | (r[i] & 0xFF);
+            data[1] = (r[i + 3] << 8) | (r[i + 2] & 0xFF);
+            readPos += FRAME_SIZE;
+            position += FRAME_SIZE;
+        }
+
+        public void dispose() {
+            synchronized (mixer) {
+                closeStream();
+                ring = null;
+                chunk = null;
+                readPos = writePos = 0;
+                ended = true;
+            }
+        }
+    }
+}
@@ -6,6 +6,8 @@ import com.illcode.meterman.Utils;
 import com.illcode.meterman.ui.MetermanUI;
 import com.illcode.meterman.ui.UIConstants;
 
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -16,9 +18,7 @@ import java.awt.image.BufferedImage;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 
 public class SwingUI implements MetermanUI
@@ -33,19 +33,33 @@ public class SwingUI implements MetermanUI
 
     private List<Entity> roomEntities, inventoryEntities;
 
-    private Map<String,BufferedImage> imageMap;
+    private ImageManager images;
     private BufferedImage defaultFrameImage;
     private String currentFrameImage, currentEntityImage;
+    private ImageManager.Callback frameImageCallback, entityImageCallback;
 
     int maxBufferSize;
 
     public SwingUI() {
         roomEntities = new ArrayList<>();
         inventoryEntities = new ArrayList<>();
-        imageMap = new HashMap<>();
+        // images are shown once decoded, if they are still wanted by then
+        frameImageCallback = new ImageManager.Callback() {
+            public void imageLoaded(String name, BufferedImage image) {
+                if (name.equals(currentFrameImage))
+                    mainFrame.setFrameImage(image);
+            }
+        };
+        entityImageCallback = new ImageManager.Callback() {
+            public void imageLoaded(String name, BufferedImage image) {
+                if (name.equals(currentEntityImage))
+                    mainFrame.setEntityImage(image);
+            }
+        };
     }
 
     public void init() {
+        images = new ImageManager(Utils.intPref("image-cache-size", 65536) * 1024L);
         try {
             SwingUtilities.invokeAndWait(new Runnable() {
                 public void run() {
@@ -87,6 +101,7 @@ public class SwingUI implements MetermanUI
         Runnable doRun = new Runnable() {
             public void run() {
                 unloadAllImages();
+                images.shutdown();
                 defaultFrameImage.flush();
                 defaultFrameImage = null;
                 waitDialog.dispose();
@@ -138,18 +153,16 @@ public class SwingUI implements MetermanUI
     }
 
     public void loadImage(String name, Path p) {
-        if (!imageMap.containsKey(name)) {
-            BufferedImage img = GuiUtils.loadBitmaskImage(p);
-            if (img != null)
-                imageMap.put(name, img);
-        }
+        images.register(name, p);
     }
 
     public void unloadImage(String name) {
-        BufferedImage img = imageMap.get(name);
-        if (img != null)
-            img.flush();
-        imageMap.remove(name);
+        images.unregister(name);
+    }
+
+    public void prefetchImage(String imageName) {
+        if (imageName != UIConstants.DEFAULT_FRAME_IMAGE && imageName != UIConstants.NO_IMAGE)
+            images.prefetch(imageName);
     }
 
     public void unloadAllImages() {
@@ -157,23 +170,20 @@ public class SwingUI implements MetermanUI
         currentFrameImage = UIConstants.NO_IMAGE;
         mainFrame.setEntityImage(null);
         currentEntityImage = UIConstants.NO_IMAGE;
-        for (BufferedImage img : imageMap.values())
-            img.flush();
-        imageMap.clear();
+        images.clear();
+        mainFrame.scaledImages.clear();
     }
 
     public void setFrameImage(String imageName) {
         if (currentFrameImage.equals(imageName))
             return;
         currentFrameImage = imageName;
-        BufferedImage img;
         if (imageName == UIConstants.DEFAULT_FRAME_IMAGE)
-            img = defaultFrameImage;
+            mainFrame.setFrameImage(defaultFrameImage);
         else if (imageName == UIConstants.NO_IMAGE)
-            img = null;
-        else
-            img = imageMap.get(imageName);
-        mainFrame.setFrameImage(img);
+            mainFrame.setFrameImage(null);
+        else  // if it isn't decoded yet, the old image stays up until it is
+            images.load(imageName, frameImageCallback);
     }
 
     public String getFrameImage() {
@@ -184,12 +194,10 @@ public class SwingUI implements MetermanUI
         if (currentEntityImage.equals(imageName))
             return;
         currentEntityImage = imageName;
-        BufferedImage img;
         if (imageName == UIConstants.NO_IMAGE)
-            img = null;
+            mainFrame.setEntityImage(null);
         else
-            img = imageMap.get(imageName);
-        mainFrame.setEntityImage(img);
+            images.load(imageName, entityImageCallback);
     }
 
     public String getEntityImage() {
@@ -261,6 +269,17 @@ public class SwingUI implements MetermanUI
             mainFrame.roomListModel.set(idx, e.getListName());
     }
 
+    public void setRoomEntities(List<Entity> entities) {
+        if (listMatches(roomEntities, mainFrame.roomListModel, entities, null)) {
+            mainFrame.roomList.clearSelection();
+        } else {
+            roomEntities.clear();
+            roomEntities.addAll(entities);
+            mainFrame.roomListModel = createListModel(entities, null);
+            mainFrame.roomList.setModel(mainFrame.roomListModel);  // which clears the selection
+        }
+    }
+
     public void clearInventoryEntities() {
         inventoryEntities.clear();
         mainFrame.inventoryListModel.clear();
@@ -292,6 +311,46 @@ public class SwingUI implements MetermanUI
         }
     }
 
+    public void setInventoryEntities(List<Entity> entities, List<String> modifiers) {
+        if (listMatches(inventoryEntities, mainFrame.inventoryListModel, entities, modifiers)) {
+            mainFrame.inventoryList.clearSelection();
+        } else {
+            inventoryEntities.clear();
+            inventoryEntities.addAll(entities);
+            mainFrame.inventoryListModel = createListModel(entities, modifiers);
+            mainFrame.inventoryList.setModel(mainFrame.inventoryListModel);
+        }
+    }
+
+    // Returns true if a list shows the given entities, with the given modifiers (if not null), already
+    private static boolean listMatches(List<Entity> listed, DefaultListModel<String> model,
+                                       List<Entity> entities, List<String> modifiers) {
+        int n = entities.size();
+        if (listed.size() != n || model.getSize() != n)
+            return false;
+        for (int i = 0; i < n; i++) {
+            Entity e = entities.get(i);
+            if (listed.get(i) != e || !model.getElementAt(i).equals(listLabel(e, modifiers != null ? modifiers.get(i) : null)))
+                return false;
+        }
+        return true;
+    }
+
+    // Creates a model for a list of entities, which is filled in before any JList listens to it.
+    private static DefaultListModel<String> createListModel(List<Entity> entities, List<String> modifiers) {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        int n = entities.size();
+        model.ensureCapacity(n);
+        for (int i = 0; i < n; i++)
+            model.addElement(listLabel(entities.get(i), modifiers != null ? modifiers.get(i) : null));
+        return model;
+    }
+
+    private static String listLabel(Entity e, String modifiers) {
+        String s = e.getListName();
+        return modifiers != null ? s + " " + modifiers : s;
+    }
+
     public void selectEntity(Entity e) {
         int idx = roomEntities.indexOf(e);
         if (idx != -1) {
@@ -328,6 +387,10 @@ public class SwingUI implements MetermanUI
         mainFrame.removeAction(actionLabel);
     }
 
+    public void setActions(List<String> actionLabels) {
+        mainFrame.setActions(actionLabels);
+    }
+
     public void setStatusLabel(int labelPosition, String label) {
         switch (labelPosition) {
         case UIConstants.LEFT_LABEL:
@@ -355,9 +418,9 @@ public class SwingUI implements MetermanUI
     }
 
     public void showImageDialog(String header, String imageName, int scale, String text, String buttonLabel) {
-        BufferedImage image = imageName == UIConstants.NO_IMAGE ? null : imageMap.get(imageName);
-        if (image != null && scale > 1)
-            image = GuiUtils.getScaledImage(image, scale);
+        BufferedImage image = imageName == UIConstants.NO_IMAGE ? null : images.get(imageName);
+        if (image != null)
+            image = mainFrame.scaledImages.get(image, scale);
         imageDialog.show(header, image, text, buttonLabel);
     }
 
@@ -375,7 +438,7 @@ public class SwingUI implements MetermanUI
         Entity e = null;
         if (idx != -1)
             e = roomEntities.get(idx);
-        Meterman.gm.entitySelected(e);
+        Meterman.gm().entitySelected(e);
     }
 
     /** Like {@link #roomEntitySelected(int)}, but for the inventory list. */
@@ -383,6 +446,6 @@ public class SwingUI implements MetermanUI
         Entity e = null;
         if (idx != -1)
             e = inventoryEntities.get(idx);
-        Meterman.gm.entitySelected(e);
+        Meterman.gm().entitySelected(e);
     }
 }
@@ -13,36 +13,41 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 import static com.illcode.meterman.Utils.logger;
 
 public final class TinySoundManager implements SoundManager
 {
+    // How often the sound thread tops up the buffers of streaming music; well within their 1.5 seconds.
+    private static final long STREAM_FILL_INTERVAL = 100;  // ms
+
     private boolean initialized;
     private SoundThreadRunner soundThreadRunner;
     private Thread soundThread;
-    private BlockingQueue<SoundMessage> queue;   // shared with soundThreadRunner
+    private CommandRing ring;   // shared with soundThreadRunner
 
-    private final SoundMessage SHUTDOWN_MESSAGE;
     private AtomicInteger pendingLoads;   // keeps track of pending music loads
 
     private boolean musicEnabled, soundEnabled;
+    private boolean streamMusic;   // if true, OGG music is decoded as it plays; see StreamingMusic
 
     public TinySoundManager() {
-        queue = new ArrayBlockingQueue<>(10);
+        ring = new CommandRing(64);
         pendingLoads = new AtomicInteger(0);
-        SHUTDOWN_MESSAGE = new SoundMessage(SoundMessage.SHUTDOWN);
         initialized = false;
     }
 
     public void init() {
         if (!initialized) {
+            streamMusic = Utils.booleanPref("stream-music", true);
             soundThreadRunner = new SoundThreadRunner();
             soundThread = new Thread(soundThreadRunner);
+            ring.consumer = soundThread;
             logger.info("SoundManager spinning up soundThread");
             soundThread.start();
         }
@@ -52,12 +57,12 @@ public final class TinySoundManager implements SoundManager
     public void dispose() {
         if (initialized) {
             try {
-                queue.put(SHUTDOWN_MESSAGE);
+                send(SoundMessage.SHUTDOWN);
                 soundThread.join();
                 logger.info("SoundManager joined soundThread");
                 soundThread = null;
                 soundThreadRunner = null;
-                queue.clear();
+                ring.clear();
                 pendingLoads.set(0);
             } catch (InterruptedException e) {
                 logger.log(Level.SEVERE, "SoundManager", e);
@@ -67,19 +72,11 @@ public final class TinySoundManager implements SoundManager
     }
 
     public void clearAudio() {
-        try {
-            queue.put(new SoundMessage(SoundMessage.CLEAR_AUDIO));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.CLEAR_AUDIO);
     }
 
     public void setGlobalVolume(double volume) {
-        try {
-            queue.put(new SoundMessage(SoundMessage.SET_VOLUME, Double.toString(volume)));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.SET_VOLUME, null, volume);
     }
 
     public void setMusicEnabled(boolean enabled) {
@@ -95,46 +92,26 @@ public final class TinySoundManager implements SoundManager
     }
 
     public void loadMusic(String name, Path p) {
-        try {
-            pendingLoads.incrementAndGet();
-            queue.put(new SoundMessage(SoundMessage.LOAD_MUSIC, name, p));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        pendingLoads.incrementAndGet();
+        send(SoundMessage.LOAD_MUSIC, name, p);
     }
 
     public void playMusic(String name, boolean loop, double volume) {
         if (!musicEnabled)
             return;
-        try {
-            queue.put(new SoundMessage(SoundMessage.PLAY_MUSIC, name, loop, volume));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.PLAY_MUSIC, name, loop, volume);
     }
 
     public void stopMusic(String name) {
-        try {
-            queue.put(new SoundMessage(SoundMessage.STOP_MUSIC, name));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.STOP_MUSIC, name);
     }
 
     public void pauseAllMusic() {
-        try {
-            queue.put(new SoundMessage(SoundMessage.PAUSE_ALL_MUSIC));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.PAUSE_ALL_MUSIC);
     }
 
     public void resumeAllMusic() {
-        try {
-            queue.put(new SoundMessage(SoundMessage.RESUME_ALL_MUSIC));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.RESUME_ALL_MUSIC);
     }
 
     public void setSoundEnabled(boolean enabled) {
@@ -146,19 +123,11 @@ public final class TinySoundManager implements SoundManager
     }
 
     public void unloadMusic(String name) {
-        try {
-            queue.put(new SoundMessage(SoundMessage.UNLOAD_MUSIC, name));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.UNLOAD_MUSIC, name);
     }
 
     public void loadSound(String name, Path p) {
-        try {
-            queue.put(new SoundMessage(SoundMessage.LOAD_SOUND, name, p));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.LOAD_SOUND, name, p);
     }
 
     public void playSound(String name, double volume) {
@@ -166,24 +135,36 @@ public final class TinySoundManager implements SoundManager
             return;
         if (pendingLoads.get() != 0)   // sound won't play quickly, so don't play it at all
             return;
-        try {
-            queue.put(new SoundMessage(SoundMessage.PLAY_SOUND, name, volume));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.PLAY_SOUND, name, volume);
     }
 
 
     public void unloadSound(String name) {
-        try {
-            queue.put(new SoundMessage(SoundMessage.UNLOAD_SOUND, name));
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "SoundManager", e);
-        }
+        send(SoundMessage.UNLOAD_SOUND, name);
     }
 
     public boolean finishedProcessing() {
-        return queue.isEmpty() && pendingLoads.get() == 0;
+        return ring.isEmpty() && pendingLoads.get() == 0;
+    }
+
+    private void send(int command) {
+        ring.send(command, null, null, false, 0.0);
+    }
+
+    private void send(int command, String name) {
+        ring.send(command, name, null, false, 0.0);
+    }
+
+    private void send(int command, String name, Path path) {
+        ring.send(command, name, path, false, 0.0);
+    }
+
+    private void send(int command, String name, double val) {
+        ring.send(command, name, null, false, val);
+    }
+
+    private void send(int command, String name, boolean flag, double val) {
+        ring.send(command, name, null, flag, val);
     }
 
     private class SoundThreadRunner implements Runnable
@@ -191,25 +172,30 @@ public final class TinySoundManager implements SoundManager
         private Map<String,Music> musicMap;
         private Map<String,Sound> soundMap;
         private List<Music> pausedMusic;
+        private List<StreamingMusic> streams;   // the streaming musics in musicMap
 
         private SoundThreadRunner() {
             musicMap = new HashMap<>(10);
             soundMap = new HashMap<>(20);
             pausedMusic = new ArrayList<>();
+            streams = new ArrayList<>();
         }
 
         public void run() {
             TinySound.init();
             boolean quit = false;
+            SoundMessage msg = new SoundMessage();  // each command is copied into this from the ring
             while (!quit) {
-                SoundMessage msg;
                 Sound s;
                 Music m;
-                try {
-                    msg = queue.take();
-                } catch (InterruptedException e) {
-                    logger.log(Level.WARNING, "SoundThreadRunner", e);
-                    continue;
+                if (streams.isEmpty()) {
+                    ring.take(msg, 0L);
+                } else {
+                    boolean received = ring.take(msg, TimeUnit.MILLISECONDS.toNanos(STREAM_FILL_INTERVAL));
+                    for (StreamingMusic sm : streams)
+                        sm.fill();
+                    if (!received)
+                        continue;
                 }
                 switch (msg.command) {
                 case SoundMessage.SHUTDOWN:
@@ -219,10 +205,7 @@ public final class TinySoundManager implements SoundManager
                     clearAudio();
                     break;
                 case SoundMessage.SET_VOLUME:
-                    // we overload the name field to be a string representation of a double
-                    double vol = Utils.parseDouble(msg.name, -1.0);
-                    if (vol != -1.0)
-                        TinySound.setGlobalVolume(vol);
+                    TinySound.setGlobalVolume(msg.val);
                     break;
                 case SoundMessage.LOAD_SOUND:
                     if (!soundMap.containsKey(msg.name)) {
@@ -250,11 +233,20 @@ public final class TinySoundManager implements SoundManager
                     break;
                 case SoundMessage.LOAD_MUSIC:
                     if (!musicMap.containsKey(msg.name)) {
-                        try {
-                            m = TinySound.loadMusic(msg.path.toUri().toURL());
-                        } catch (MalformedURLException e) {
-                            logger.log(Level.WARNING, "TinySoundManager LOAD_MUSIC", e);
-                            m = null;
+                        m = null;
+                        if (streamMusic && msg.path.getFileName().toString().toLowerCase().endsWith(".ogg")) {
+                            StreamingMusic sm = StreamingMusic.open(msg.path);
+                            if (sm != null) {
+                                streams.add(sm);
+                                m = sm;
+                            }
+                        }
+                        if (m == null) {  // not streamed, or can't be
+                            try {
+                                m = TinySound.loadMusic(msg.path.toUri().toURL());
+                            } catch (MalformedURLException e) {
+                                logger.log(Level.WARNING, "TinySoundManager LOAD_MUSIC", e);
+                            }
                         }
                         if (m != null)
                             musicMap.put(msg.name, m);
@@ -276,12 +268,14 @@ public final class TinySoundManager implements SoundManager
                             music.resume();
                         pausedMusic.clear();
                     }
+                    break;
                 case SoundMessage.UNLOAD_MUSIC:
                     m = musicMap.remove(msg.name);
                     if (m != null) {
                         m.stop();
                         m.unload();
                         pausedMusic.remove(m);  // it _might_ be in there
+                        streams.remove(m);
                     }
                     break;
                 case SoundMessage.PLAY_MUSIC:
@@ -294,6 +288,13 @@ public final class TinySoundManager implements SoundManager
                     if (m != null)
                         m.stop();
                     break;
+                case SoundMessage.RESTART_MUSIC:
+                    m = musicMap.get(msg.name);
+                    if (m != null) {
+                        m.stop();
+                        m.play(msg.flag, msg.val);
+                    }
+                    break;
                 }
             } // end main thread loop
             clearAudio();
@@ -307,6 +308,7 @@ public final class TinySoundManager implements SoundManager
                 m.unload();
             }
             musicMap.clear();
+            streams.clear();
             for (Sound s : soundMap.values()) {
                 s.stop();
                 s.unload();
@@ -325,6 +327,7 @@ public final class TinySoundManager implements SoundManager
         private static final int UNLOAD_MUSIC = 5;
         private static final int PLAY_MUSIC = 6;
         private static final int STOP_MUSIC = 7;
+        private static final int RESTART_MUSIC = 8;   // STOP_MUSIC then PLAY_MUSIC, coalesced
 
         private static final int SET_VOLUME = 50;
         private static final int PAUSE_ALL_MUSIC = 51;
@@ -339,38 +342,157 @@ public final class TinySoundManager implements SoundManager
         boolean flag;
         double val;
 
-        private SoundMessage(int command) {
+        private void set(int command, String name, Path path, boolean flag, double val) {
             this.command = command;
+            this.name = name;
+            this.path = path;
+            this.flag = flag;
+            this.val = val;
         }
 
-        private SoundMessage(int command, String name) {
-            this.command = command;
-            this.name = name;
+        private void copyTo(SoundMessage msg) {
+            msg.set(command, name, path, flag, val);
         }
 
-        private SoundMessage(int command, String name, Path path) {
-            this.command = command;
-            this.name = name;
-            this.path = path;
+        /**
+         * Folds a following command into this one, if it makes this one moot: a volume change replaces an
+         * earlier one, and a play or stop of a track replaces, or combines with, an earlier play or stop of it.
+         * @return true if the command was folded in
+         */
+        private boolean coalesce(int command, String name, boolean flag, double val) {
+            switch (command) {
+            case SET_VOLUME:
+                if (this.command != SET_VOLUME)
+                    return false;
+                this.val = val;
+                return true;
+            case PLAY_MUSIC:
+                if (!name.equals(this.name))
+                    return false;
+                if (this.command == STOP_MUSIC)
+                    this.command = RESTART_MUSIC;
+                else if (this.command != PLAY_MUSIC && this.command != RESTART_MUSIC)
+                    return false;
+                this.flag = flag;
+                this.val = val;
+                return true;
+            case STOP_MUSIC:
+                if (!name.equals(this.name) ||
+                    (this.command != PLAY_MUSIC && this.command != STOP_MUSIC && this.command != RESTART_MUSIC))
+                    return false;
+                this.command = STOP_MUSIC;
+                return true;
+            default:
+                return false;
+            }
         }
+    }
 
-        private SoundMessage(int command, String name, boolean flag) {
-            this.command = command;
-            this.name = name;
-            this.flag = flag;
+    /**
+     * A ring of preallocated message slots, through which commands pass from the threads calling the
+     * SoundManager methods (usually just the one) to the sound thread, without allocating or, on the sound
+     * thread's side, locking. Senders are serialized by the ring's monitor; a command that supersedes the one
+     * sent just before it, if the sound thread hasn't taken that yet, is folded into it rather than queued.
+     * <p/>
+     * Each slot's state is EMPTY, READY (written, waiting for the sound thread), or BUSY (being coalesced into
+     * by a sender, or copied out by the sound thread); whichever thread moves a READY slot to BUSY owns it.
+     */
+    private final class CommandRing
+    {
+        private static final int EMPTY = 0, READY = 1, BUSY = 2;
+
+        private final SoundMessage[] slots;
+        private final AtomicIntegerArray states;
+        private final int mask;
+
+        private long tail;           // guarded by this; the position of the next slot to write
+        private int lastSlot = -1;   // guarded by this; the slot last written, which may be coalesced into
+        private volatile long head;  // written only by the sound thread; the position of the next slot to read
+
+        volatile Thread consumer;    // the sound thread, unparked when a command is sent while it waits
+        private volatile boolean waiting;   // true while the sound thread is (about to be) parked
+
+        /** @param capacity the number of slots, a power of two */
+        CommandRing(int capacity) {
+            slots = new SoundMessage[capacity];
+            for (int i = 0; i < capacity; i++)
+                slots[i] = new SoundMessage();
+            states = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
         }
 
-        private SoundMessage(int command, String name, boolean flag, double val) {
-            this.command = command;
-            this.name = name;
-            this.flag = flag;
-            this.val = val;
+        /** Sends a command to the sound thread, waiting if the ring is full. */
+        synchronized void send(int command, String name, Path path, boolean flag, double val) {
+            if (lastSlot != -1 && states.compareAndSet(lastSlot, READY, BUSY)) {
+                boolean coalesced = slots[lastSlot].coalesce(command, name, flag, val);
+                states.set(lastSlot, READY);
+                if (coalesced)
+                    return;
+            }
+            int i = (int) tail & mask;
+            for (int spins = 0; states.get(i) != EMPTY; spins++) {  // full: wait for the sound thread to catch up
+                if (spins < 100)
+                    Thread.yield();
+                else
+                    LockSupport.parkNanos(this, 100000L);
+            }
+            slots[i].set(command, name, path, flag, val);
+            states.set(i, READY);
+            lastSlot = i;
+            tail++;
+            Thread t = consumer;
+            if (waiting && t != null)
+                LockSupport.unpark(t);
         }
 
-        private SoundMessage(int command, String name, double val) {
-            this.command = command;
-            this.name = name;
-            this.val = val;
+        /**
+         * Called on the sound thread to take the next command, waiting for one if need be.
+         * @param msg message into which the command is copied
+         * @param timeoutNanos the longest to wait, or 0 to wait indefinitely
+         * @return true if a command was taken, false if the wait timed out
+         */
+        boolean take(SoundMessage msg, long timeoutNanos) {
+            int i = (int) head & mask;
+            long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0L;
+            while (true) {
+                int state = states.get(i);
+                if (state == READY && states.compareAndSet(i, READY, BUSY)) {
+                    slots[i].copyTo(msg);
+                    slots[i].set(0, null, null, false, 0.0);  // let go of the name and path
+                    head++;   // before the slot is freed, so isEmpty() doesn't look at it
+                    states.set(i, EMPTY);
+                    return true;
+                } else if (state == BUSY) {   // a sender is coalescing into it
+                    Thread.yield();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (timeoutNanos != 0 && remaining <= 0)
+                        return false;
+                    waiting = true;
+                    if (states.get(i) == EMPTY) {  // check again, now that a sender will see we're waiting
+                        if (timeoutNanos == 0)
+                            LockSupport.park(this);
+                        else
+                            LockSupport.parkNanos(this, remaining);
+                    }
+                    waiting = false;
+                }
+            }
+        }
+
+        /** Returns true if the sound thread has taken every command sent. */
+        boolean isEmpty() {
+            return states.get((int) head & mask) == EMPTY;
+        }
+
+        /** Discards any commands not yet taken; called once the sound thread has finished. */
+        synchronized void clear() {
+            for (int i = 0; i < slots.length; i++) {
+                slots[i].set(0, null, null, false, 0.0);
+                states.set(i, EMPTY);
+            }
+            tail = head = 0;
+            lastSlot = -1;
         }
     }
 }